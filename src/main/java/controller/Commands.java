@@ -1,7 +1,42 @@
 package controller;
 
+import java.util.Set;
+
 public enum Commands {
     FORWARD, BACKWARD, LEFT, RIGHT, LEFTCLICK, RIGHTCLICK, SPEED_0025, SPEED_01, SPEED_1, REMOVE, ADD, JUMP, START_DEBUG, END_DEBUG,
-    PLACE_LIGHT, REMOVE_LIGHT, CREATE_LEVEL, ID0, ID1, ID2, ID3
-}
+    PLACE_LIGHT, REMOVE_LIGHT, CREATE_LEVEL, ID0, ID1, ID2, ID3;
+
+    private static final Commands[] VALUES = values();
+    /**
+     * Разовые команды: выполняются один раз на нажатие, а не пока клавиша удерживается
+     */
+    public static final long ACTIONS = ADD.bit() | REMOVE.bit();
+
+    /**
+     * Бит команды в маске ввода
+     */
+    public long bit() {
+        return 1L << ordinal();
+    }
 
+    public boolean in(long mask) {
+        return (mask & bit()) != 0;
+    }
+
+    public static long mask(Set<Commands> commands) {
+        long mask = 0;
+        for (Commands command : commands) mask |= command.bit();
+        return mask;
+    }
+
+    /**
+     * Заполнение множества командами маски (множество предварительно очищается)
+     */
+    public static <T extends Set<Commands>> T fill(long mask, T commands) {
+        commands.clear();
+        for (Commands command : VALUES) {
+            if (command.in(mask)) commands.add(command);
+        }
+        return commands;
+    }
+}
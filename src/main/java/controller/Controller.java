@@ -2,15 +2,14 @@ package controller;
 
 import engine.Engine;
 import engine.entities.Model;
+import engine.region.EditJournal;
 import graphics.Camera;
 import graphics.Display;
 import org.joml.Vector3f;
 import org.joml.Vector3i;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.file.Path;
 
 import static controller.Commands.*;
 import static org.lwjgl.glfw.GLFW.*;
@@ -20,31 +19,33 @@ public class Controller {
     private final Display display;
     private final Camera camera;
     private final Model model;
-    private final Set<Commands> commandsSet;
-    private final Map<Commands, Boolean> commandsHashSet;
+    /**
+     * Маска команд текущего кадра
+     */
+    private long commands;
+    /**
+     * Маска разовых команд, клавиша которых ещё не отпущена после срабатывания
+     */
+    private long latched;
+    /**
+     * Разовые команды, не принятые заполненной очередью, отправляются со следующим кадром
+     */
+    private long unsent;
     public Mode status;
 
     public Controller() {
         engine = new Engine(this, Engine.generateBlockLayer(new Vector3i(0, -2, 0), 25));
+        try {
+            final int replayed = engine.attachJournal(EditJournal.open(Path.of("journal")));
+            System.out.println("Восстановлено правок из журнала: " + replayed);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         camera = new Camera(1900, 1000, new Vector3f(0.0f, 0.0f, 2.0f), new Vector3f(0.0f, 0.0f, 1.0f));
         display = new Display(this, engine, camera, 1900, 1000, "test");
-        model = new Model(new Vector3f(0f, 0f, 0f), 0.5f, camera);
-        commandsSet = new HashSet<>();
-        commandsHashSet = new HashMap<>();
+        model = new Model(new Vector3f(0f, 0f, 0f), 0.5f);
+        engine.setModel(model);
         status = Mode.BEFORELAUNCH;
-
-        commandsHashSet.put(REMOVE, true);
-        commandsHashSet.put(ADD, true);
-        commandsHashSet.put(JUMP, true);
-        commandsHashSet.put(START_DEBUG, true);
-        commandsHashSet.put(END_DEBUG, true);
-        commandsHashSet.put(PLACE_LIGHT, true);
-        commandsHashSet.put(REMOVE_LIGHT, true);
-        commandsHashSet.put(CREATE_LEVEL, true);
-        commandsHashSet.put(ID0, true);
-        commandsHashSet.put(ID1, true);
-        commandsHashSet.put(ID2, true);
-        commandsHashSet.put(ID3, true);
     }
 
     public void run() {
@@ -54,37 +55,26 @@ public class Controller {
         display.run();
     }
 
-    private void lockKey(Commands command) {
-        commandsHashSet.put(command, false);
-    }
-
-    private void unlockKey(Commands command) {
-        commandsHashSet.put(command, true);
-    }
-
-    private boolean getKeyValue(Commands command) {
-        return commandsHashSet.get(command);
-    }
-
     private void keyHandler(long window, Commands command, int key) {
-        if (getKeyValue(command) && glfwGetKey(window, key) == GLFW_PRESS) {
-            commandsSet.add(command);
-            lockKey(command);
+        final int state = glfwGetKey(window, key);
+        if (!command.in(latched) && state == GLFW_PRESS) {
+            commands |= command.bit();
+            latched |= command.bit();
         }
-        if (!getKeyValue(command) && glfwGetKey(window, key) == GLFW_RELEASE) unlockKey(command);
+        if (command.in(latched) && state == GLFW_RELEASE) latched &= ~command.bit();
     }
 
     public void handleInput(long window) {
-        commandsSet.clear();
+        commands = 0;
 
-        if (glfwGetKey(window, GLFW_KEY_W) == GLFW_PRESS) commandsSet.add(FORWARD);
-        if (glfwGetKey(window, GLFW_KEY_S) == GLFW_PRESS) commandsSet.add(BACKWARD);
-        if (glfwGetKey(window, GLFW_KEY_A) == GLFW_PRESS) commandsSet.add(LEFT);
-        if (glfwGetKey(window, GLFW_KEY_D) == GLFW_PRESS) commandsSet.add(RIGHT);
+        if (glfwGetKey(window, GLFW_KEY_W) == GLFW_PRESS) commands |= FORWARD.bit();
+        if (glfwGetKey(window, GLFW_KEY_S) == GLFW_PRESS) commands |= BACKWARD.bit();
+        if (glfwGetKey(window, GLFW_KEY_A) == GLFW_PRESS) commands |= LEFT.bit();
+        if (glfwGetKey(window, GLFW_KEY_D) == GLFW_PRESS) commands |= RIGHT.bit();
 
-        if (glfwGetKey(window, GLFW_KEY_LEFT_SHIFT) == GLFW_PRESS) commandsSet.add(SPEED_1);
-        if (glfwGetKey(window, GLFW_KEY_LEFT_SHIFT) == GLFW_RELEASE) commandsSet.add(SPEED_01);
-        if (glfwGetKey(window, GLFW_KEY_LEFT_CONTROL) == GLFW_PRESS) commandsSet.add(SPEED_0025);
+        if (glfwGetKey(window, GLFW_KEY_LEFT_SHIFT) == GLFW_PRESS) commands |= SPEED_1.bit();
+        if (glfwGetKey(window, GLFW_KEY_LEFT_SHIFT) == GLFW_RELEASE) commands |= SPEED_01.bit();
+        if (glfwGetKey(window, GLFW_KEY_LEFT_CONTROL) == GLFW_PRESS) commands |= SPEED_0025.bit();
 
         if (glfwGetKey(window, GLFW_KEY_EQUAL) == GLFW_PRESS) display.increaseAmbLight();
         if (glfwGetKey(window, GLFW_KEY_MINUS) == GLFW_PRESS) display.decreaseAmbLight();
@@ -93,9 +83,9 @@ public class Controller {
         keyHandler(window, REMOVE, GLFW_KEY_R);
 
         camera.mouseInput(window);
-        model.handleInput(commandsSet);
-        if (commandsSet.contains(ADD)) engine.rayTrace(model.getOrientation(), model.getCameraPosition(), ADD);
-        if (commandsSet.contains(REMOVE)) engine.rayTrace(model.getOrientation(), model.getCameraPosition(), REMOVE);
+        // движение и правки выполняет шаг симуляции в потоке Engine, очередь не блокирует кадр
+        unsent |= commands & ACTIONS;
+        if (engine.submitInput(commands | unsent, camera.orientation)) unsent = 0;
 
         if (glfwGetKey(window, GLFW_KEY_Q) == GLFW_PRESS) status = Mode.FINISHED;
     }
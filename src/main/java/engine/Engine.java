@@ -7,46 +7,490 @@ import engine.entities.Block;
 import engine.entities.LightPoint;
 import engine.entities.Line;
 import engine.entities.MirrorGlass;
+import engine.entities.Model;
+import engine.raycast.RayBatch;
+import engine.raycast.RayCaster;
+import engine.raycast.RayHit;
+import engine.region.EditJournal;
+import engine.region.MappedWorld;
+import engine.region.RegionReader;
+import engine.region.RegionWriter;
+import engine.storage.ChunkLocks;
+import engine.storage.BlockStorage;
+import engine.storage.StorageType;
+import engine.tick.CommandQueue;
+import engine.tick.TickScheduler;
+import engine.tick.WorldState;
 import org.joml.Vector3f;
 import org.joml.Vector3i;
 import org.joml.Vector4f;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import static engine.storage.BlockStorage.CHUNK_VOLUME;
+import static engine.storage.BlockStorage.EMPTY;
 
 public class Engine {
     private final Controller controller;
 
-    public final ConcurrentHashMap<Vector3i, Block> blocks;
+    public final BlockStorage blocks;
     public final Set<Line> lines;
     public final Set<LightPoint> lightPoints;
     public final Set<MirrorGlass> mirrors;
 
+    /**
+     * Наибольшее расстояние, на котором rayTrace находит блок
+     */
+    private float rayDistance = 100.0f;
+    private final RayCaster rayCaster;
+    /**
+     * Правки блоков разделяют worldLock между собой (общая часть) и упорядочиваются блокировками
+     * чанков, пакетный запрос лучей берёт его целиком (исключительная часть) и видит неизменный мир
+     */
+    private final ReadWriteLock worldLock = new ReentrantReadWriteLock();
+    private final ChunkLocks chunkLocks = new ChunkLocks();
+
+    /**
+     * Подключённый файл мира с подкачкой чанков или null
+     */
+    private volatile MappedWorld world;
+    /**
+     * Положение наблюдателя, вокруг которого подкачиваются чанки файла мира
+     */
+    private volatile float viewerX, viewerY, viewerZ;
+    /**
+     * Подключённый журнал правок или null
+     */
+    private volatile EditJournal journal;
+    /**
+     * Частота шагов симуляции в run, шагов в секунду
+     */
+    public static final int TICK_RATE = 60;
+    /**
+     * Наибольшее количество шагов, которыми run догоняет отставание
+     */
+    private static final int MAX_CATCH_UP_TICKS = 5;
+    /**
+     * Период обновления набора загруженных чанков, шагов
+     */
+    private static final int RESIDENCY_TICKS = TICK_RATE / 10;
+    /**
+     * Вместимость очереди ввода, команд
+     */
+    private static final int INPUT_CAPACITY = 256;
+
+    private final TickScheduler scheduler = new TickScheduler(TICK_RATE, MAX_CATCH_UP_TICKS);
+    /**
+     * Модель, которую двигает симуляция, или null
+     */
+    private volatile Model model;
+    /**
+     * Команды ввода от Controller, разбираются в начале шага
+     */
+    private final CommandQueue input = new CommandQueue(INPUT_CAPACITY);
+    private final CommandQueue.Sink inputSink = this::acceptInput;
+    /**
+     * Удерживаемые команды последнего ввода и разовые команды, пришедшие за шаг. Только поток шага
+     */
+    private long heldCommands = 0, tickActions = 0;
+    private final Vector3f tickLook = new Vector3f(0.0f, 0.0f, 1.0f);
+    private final EnumSet<Commands> tickCommands = EnumSet.noneOf(Commands.class);
+    private long tickCount = 0;
+    /**
+     * Последний опубликованный снимок состояния
+     */
+    private volatile WorldState state;
+
     public Engine(Controller controller, Block[] initBlocks) {
+        this(controller, initBlocks, StorageType.CHUNKED);
+    }
+
+    public Engine(Controller controller, Block[] initBlocks, StorageType storageType) {
         System.out.println("Инициализация EngineRuntime");
         this.controller = controller;
 
-        blocks = new ConcurrentHashMap<>();
+        blocks = BlockStorage.create(storageType);
+        rayCaster = new RayCaster(blocks);
         setBlocks(initBlocks);
-        lines = new HashSet<>();
-        lightPoints = new HashSet<>();
+        lines = ConcurrentHashMap.newKeySet();
+        lightPoints = ConcurrentHashMap.newKeySet();
         lightPoints.add(new LightPoint(new Vector3f(0.0f, 7.0f, -10.0f), new Vector4f(1.0f, 0.0f, 0.0f, 1.0f)));
         lightPoints.add(new LightPoint(new Vector3f(0.0f, 7.0f, 10.0f), new Vector4f(1.0f, 1.0f, 1.0f, 1.0f)));
-        mirrors = new HashSet<>();
+        mirrors = ConcurrentHashMap.newKeySet();
         mirrors.add(new MirrorGlass(new Vector3f(0.0f, 3.0f, 1.0f), new Vector3f(1.0f, 0.0f, 0.0f),
                 new Vector3f(0.0f, 2.0f, 2.0f),
                 new Vector3f(0.0f, 4.0f, 2.0f),
                 new Vector3f(0.0f, 4.0f, 0.0f),
                 new Vector3f(0.0f, 2.0f, 0.0f)));
+        publishState(new Vector3f());
         System.out.println("Инициализация EngineRuntime завершена");
     }
 
     private void setBlocks(Block[] initBlocks) {
         for (Block initBlock : initBlocks) {
             if (initBlock == null) throw new RuntimeException("initBlock was null");
-            blocks.put(initBlock.cord, initBlock);
-            updateBlockSpace(initBlock.cord);
+        }
+        paste(initBlocks);
+    }
+
+    /**
+     * Пакетная правка области под исключительной блокировкой мира: подкачка чанков, снимок области,
+     * изменение снимка и запись идут в одном захвате, поэтому между ними не попадают ни одиночные
+     * правки, ни выгрузка подкачанных чанков
+     *
+     * @param modifier изменение снимка области
+     * @return количество чанков, версия которых изменена
+     */
+    private int editRegion(int x0, int y0, int z0, int x1, int y1, int z1, Consumer<RegionEdit> modifier) {
+        worldLock.writeLock().lock();
+        try {
+            ensureResident(x0, y0, z0, x1, y1, z1);
+            final RegionEdit edit = new RegionEdit(blocks, x0, y0, z0, x1, y1, z1);
+            modifier.accept(edit);
+            return edit.apply(journal);
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Заполнение параллелепипеда от (x0, y0, z0) до (x1, y1, z1) включительно одинаковыми блоками
+     *
+     * @return количество чанков, версия которых изменена
+     */
+    public int fillBox(int x0, int y0, int z0, int x1, int y1, int z1, int id, int[] sideIds) {
+        return editRegion(x0, y0, z0, x1, y1, z1, edit -> {
+            for (int i = 0; i < edit.ids.length; i++) edit.set(i, id, sideIds);
+        });
+    }
+
+    /**
+     * Замена в области блоков с id fromId на блоки toId. fromId EMPTY - заполнение пустых ячеек,
+     * toId EMPTY - удаление
+     *
+     * @return количество чанков, версия которых изменена
+     */
+    public int replaceRegion(int x0, int y0, int z0, int x1, int y1, int z1, int fromId, int toId, int[] sideIds) {
+        return editRegion(x0, y0, z0, x1, y1, z1, edit -> {
+            for (int i = 0; i < edit.ids.length; i++) {
+                if (edit.ids[i] != fromId) continue;
+                if (toId == EMPTY) edit.clear(i);
+                else edit.set(i, toId, sideIds);
+            }
+        });
+    }
+
+    /**
+     * Удаление всех блоков области
+     *
+     * @return количество чанков, версия которых изменена
+     */
+    public int clearRegion(int x0, int y0, int z0, int x1, int y1, int z1) {
+        return editRegion(x0, y0, z0, x1, y1, z1, edit -> {
+            for (int i = 0; i < edit.ids.length; i++) {
+                if (edit.ids[i] != EMPTY) edit.clear(i);
+            }
+        });
+    }
+
+    /**
+     * Вставка массива блоков одной пакетной правкой по охватывающей их области. Если блоки
+     * разбросаны так, что область много больше их числа, они вставляются по одному
+     *
+     * @return количество чанков, версия которых изменена
+     */
+    public int paste(Block[] pasted) {
+        if (pasted.length == 0) return 0;
+        // все блоки проверяются до первой записи: ошибка не оставляет вставку выполненной частично
+        for (Block block : pasted) BlockStorage.checkSideIds(block.sideIds);
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (Block block : pasted) {
+            final Vector3i cord = block.cord;
+            minX = Math.min(minX, cord.x);
+            minY = Math.min(minY, cord.y);
+            minZ = Math.min(minZ, cord.z);
+            maxX = Math.max(maxX, cord.x);
+            maxY = Math.max(maxY, cord.y);
+            maxZ = Math.max(maxZ, cord.z);
+        }
+        final long volume = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (volume > 8L * pasted.length + CHUNK_VOLUME) return pasteSparse(pasted);
+        return editRegion(minX, minY, minZ, maxX, maxY, maxZ, edit -> {
+            for (Block block : pasted) edit.set(edit.index(block.cord.x, block.cord.y, block.cord.z), block.id, block.sideIds);
+        });
+    }
+
+    /**
+     * Вставка разбросанных блоков по одному. Версии чанков блоков и их соседей сравниваются до и после
+     * вставки под исключительной блокировкой, чтобы в счёт не попали чужие правки
+     *
+     * @return количество чанков, версия которых изменена
+     */
+    private int pasteSparse(Block[] pasted) {
+        final Map<Long, Integer> versions = new HashMap<>();
+        worldLock.writeLock().lock();
+        try {
+            for (Block block : pasted) {
+                final Vector3i cord = block.cord;
+                versions.computeIfAbsent(BlockStorage.chunkKeyOf(cord.x, cord.y, cord.z), blocks::getChunkVersion);
+                for (int d = -1; d <= 1; d += 2) {
+                    versions.computeIfAbsent(BlockStorage.chunkKeyOf(cord.x + d, cord.y, cord.z), blocks::getChunkVersion);
+                    versions.computeIfAbsent(BlockStorage.chunkKeyOf(cord.x, cord.y + d, cord.z), blocks::getChunkVersion);
+                    versions.computeIfAbsent(BlockStorage.chunkKeyOf(cord.x, cord.y, cord.z + d), blocks::getChunkVersion);
+                }
+            }
+            for (Block block : pasted) setBlock(block.cord.x, block.cord.y, block.cord.z, block.id, block.sideIds);
+            int touched = 0;
+            for (Map.Entry<Long, Integer> entry : versions.entrySet()) {
+                if (blocks.getChunkVersion(entry.getKey()) != entry.getValue()) touched++;
+            }
+            return touched;
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Сохранение всех блоков в файл региона
+     *
+     * @param compressed сжимать ли данные чанков
+     * @return количество записанных чанков
+     */
+    public int save(Path path, boolean compressed) throws IOException {
+        worldLock.writeLock().lock();
+        try {
+            return RegionWriter.write(blocks, path, compressed);
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Загрузка ещё не загруженных чанков региона в кубе radius чанков вокруг блока (x, y, z).
+     * Видимость сторон берётся из файла, поэтому соседние чанки можно загружать в любом порядке
+     *
+     * @return количество загруженных чанков
+     */
+    public int loadChunksAround(RegionReader region, int x, int y, int z, int radius) throws IOException {
+        final int cx = x >> BlockStorage.CHUNK_SHIFT, cy = y >> BlockStorage.CHUNK_SHIFT, cz = z >> BlockStorage.CHUNK_SHIFT;
+        int loaded = 0;
+        worldLock.writeLock().lock();
+        try {
+            for (int dy = -radius; dy <= radius; dy++)
+                for (int dz = -radius; dz <= radius; dz++)
+                    for (int dx = -radius; dx <= radius; dx++) {
+                        final long key = BlockStorage.chunkKey(cx + dx, cy + dy, cz + dz);
+                        if (!region.contains(key) || region.isLoaded(key)) continue;
+                        region.readChunk(key, blocks);
+                        loaded++;
+                    }
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+        return loaded;
+    }
+
+    /**
+     * Загрузка всех ещё не загруженных чанков региона
+     *
+     * @return количество загруженных блоков
+     */
+    public int loadAll(RegionReader region) throws IOException {
+        worldLock.writeLock().lock();
+        try {
+            return region.readAll(blocks);
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Подключение файла мира: дальше чанки загружаются из него вокруг наблюдателя и выгружаются
+     * в него при превышении лимита загруженных чанков. Блоки, уже лежащие в хранилище, считаются изменёнными.
+     * Не совместимо с журналом правок: снимок журнала видит только загруженные чанки
+     *
+     * @throws IllegalStateException если подключён журнал правок
+     */
+    public void attachWorld(MappedWorld world) throws IOException {
+        worldLock.writeLock().lock();
+        try {
+            if (journal != null) throw new IllegalStateException("Файл мира нельзя подключить вместе с журналом правок");
+            this.world = world;
+            world.update(blocks, viewerX, viewerY, viewerZ);
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Запись изменённых чанков и закрытие подключённого файла мира
+     */
+    public void detachWorld() throws IOException {
+        worldLock.writeLock().lock();
+        try {
+            final MappedWorld attached = world;
+            if (attached == null) return;
+            world = null;
+            try {
+                attached.flush(blocks);
+            } finally {
+                attached.close();
+            }
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+    }
+
+    public MappedWorld getWorld() {
+        return world;
+    }
+
+    public void setViewerPosition(Vector3f position) {
+        viewerX = position.x;
+        viewerY = position.y;
+        viewerZ = position.z;
+    }
+
+    /**
+     * Подкачка чанков файла мира вокруг наблюдателя и выгрузка лишних
+     *
+     * @return количество загруженных чанков
+     */
+    public int updateResidency() throws IOException {
+        final MappedWorld attached = world;
+        if (attached == null) return 0;
+        worldLock.writeLock().lock();
+        try {
+            return attached.update(blocks, viewerX, viewerY, viewerZ);
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Загрузка из файла мира выгруженных чанков клетки и её соседей перед правкой клетки:
+     * видимость сторон пересчитывается по соседям
+     */
+    private void ensureResident(int x, int y, int z) {
+        final MappedWorld attached = world;
+        if (attached == null) return;
+        try {
+            attached.ensureResident(blocks, BlockStorage.chunkKeyOf(x, y, z));
+            if ((x & BlockStorage.CHUNK_MASK) == 0) attached.ensureResident(blocks, BlockStorage.chunkKeyOf(x - 1, y, z));
+            if ((x & BlockStorage.CHUNK_MASK) == BlockStorage.CHUNK_MASK) attached.ensureResident(blocks, BlockStorage.chunkKeyOf(x + 1, y, z));
+            if ((y & BlockStorage.CHUNK_MASK) == 0) attached.ensureResident(blocks, BlockStorage.chunkKeyOf(x, y - 1, z));
+            if ((y & BlockStorage.CHUNK_MASK) == BlockStorage.CHUNK_MASK) attached.ensureResident(blocks, BlockStorage.chunkKeyOf(x, y + 1, z));
+            if ((z & BlockStorage.CHUNK_MASK) == 0) attached.ensureResident(blocks, BlockStorage.chunkKeyOf(x, y, z - 1));
+            if ((z & BlockStorage.CHUNK_MASK) == BlockStorage.CHUNK_MASK) attached.ensureResident(blocks, BlockStorage.chunkKeyOf(x, y, z + 1));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Загрузка из файла мира выгруженных чанков области перед пакетной правкой. Область расширяется
+     * на две клетки: пакетная правка пересчитывает стороны оболочки области по её соседям.
+     * Вызывается под исключительной блокировкой мира вместе с самой правкой
+     */
+    private void ensureResident(int x0, int y0, int z0, int x1, int y1, int z1) {
+        final MappedWorld attached = world;
+        if (attached == null) return;
+        final int shift = BlockStorage.CHUNK_SHIFT;
+        try {
+            for (int cy = Math.min(y0, y1) - 2 >> shift; cy <= Math.max(y0, y1) + 2 >> shift; cy++)
+                for (int cz = Math.min(z0, z1) - 2 >> shift; cz <= Math.max(z0, z1) + 2 >> shift; cz++)
+                    for (int cx = Math.min(x0, x1) - 2 >> shift; cx <= Math.max(x0, x1) + 2 >> shift; cx++)
+                        attached.ensureResident(blocks, BlockStorage.chunkKey(cx, cy, cz));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Подключение журнала правок: мир восстанавливается из последнего снимка журнала (если он есть,
+     * текущие блоки отбрасываются) и записей после него, дальше каждая правка пишется в журнал.
+     * Не совместимо с файлом мира: снимок содержал бы только загруженные чанки, а удалённые после
+     * него журналы - правки выгруженных
+     *
+     * @return количество применённых записей журнала
+     * @throws IllegalStateException если подключён файл мира
+     */
+    public int attachJournal(EditJournal journal) throws IOException {
+        worldLock.writeLock().lock();
+        try {
+            if (world != null) throw new IllegalStateException("Журнал правок нельзя подключить вместе с файлом мира");
+            final Path snapshot = journal.getSnapshot();
+            if (snapshot != null) {
+                final Set<Long> chunks = new HashSet<>();
+                blocks.forEachChunk(chunks::add);
+                for (long key : chunks) blocks.evictChunk(key);
+                try (RegionReader region = RegionReader.open(snapshot)) {
+                    region.readAll(blocks);
+                }
+            }
+            final int applied = journal.recover(new EditJournal.Replay() {
+                @Override
+                public void put(int x, int y, int z, int id, int[] sideIds) {
+                    blocks.put(x, y, z, id, sideIds);
+                    updateBlockSpace(x, y, z);
+                }
+
+                @Override
+                public void remove(int x, int y, int z) {
+                    if (blocks.remove(x, y, z)) updateBlockSpace(x, y, z);
+                }
+            });
+            this.journal = journal;
+            return applied;
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Дописывание и закрытие подключённого журнала правок
+     */
+    public void detachJournal() throws IOException {
+        worldLock.writeLock().lock();
+        try {
+            final EditJournal attached = journal;
+            if (attached == null) return;
+            journal = null;
+            attached.close();
+        } finally {
+            worldLock.writeLock().unlock();
+        }
+    }
+
+    public EditJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Сжатие журнала: снимок текущего мира, после его записи старые записи журнала удаляются
+     */
+    public void snapshotJournal() {
+        final EditJournal attached = journal;
+        if (attached == null) return;
+        worldLock.writeLock().lock();
+        try {
+            attached.snapshot(blocks);
+        } finally {
+            worldLock.writeLock().unlock();
         }
     }
 
@@ -62,90 +506,228 @@ public class Engine {
     }
 
     public boolean checkCord(Vector3i vector3i) {
-        return blocks.containsKey(vector3i) && blocks.get(vector3i).id != -1;
+        return blocks.isSolid(vector3i.x, vector3i.y, vector3i.z);
     }
 
-    private void pairUpdate(Block block, Vector3i anotherCord, int sideR, int sideAR) {
-        if (checkCord(anotherCord)) {
-            block.sideRender[sideR] = false;
-            blocks.get(anotherCord).sideRender[sideAR] = false;
+    public boolean checkCord(int x, int y, int z) {
+        return blocks.isSolid(x, y, z);
+    }
+
+    private void pairUpdate(int x, int y, int z, int anotherX, int anotherY, int anotherZ, int sideR, int sideAR) {
+        if (checkCord(anotherX, anotherY, anotherZ)) {
+            blocks.setSideRendered(x, y, z, sideR, false);
+            blocks.setSideRendered(anotherX, anotherY, anotherZ, sideAR, false);
         } else {
-            block.sideRender[sideR] = true;
+            blocks.setSideRendered(x, y, z, sideR, true);
         }
     }
 
-    private void pairDeleteUpdate(Vector3i anotherCord, int sideAR) {
-        if (checkCord(anotherCord)) blocks.get(anotherCord).sideRender[sideAR] = true;
+    private void pairDeleteUpdate(int anotherX, int anotherY, int anotherZ, int sideAR) {
+        if (checkCord(anotherX, anotherY, anotherZ)) blocks.setSideRendered(anotherX, anotherY, anotherZ, sideAR, true);
     }
 
-    private void updateBlockSpace(Vector3i vector3i) {
-        final Vector3i center = vector3i;
-        if (blocks.containsKey(vector3i)) {
-            Block block = blocks.get(vector3i);
-            pairUpdate(block, new Vector3i(center).add(0, 0, 1), 0, 3);
-            pairUpdate(block, new Vector3i(center).add(0, 0, -1), 3, 0);
-            pairUpdate(block, new Vector3i(center).add(0, 1, 0), 1, 2);
-            pairUpdate(block, new Vector3i(center).add(0, -1, 0), 2, 1);
-            pairUpdate(block, new Vector3i(center).add(1, 0, 0), 5, 4);
-            pairUpdate(block, new Vector3i(center).add(-1, 0, 0), 4, 5);
+    private void updateBlockSpace(int x, int y, int z) {
+        if (blocks.contains(x, y, z)) {
+            pairUpdate(x, y, z, x, y, z + 1, 0, 3);
+            pairUpdate(x, y, z, x, y, z - 1, 3, 0);
+            pairUpdate(x, y, z, x, y + 1, z, 1, 2);
+            pairUpdate(x, y, z, x, y - 1, z, 2, 1);
+            pairUpdate(x, y, z, x + 1, y, z, 5, 4);
+            pairUpdate(x, y, z, x - 1, y, z, 4, 5);
         } else {
-            pairDeleteUpdate(new Vector3i(center).add(0, 0, 1), 3);
-            pairDeleteUpdate(new Vector3i(center).add(0, 0, -1), 0);
-            pairDeleteUpdate(new Vector3i(center).add(0, 1, 0), 2);
-            pairDeleteUpdate(new Vector3i(center).add(0, -1, 0), 1);
-            pairDeleteUpdate(new Vector3i(center).add(1, 0, 0), 4);
-            pairDeleteUpdate(new Vector3i(center).add(-1, 0, 0), 5);
+            pairDeleteUpdate(x, y, z + 1, 3);
+            pairDeleteUpdate(x, y, z - 1, 0);
+            pairDeleteUpdate(x, y + 1, z, 2);
+            pairDeleteUpdate(x, y - 1, z, 1);
+            pairDeleteUpdate(x + 1, y, z, 4);
+            pairDeleteUpdate(x - 1, y, z, 5);
         }
     }
 
-    protected static Vector3i getVector3i(Vector3f v3f) {
-        return new Vector3i((int) v3f.x + (v3f.x < 0 ? -1 : 0), (int) v3f.y + (v3f.y < 0 ? -1 : 0), (int) v3f.z + (v3f.z < 0 ? -1 : 0));
+    /**
+     * @param rayDistance дальность выбора блока, конечная и неотрицательная
+     */
+    public void setRayDistance(float rayDistance) {
+        RayCaster.checkDistance(rayDistance);
+        this.rayDistance = rayDistance;
     }
 
-    public void rayTrace(Vector3f orientation, Vector3f position, Commands command) {
-        final Vector3i startPosI = getVector3i(position);
-        final Vector3f dir = new Vector3f(orientation).div(10000);
-
-
-        Vector3i lastCheckedPos = null;
-        Vector3i lastCord = null;
-        Vector3i selectedCord = null;
-        Vector3f selectedFloatCord = null;
-
-        for (int i = 0; i < 100 * 10000; i++) {
-            position.add(dir);
-            Vector3i posI = getVector3i(position);
-            if (checkCord(posI)) {
-                if (lastCheckedPos != null && !lastCheckedPos.equals(startPosI)) {
-                    lastCord = lastCheckedPos;
-                    selectedCord = posI;
-                    selectedFloatCord = position;
-                }
-                break;
-            }
-            lastCheckedPos = posI;
+    /**
+     * Поиск блока, на который направлен луч
+     *
+     * @param result заполняемый результат
+     * @return true, если блок найден не дальше rayDistance
+     */
+    public boolean pick(Vector3f orientation, Vector3f position, RayHit result) {
+        return rayCaster.trace(position.x, position.y, position.z, orientation.x, orientation.y, orientation.z, rayDistance, result);
+    }
+
+    /**
+     * Пакетная трассировка лучей без изменения мира, лучи распределяются по ядрам
+     *
+     * @param batch       пакет лучей, результаты записываются в него же
+     * @param maxDistance наибольшее расстояние трассировки, конечное и неотрицательное
+     */
+    public void queryRays(RayBatch batch, float maxDistance) {
+        RayCaster.checkDistance(maxDistance);
+        worldLock.writeLock().lock();
+        try {
+            rayCaster.traceBatch(batch, maxDistance, ForkJoinPool.commonPool());
+        } finally {
+            worldLock.writeLock().unlock();
         }
-        int sideId = 2;
-        if (command == Commands.ADD && lastCord != null) {
-            blocks.put(lastCord, new Block(lastCord, 2, new int[]{sideId, sideId, sideId, sideId, sideId, sideId}));
-            updateBlockSpace(lastCord);
+    }
+
+    /**
+     * Установка блока с пересчётом видимости сторон его и соседей. Можно вызывать из нескольких
+     * потоков: правки в разных чанках не блокируют друг друга
+     */
+    public void setBlock(int x, int y, int z, int id, int[] sideIds) {
+        worldLock.readLock().lock();
+        final long locked = chunkLocks.lockAround(x, y, z);
+        try {
+            ensureResident(x, y, z);
+            blocks.put(x, y, z, id, sideIds);
+            updateBlockSpace(x, y, z);
+            final EditJournal attached = journal;
+            if (attached != null) attached.logPut(x, y, z, id, sideIds);
+        } finally {
+            chunkLocks.unlock(locked);
+            worldLock.readLock().unlock();
         }
-        if (command == Commands.REMOVE && selectedCord != null) {
-            blocks.remove(selectedCord);
-            updateBlockSpace(selectedCord);
+    }
+
+    /**
+     * Удаление блока с пересчётом видимости сторон соседей, потокобезопасно как setBlock
+     *
+     * @return true, если блок был
+     */
+    public boolean removeBlock(int x, int y, int z) {
+        worldLock.readLock().lock();
+        final long locked = chunkLocks.lockAround(x, y, z);
+        try {
+            ensureResident(x, y, z);
+            if (!blocks.remove(x, y, z)) return false;
+            updateBlockSpace(x, y, z);
+            final EditJournal attached = journal;
+            if (attached != null) attached.logRemove(x, y, z);
+            return true;
+        } finally {
+            chunkLocks.unlock(locked);
+            worldLock.readLock().unlock();
         }
     }
 
-    public void run() {
-        System.out.println("EngineRuntime started");
-        while (controller.status == Mode.RUNNING) {
+    public void rayTrace(Vector3f orientation, Vector3f position, Commands command) {
+        final RayHit hit = new RayHit();
+        if (!pick(orientation, position, hit)) return;
+
+        int sideId = 2;
+        // блок не ставится в клетку, из которой выпущен луч
+        if (command == Commands.ADD && hit.face != RayHit.NO_FACE && !hit.adjacentContains(position.x, position.y, position.z)) {
+            setBlock(hit.adjacentX, hit.adjacentY, hit.adjacentZ, 2, new int[]{sideId, sideId, sideId, sideId, sideId, sideId});
+        }
+        if (command == Commands.REMOVE) removeBlock(hit.x, hit.y, hit.z);
+    }
+
+    public void setModel(Model model) {
+        this.model = model;
+        if (model != null) setViewerPosition(model.getPosition());
+        publishState(model == null ? new Vector3f() : model.getCameraPosition());
+    }
+
+    /**
+     * Передача ввода кадра симуляции без ожидания, вызывается из потока отрисовки
+     *
+     * @param commands    маска команд кадра (Commands.bit)
+     * @param orientation направление взгляда камеры
+     * @return false, если очередь ввода заполнена и команда отброшена
+     */
+    public boolean submitInput(long commands, Vector3f orientation) {
+        return input.offer(commands, System.nanoTime(), orientation.x, orientation.y, orientation.z);
+    }
+
+    public boolean submitInput(Set<Commands> commands, Vector3f orientation) {
+        return submitInput(Commands.mask(commands), orientation);
+    }
+
+    public CommandQueue getInputQueue() {
+        return input;
+    }
+
+    private void acceptInput(long commands, long timestampNanos, float lookX, float lookY, float lookZ) {
+        heldCommands = commands & ~Commands.ACTIONS;
+        tickActions |= commands & Commands.ACTIONS;
+        tickLook.set(lookX, lookY, lookZ);
+    }
+
+    public WorldState getState() {
+        return state;
+    }
+
+    public TickScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Шаг симуляции: движение модели, правки мира по вводу, подкачка чанков и сжатие журнала,
+     * затем публикация снимка состояния. Выполняется потоком run
+     */
+    public void tick() {
+        tickActions = 0;
+        input.drain(inputSink);
+        Commands.fill(heldCommands | tickActions, tickCommands);
+        tickCount++;
+
+        final Model current = model;
+        Vector3f camera = new Vector3f();
+        if (current != null) {
+            current.handleInput(tickCommands, tickLook);
+            setViewerPosition(current.getPosition());
+            camera = current.getCameraPosition();
+            if (tickCommands.contains(Commands.ADD)) rayTrace(current.getOrientation(), camera, Commands.ADD);
+            if (tickCommands.contains(Commands.REMOVE)) rayTrace(current.getOrientation(), camera, Commands.REMOVE);
+        }
 
+        if (world != null && tickCount % RESIDENCY_TICKS == 0) {
             try {
-                Thread.sleep(5L);
-            } catch (InterruptedException e) {
+                updateResidency();
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-        System.out.println("EngineRuntime finished");
+        final EditJournal attached = journal;
+        if (attached != null && attached.needsSnapshot()) snapshotJournal();
+
+        publishState(camera);
+    }
+
+    private void publishState(Vector3f camera) {
+        final WorldState previous = state;
+        final Vector3f from = previous == null ? camera : previous.cameraPosition(1f, new Vector3f());
+        state = new WorldState(tickCount, System.nanoTime(), scheduler.getStepNanos(), from, camera, lightPoints);
+    }
+
+    public void run() {
+        System.out.println("EngineRuntime started");
+        while (controller.status == Mode.RUNNING) {
+            scheduler.advance(this::tick);
+            LockSupport.parkNanos(scheduler.nanosUntilNextTick());
+        }
+        try {
+            detachJournal();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            detachWorld();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("EngineRuntime finished\tticks " + scheduler.getTickCount()
+                + "\ttick avg " + scheduler.getAverageTickMillis() + " ms, max " + scheduler.getMaxTickMillis() + " ms"
+                + "\toverruns " + scheduler.getOverrunCount() + "\tdropped " + scheduler.getDroppedCount()
+                + "\tinput latency avg " + input.getAverageLatencyMillis() + " ms, max " + input.getMaxLatencyMillis() + " ms"
+                + "\tmax depth " + input.getMaxDepth() + "\trejected " + input.getRejectedCount());
     }
 }
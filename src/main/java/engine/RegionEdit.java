@@ -0,0 +1,170 @@
+package engine;
+
+import engine.region.EditJournal;
+import engine.storage.BlockStorage;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static engine.storage.BlockStorage.*;
+
+/**
+ * Пакетная правка прямоугольной области мира. Новое состояние области собирается в массиве,
+ * затем записывается за один проход: видимость сторон внутри области считается по массиву,
+ * хранилище опрашивается только на её границе, версия каждого затронутого чанка меняется один раз
+ */
+class RegionEdit {
+    /**
+     * Смещения соседей по сторонам: near, up, down, far, left, right
+     */
+    private static final int[] NEIGHBOUR_X = new int[]{0, 0, 0, 0, -1, 1};
+    private static final int[] NEIGHBOUR_Y = new int[]{0, 1, -1, 0, 0, 0};
+    private static final int[] NEIGHBOUR_Z = new int[]{1, 0, 0, -1, 0, 0};
+
+    private final BlockStorage blocks;
+    final int minX, minY, minZ, maxX, maxY, maxZ;
+    private final int sizeX, sizeZ;
+    /**
+     * id ячеек области после правки, EMPTY для пустых
+     */
+    final int[] ids;
+    /**
+     * id сторон изменённых ячеек, null для неизменённых
+     */
+    private final int[][] sideIds;
+    private final boolean[] changed;
+    /**
+     * Чанки, в которых правка действительно изменила блоки или видимость их сторон
+     */
+    private final Set<Long> changedChunks = new HashSet<>();
+    private long lastChanged;
+
+    RegionEdit(BlockStorage blocks, int x0, int y0, int z0, int x1, int y1, int z1) {
+        this.blocks = blocks;
+        minX = Math.min(x0, x1);
+        minY = Math.min(y0, y1);
+        minZ = Math.min(z0, z1);
+        maxX = Math.max(x0, x1);
+        maxY = Math.max(y0, y1);
+        maxZ = Math.max(z0, z1);
+        sizeX = maxX - minX + 1;
+        sizeZ = maxZ - minZ + 1;
+        final long volume = (long) sizeX * (maxY - minY + 1) * sizeZ;
+        if (volume > Integer.MAX_VALUE) throw new IllegalArgumentException("Слишком большая область правки: " + volume);
+        ids = new int[(int) volume];
+        sideIds = new int[ids.length][];
+        changed = new boolean[ids.length];
+        int i = 0;
+        for (int y = minY; y <= maxY; y++)
+            for (int z = minZ; z <= maxZ; z++)
+                for (int x = minX; x <= maxX; x++) ids[i++] = blocks.getId(x, y, z);
+    }
+
+    int index(int x, int y, int z) {
+        return ((y - minY) * sizeZ + (z - minZ)) * sizeX + (x - minX);
+    }
+
+    boolean inside(int x, int y, int z) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+    }
+
+    /**
+     * Замена ячейки. id сторон проверяются здесь, до записи области: ошибка не оставляет правку записанной частично
+     */
+    void set(int index, int id, int[] sides) {
+        checkSideIds(sides);
+        ids[index] = id;
+        sideIds[index] = sides;
+        changed[index] = true;
+    }
+
+    void clear(int index) {
+        ids[index] = EMPTY;
+        sideIds[index] = null;
+        changed[index] = true;
+    }
+
+    private boolean isSolid(int x, int y, int z) {
+        return inside(x, y, z) ? isSolidId(ids[index(x, y, z)]) : blocks.isSolid(x, y, z);
+    }
+
+    /**
+     * Маска видимых сторон блока: сторона видима, если соседняя клетка не занята твёрдым блоком
+     */
+    private int faces(int x, int y, int z) {
+        int faces = 0;
+        for (int side = 0; side < 6; side++) {
+            if (!isSolid(x + NEIGHBOUR_X[side], y + NEIGHBOUR_Y[side], z + NEIGHBOUR_Z[side])) faces |= 1 << side;
+        }
+        return faces;
+    }
+
+    /**
+     * Пересчёт сторон блока снаружи области, прилегающего к её грани
+     */
+    private void updateOutside(int x, int y, int z) {
+        if (!blocks.contains(x, y, z)) return;
+        if (blocks.setFacesUnversioned(x, y, z, faces(x, y, z))) markChanged(x, y, z);
+    }
+
+    /**
+     * Запоминание чанка изменённой ячейки для смены версии. Соседние ячейки обычно в одном чанке,
+     * поэтому повтор последнего чанка в множество не добавляется
+     */
+    private void markChanged(int x, int y, int z) {
+        final long key = chunkKeyOf(x, y, z);
+        if (key == lastChanged && !changedChunks.isEmpty()) return;
+        lastChanged = key;
+        changedChunks.add(key);
+    }
+
+    /**
+     * Запись области в хранилище. Вызывающий должен исключить параллельные правки этой области
+     *
+     * @param journal журнал, в который записываются изменённые ячейки, или null
+     * @return количество чанков, версия которых изменена
+     */
+    int apply(EditJournal journal) {
+        int i = 0;
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++, i++) {
+                    final int id = ids[i];
+                    if (id == EMPTY) {
+                        if (!changed[i] || !blocks.removeUnversioned(x, y, z)) continue;
+                        markChanged(x, y, z);
+                        if (journal != null) journal.logRemove(x, y, z);
+                    } else if (changed[i]) {
+                        if (!blocks.putUnversioned(x, y, z, id, sideIds[i], faces(x, y, z))) continue;
+                        markChanged(x, y, z);
+                        if (journal != null) journal.logPut(x, y, z, id, sideIds[i]);
+                    } else if (blocks.setFacesUnversioned(x, y, z, faces(x, y, z))) {
+                        markChanged(x, y, z);
+                    }
+                }
+            }
+        }
+
+        for (int y = minY; y <= maxY; y++)
+            for (int z = minZ; z <= maxZ; z++) {
+                updateOutside(minX - 1, y, z);
+                updateOutside(maxX + 1, y, z);
+            }
+        for (int z = minZ; z <= maxZ; z++)
+            for (int x = minX; x <= maxX; x++) {
+                updateOutside(x, minY - 1, z);
+                updateOutside(x, maxY + 1, z);
+            }
+        for (int y = minY; y <= maxY; y++)
+            for (int x = minX; x <= maxX; x++) {
+                updateOutside(x, y, minZ - 1);
+                updateOutside(x, y, maxZ + 1);
+            }
+
+        int touched = 0;
+        for (long key : changedChunks) {
+            if (blocks.touchChunk(key)) touched++;
+        }
+        return touched;
+    }
+}
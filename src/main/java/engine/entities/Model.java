@@ -1,7 +1,6 @@
 package engine.entities;
 
 import controller.Commands;
-import graphics.Camera;
 import org.joml.Vector3f;
 
 import java.util.Set;
@@ -13,9 +12,9 @@ import static controller.Commands.*;
  */
 public class Model {
     /**
-     * Камера
+     * Направление взгляда, приходит вместе с вводом
      */
-    private Camera camera;
+    private final Vector3f orientation = new Vector3f(0.0f, 0.0f, 1.0f);
     /**
      * Координаты модели
      */
@@ -30,13 +29,11 @@ public class Model {
      * Констуктор модели для движка
      *
      * @param position координаты позиции
-     * @param speed    изначальная скорость передвижения
-     * @param camera   камера
+     * @param speed    изначальная скорость передвижения за шаг симуляции
      */
-    public Model(Vector3f position, float speed, Camera camera) {
+    public Model(Vector3f position, float speed) {
         this.position = new Vector3f(position);
         this.speed = speed;
-        this.camera = camera;
     }
 
 
@@ -49,10 +46,17 @@ public class Model {
     }
 
     public Vector3f getOrientation() {
-        return new Vector3f(camera.orientation).normalize();
+        return new Vector3f(orientation);
     }
 
-    public void handleInput(Set<Commands> commandsSet) {
+    /**
+     * Один шаг движения модели
+     *
+     * @param commandsSet нажатые команды
+     * @param look        направление взгляда камеры
+     */
+    public void handleInput(Set<Commands> commandsSet, Vector3f look) {
+        if (look.lengthSquared() > 0f) this.orientation.set(look).normalize();
         Vector3f orientation = getOrientation();
         //orientation.y = 0f;
         orientation.normalize();
@@ -65,7 +69,6 @@ public class Model {
         if (commandsSet.contains(SPEED_1)) speed = 0.5f;
         if (commandsSet.contains(SPEED_01)) speed = 0.05f;
         if (commandsSet.contains(SPEED_0025)) speed = 0.0125f;
-        camera.setPos(new Vector3f(position).add(0f, modelHeight, 0f));
     }
 
 
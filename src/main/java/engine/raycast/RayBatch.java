@@ -0,0 +1,69 @@
+package engine.raycast;
+
+/**
+ * Пакет лучей для одновременной трассировки. Вход - начала и направления, выход - клетки попадания,
+ * стороны входа и расстояния (у промаха клетка (0, 0, 0), сторона RayHit.NO_FACE, расстояние бесконечно). Координаты лежат подряд по три значения на луч
+ */
+public class RayBatch {
+    public final int capacity;
+    /**
+     * Количество лучей, заполненных в пакете
+     */
+    public int count;
+
+    public final float[] origins, directions;
+    public final boolean[] hits;
+    public final int[] cells, faces;
+    public final float[] distances;
+
+    public RayBatch(int capacity) {
+        this.capacity = capacity;
+        origins = new float[capacity * 3];
+        directions = new float[capacity * 3];
+        hits = new boolean[capacity];
+        cells = new int[capacity * 3];
+        faces = new int[capacity];
+        distances = new float[capacity];
+    }
+
+    /**
+     * Добавление луча в конец пакета
+     *
+     * @return номер луча
+     * @throws IllegalArgumentException если начало луча недопустимо (см. RayCaster.checkOrigin)
+     */
+    public int add(float originX, float originY, float originZ, float dirX, float dirY, float dirZ) {
+        if (count == capacity) throw new IllegalStateException("Пакет лучей заполнен: " + capacity);
+        RayCaster.checkOrigin(originX, originY, originZ);
+        final int i = count++;
+        origins[i * 3] = originX;
+        origins[i * 3 + 1] = originY;
+        origins[i * 3 + 2] = originZ;
+        directions[i * 3] = dirX;
+        directions[i * 3 + 1] = dirY;
+        directions[i * 3 + 2] = dirZ;
+        return i;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Трассировка лучей [from, to) одним потоком
+     */
+    void trace(RayCaster caster, float maxDistance, int from, int to) {
+        final RayHit hit = new RayHit();
+        for (int i = from; i < to; i++) {
+            final boolean found = caster.trace(origins[i * 3], origins[i * 3 + 1], origins[i * 3 + 2],
+                    directions[i * 3], directions[i * 3 + 1], directions[i * 3 + 2], maxDistance, hit);
+            hits[i] = found;
+            // у промаха клетка нулевая, стороны нет, расстояние бесконечно: значения прошлых пакетов не остаются
+            cells[i * 3] = found ? hit.x : 0;
+            cells[i * 3 + 1] = found ? hit.y : 0;
+            cells[i * 3 + 2] = found ? hit.z : 0;
+            faces[i] = found ? hit.face : RayHit.NO_FACE;
+            distances[i] = found ? hit.distance : Float.POSITIVE_INFINITY;
+        }
+    }
+}
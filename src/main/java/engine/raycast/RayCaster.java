@@ -0,0 +1,164 @@
+package engine.raycast;
+
+import engine.storage.BlockStorage;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Точный обход клеток сетки вдоль луча (Amanatides, Woo): на каждом шаге луч переходит в соседнюю
+ * клетку через ближайшую грань, поэтому рёбра и углы блоков не пропускаются. Состояния не хранит,
+ * один экземпляр можно использовать из нескольких потоков
+ */
+public class RayCaster {
+    /**
+     * Количество лучей, которое трассируется одной задачей без дальнейшего деления
+     */
+    private static final int BATCH_SLICE = 512;
+
+    private final BlockStorage blocks;
+
+    public RayCaster(BlockStorage blocks) {
+        this.blocks = blocks;
+    }
+
+    /**
+     * Трассировка луча до первого твёрдого блока
+     *
+     * @param maxDistance наибольшее расстояние от начала луча, конечное и неотрицательное
+     * @param result      заполняемый результат
+     * @return true, если блок найден не дальше maxDistance
+     * @throws IllegalArgumentException если начало луча не конечно или вне диапазона int (см. checkOrigin)
+     */
+    public boolean trace(float originX, float originY, float originZ, float dirX, float dirY, float dirZ,
+                         float maxDistance, RayHit result) {
+        checkDistance(maxDistance);
+        checkOrigin(originX, originY, originZ);
+        result.clear();
+        final double length = Math.sqrt((double) dirX * dirX + (double) dirY * dirY + (double) dirZ * dirZ);
+        if (!(length > 0.0) || Double.isInfinite(length)) return false;
+        final double dx = dirX / length, dy = dirY / length, dz = dirZ / length;
+
+        int x = (int) Math.floor(originX), y = (int) Math.floor(originY), z = (int) Math.floor(originZ);
+        final int stepX = dx > 0 ? 1 : dx < 0 ? -1 : 0;
+        final int stepY = dy > 0 ? 1 : dy < 0 ? -1 : 0;
+        final int stepZ = dz > 0 ? 1 : dz < 0 ? -1 : 0;
+        final double deltaX = stepX == 0 ? Double.POSITIVE_INFINITY : Math.abs(1.0 / dx);
+        final double deltaY = stepY == 0 ? Double.POSITIVE_INFINITY : Math.abs(1.0 / dy);
+        final double deltaZ = stepZ == 0 ? Double.POSITIVE_INFINITY : Math.abs(1.0 / dz);
+        double maxX = boundary(originX, x, stepX, deltaX);
+        double maxY = boundary(originY, y, stepY, deltaY);
+        double maxZ = boundary(originZ, z, stepZ, deltaZ);
+
+        int face = RayHit.NO_FACE;
+        int prevX = x, prevY = y, prevZ = z;
+        double distance = 0.0;
+        while (true) {
+            if (blocks.isSolid(x, y, z)) {
+                result.hit = true;
+                result.x = x;
+                result.y = y;
+                result.z = z;
+                result.face = face;
+                result.adjacentX = prevX;
+                result.adjacentY = prevY;
+                result.adjacentZ = prevZ;
+                result.distance = (float) distance;
+                return true;
+            }
+            prevX = x;
+            prevY = y;
+            prevZ = z;
+            if (maxX < maxY && maxX < maxZ) {
+                distance = maxX;
+                x += stepX;
+                maxX += deltaX;
+                face = stepX > 0 ? 4 : 5;
+            } else if (maxY < maxZ) {
+                distance = maxY;
+                y += stepY;
+                maxY += deltaY;
+                face = stepY > 0 ? 2 : 1;
+            } else {
+                distance = maxZ;
+                z += stepZ;
+                maxZ += deltaZ;
+                face = stepZ > 0 ? 3 : 0;
+            }
+            if (distance > maxDistance) return false;
+        }
+    }
+
+    /**
+     * Проверка дальности трассировки: с бесконечной или NaN дальностью луч без попадания не завершится
+     *
+     * @throws IllegalArgumentException если дальность отрицательна, бесконечна или NaN
+     */
+    public static void checkDistance(float maxDistance) {
+        if (!(maxDistance >= 0) || Float.isInfinite(maxDistance))
+            throw new IllegalArgumentException("Дальность трассировки должна быть конечной и неотрицательной: " + maxDistance);
+    }
+
+    /**
+     * Проверка начала луча: из бесконечного начала обход не выходит, из NaN находит клетку с расстоянием NaN,
+     * за пределами int номер клетки не помещается в int
+     *
+     * @throws IllegalArgumentException если координата бесконечна, NaN или по модулю не меньше 2^31
+     */
+    public static void checkOrigin(float originX, float originY, float originZ) {
+        if (!(Math.abs(originX) < Integer.MAX_VALUE) || !(Math.abs(originY) < Integer.MAX_VALUE)
+                || !(Math.abs(originZ) < Integer.MAX_VALUE))
+            throw new IllegalArgumentException("Начало луча вне допустимого диапазона: " + originX + " " + originY + " " + originZ);
+    }
+
+    /**
+     * Расстояние вдоль луча до первой грани клетки по одной оси
+     */
+    private static double boundary(float origin, int cell, int step, double delta) {
+        if (step > 0) return (cell + 1 - (double) origin) * delta;
+        if (step < 0) return ((double) origin - cell) * delta;
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Трассировка всех лучей пакета в пуле потоков. Хранилище не должно изменяться до возврата:
+     * согласованность мира обеспечивает вызывающий (см. Engine.queryRays)
+     *
+     * @param pool пул потоков
+     */
+    public void traceBatch(RayBatch batch, float maxDistance, ForkJoinPool pool) {
+        checkDistance(maxDistance);
+        if (batch.count <= BATCH_SLICE) {
+            batch.trace(this, maxDistance, 0, batch.count);
+            return;
+        }
+        pool.invoke(new Slice(this, batch, maxDistance, 0, batch.count));
+    }
+
+    private static final class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RayCaster caster;
+        private final RayBatch batch;
+        private final float maxDistance;
+        private final int from, to;
+
+        Slice(RayCaster caster, RayBatch batch, float maxDistance, int from, int to) {
+            this.caster = caster;
+            this.batch = batch;
+            this.maxDistance = maxDistance;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SLICE) {
+                batch.trace(caster, maxDistance, from, to);
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new Slice(caster, batch, maxDistance, from, middle), new Slice(caster, batch, maxDistance, middle, to));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package engine.raycast;
+
+/**
+ * Результат трассировки луча. Объект переиспользуется между запросами, поля перезаписываются
+ */
+public class RayHit {
+    /**
+     * Значение face, если луч начался внутри блока и стороны входа нет
+     */
+    public static final int NO_FACE = -1;
+
+    public boolean hit;
+    /**
+     * Координата блока, в который попал луч
+     */
+    public int x, y, z;
+    /**
+     * Сторона блока, через которую вошёл луч: 0 near, 1 up, 2 down, 3 far, 4 left, 5 right
+     */
+    public int face = NO_FACE;
+    /**
+     * Пустая клетка перед блоком, из которой луч вошёл в сторону face
+     */
+    public int adjacentX, adjacentY, adjacentZ;
+    /**
+     * Расстояние от начала луча до точки входа в блок
+     */
+    public float distance;
+
+    public void clear() {
+        hit = false;
+        x = y = z = 0;
+        adjacentX = adjacentY = adjacentZ = 0;
+        face = NO_FACE;
+        distance = Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return true, если точка начала луча лежит в пустой клетке перед блоком
+     */
+    public boolean adjacentContains(float px, float py, float pz) {
+        return adjacentX == (int) Math.floor(px) && adjacentY == (int) Math.floor(py) && adjacentZ == (int) Math.floor(pz);
+    }
+
+    @Override
+    public String toString() {
+        return hit ? "RayHit{" + x + ", " + y + ", " + z + ", face=" + face + ", distance=" + distance + "}" : "RayHit{miss}";
+    }
+}
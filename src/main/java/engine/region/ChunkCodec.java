@@ -0,0 +1,82 @@
+package engine.region;
+
+import engine.storage.BlockStorage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static engine.storage.BlockStorage.*;
+
+/**
+ * Двоичное представление чанка: long[FACE_MASK_WORDS] занятых ячеек, затем по каждой занятой
+ * ячейке в порядке индекса int id, short[6] id сторон и byte маска видимых сторон
+ */
+final class ChunkCodec {
+    /**
+     * Байт на блок: id, id сторон и маска сторон
+     */
+    static final int BLOCK_BYTES = 4 + 2 * 6 + 1;
+    static final int MAX_CHUNK_BYTES = 8 * FACE_MASK_WORDS + BLOCK_BYTES * CHUNK_VOLUME;
+
+    private ChunkCodec() {
+    }
+
+    /**
+     * Запись чанка хранилища в буфер с его текущей позиции
+     *
+     * @param present рабочий массив[FACE_MASK_WORDS]
+     * @return количество записанных блоков, 0 - чанк пуст и ничего не записано
+     */
+    static int encode(BlockStorage blocks, long chunkKey, ByteBuffer out, long[] present) {
+        Arrays.fill(present, 0L);
+        final int[] count = new int[1];
+        blocks.forEachInChunk(chunkKey, (x, y, z, id) -> {
+            final int cell = ((y & CHUNK_MASK) << (2 * CHUNK_SHIFT)) | ((z & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+            present[cell >>> 6] |= 1L << cell;
+            count[0]++;
+        });
+        if (count[0] == 0) return 0;
+
+        final int baseX = chunkX(chunkKey) << CHUNK_SHIFT, baseY = chunkY(chunkKey) << CHUNK_SHIFT, baseZ = chunkZ(chunkKey) << CHUNK_SHIFT;
+        for (long word : present) out.putLong(word);
+        for (int w = 0; w < FACE_MASK_WORDS; w++) {
+            for (long bits = present[w]; bits != 0; bits &= bits - 1) {
+                final int cell = w << 6 | Long.numberOfTrailingZeros(bits);
+                final int x = baseX + (cell & CHUNK_MASK), y = baseY + (cell >> 2 * CHUNK_SHIFT), z = baseZ + (cell >> CHUNK_SHIFT & CHUNK_MASK);
+                out.putInt(blocks.getId(x, y, z));
+                int faces = 0;
+                for (int side = 0; side < 6; side++) {
+                    out.putShort((short) blocks.getSideId(x, y, z, side));
+                    if (blocks.isSideRendered(x, y, z, side)) faces |= 1 << side;
+                }
+                out.put((byte) faces);
+            }
+        }
+        return count[0];
+    }
+
+    /**
+     * Чтение чанка из буфера начиная с offset в хранилище без смены версии чанка
+     *
+     * @param sideIds рабочий массив[6]
+     * @return количество прочитанных блоков
+     */
+    static int decode(ByteBuffer data, int offset, long chunkKey, BlockStorage target, int[] sideIds) {
+        final int baseX = chunkX(chunkKey) << CHUNK_SHIFT, baseY = chunkY(chunkKey) << CHUNK_SHIFT, baseZ = chunkZ(chunkKey) << CHUNK_SHIFT;
+        int cells = offset + 8 * FACE_MASK_WORDS;
+        int count = 0;
+        for (int w = 0; w < FACE_MASK_WORDS; w++) {
+            for (long bits = data.getLong(offset + 8 * w); bits != 0; bits &= bits - 1) {
+                final int cell = w << 6 | Long.numberOfTrailingZeros(bits);
+                final int id = data.getInt(cells);
+                for (int side = 0; side < 6; side++) sideIds[side] = data.getShort(cells + 4 + 2 * side);
+                final int faces = data.get(cells + 16);
+                cells += BLOCK_BYTES;
+                target.putUnversioned(baseX + (cell & CHUNK_MASK), baseY + (cell >> 2 * CHUNK_SHIFT),
+                        baseZ + (cell >> CHUNK_SHIFT & CHUNK_MASK), id, sideIds, faces);
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,442 @@
+package engine.region;
+
+import engine.storage.BlockStorage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static engine.storage.BlockStorage.FACE_MASK_WORDS;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Журнал правок блоков с упреждающей записью. Правки ставятся в очередь без ввода-вывода,
+ * отдельный поток пишет накопившиеся записи одной группой и один раз сбрасывает её на диск.
+ * Журнал разбит на поколения: снимок мира snapshot-N.region содержит состояние на начало
+ * journal-N.log, после записи снимка журналы и снимки прошлых поколений удаляются.
+ * <pre>
+ * группа: int длина данных, int CRC32 данных, данные - записи подряд
+ * запись: byte PUT, int x, y, z, int id, short[6] id сторон или byte REMOVE, int x, y, z
+ * </pre>
+ * Группа с неверной длиной или суммой считается недописанной: чтение на ней останавливается,
+ * файл обрезается до конца последней целой группы
+ */
+public class EditJournal implements Closeable {
+    static final byte PUT = 1, REMOVE = 2;
+    static final int PUT_BYTES = 1 + 12 + 4 + 12, REMOVE_BYTES = 1 + 12;
+    static final int GROUP_HEADER_BYTES = 8;
+    private static final String JOURNAL_PREFIX = "journal-", JOURNAL_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-", SNAPSHOT_SUFFIX = ".region", TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Применение записей журнала при восстановлении
+     */
+    public interface Replay {
+        void put(int x, int y, int z, int id, int[] sideIds);
+
+        void remove(int x, int y, int z);
+    }
+
+    /**
+     * Служебные элементы очереди записи, обрабатываются по порядку вместе с записями
+     */
+    private record Rotate(long generation) {
+    }
+
+    private record Compact(long generation) {
+    }
+
+    private record Sync(CountDownLatch done) {
+    }
+
+    private record Encoded(long key, byte[] data, int count) {
+    }
+
+    private static final Object CLOSE = new Object();
+
+    private final Path dir;
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private volatile Thread writerThread;
+    private final ExecutorService snapshotWriter;
+    private volatile IOException failure;
+
+    /**
+     * Поколение, в которое пишутся новые записи, и поколение последнего снимка (-1 - снимка нет)
+     */
+    private long generation, snapshotGeneration;
+    private final AtomicLong recordsSinceSnapshot = new AtomicLong();
+    private long snapshotThreshold = 100_000;
+
+    /**
+     * Файл текущего поколения, используется только потоком записи
+     */
+    private FileChannel channel;
+    private final ByteBuffer group = ByteBuffer.allocate(1 << 16);
+    private final CRC32 crc = new CRC32();
+
+    private final AtomicLong records = new AtomicLong(), groups = new AtomicLong(), bytes = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong(), maxCommitNanos = new AtomicLong(), snapshots = new AtomicLong();
+
+    private EditJournal(Path dir, long generation, long snapshotGeneration) {
+        this.dir = dir;
+        this.generation = generation;
+        this.snapshotGeneration = snapshotGeneration;
+        snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "journal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Открытие каталога журнала: находятся поколения журналов и последний снимок.
+     * Записывать в журнал можно после recover
+     */
+    public static EditJournal open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        long generation = 0, snapshot = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) Files.delete(file);
+                else if (name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_SUFFIX))
+                    generation = Math.max(generation, parseGeneration(name, JOURNAL_PREFIX, JOURNAL_SUFFIX));
+                else if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX))
+                    snapshot = Math.max(snapshot, parseGeneration(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+            }
+        }
+        return new EditJournal(dir, Math.max(generation, snapshot), snapshot);
+    }
+
+    private static long parseGeneration(String name, String prefix, String suffix) throws IOException {
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Неизвестный файл в каталоге журнала: " + name, e);
+        }
+    }
+
+    private Path journalPath(long generation) {
+        return dir.resolve(JOURNAL_PREFIX + generation + JOURNAL_SUFFIX);
+    }
+
+    private Path snapshotPath(long generation) {
+        return dir.resolve(SNAPSHOT_PREFIX + generation + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * @return последний записанный снимок мира или null, если снимков ещё не было
+     */
+    public Path getSnapshot() {
+        return snapshotGeneration < 0 ? null : snapshotPath(snapshotGeneration);
+    }
+
+    /**
+     * Чтение записей журналов начиная с поколения последнего снимка и запуск потока записи.
+     * Недописанный хвост журнала отбрасывается
+     *
+     * @return количество применённых записей
+     */
+    public synchronized int recover(Replay replay) throws IOException {
+        if (writerThread != null) throw new IllegalStateException("Журнал уже восстановлен");
+        final TreeSet<Long> generations = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+            for (Path file : files) generations.add(parseGeneration(file.getFileName().toString(), JOURNAL_PREFIX, JOURNAL_SUFFIX));
+        }
+        int applied = 0;
+        for (long journal : generations) {
+            if (journal >= snapshotGeneration) applied += replay(journalPath(journal), replay);
+        }
+        channel = FileChannel.open(journalPath(generation), CREATE, WRITE, APPEND);
+        writerThread = new Thread(this::writeLoop, "journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        return applied;
+    }
+
+    private static int replay(Path path, Replay replay) throws IOException {
+        final byte[] data = Files.readAllBytes(path);
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final CRC32 check = new CRC32();
+        final int[] sideIds = new int[6];
+        int applied = 0;
+        int valid = 0;
+        while (buffer.remaining() >= GROUP_HEADER_BYTES) {
+            final int length = buffer.getInt(valid), sum = buffer.getInt(valid + 4);
+            if (length < 0 || length > data.length - valid - GROUP_HEADER_BYTES) break;
+            check.reset();
+            check.update(data, valid + GROUP_HEADER_BYTES, length);
+            if ((int) check.getValue() != sum) break;
+
+            int position = valid + GROUP_HEADER_BYTES;
+            final int end = position + length;
+            while (position < end) {
+                final byte type = buffer.get(position);
+                final int x = buffer.getInt(position + 1), y = buffer.getInt(position + 5), z = buffer.getInt(position + 9);
+                if (type == PUT) {
+                    final int id = buffer.getInt(position + 13);
+                    for (int side = 0; side < 6; side++) sideIds[side] = buffer.getShort(position + 17 + 2 * side);
+                    replay.put(x, y, z, id, sideIds);
+                    position += PUT_BYTES;
+                } else if (type == REMOVE) {
+                    replay.remove(x, y, z);
+                    position += REMOVE_BYTES;
+                } else {
+                    throw new IOException("Неизвестная запись журнала " + type + " в " + path);
+                }
+                applied++;
+            }
+            valid = end;
+            buffer.position(valid);
+        }
+        if (valid < data.length) {
+            try (FileChannel file = FileChannel.open(path, WRITE)) {
+                file.truncate(valid);
+            }
+        }
+        return applied;
+    }
+
+    private void checkOpen() {
+        if (writerThread == null) throw new IllegalStateException("Журнал не восстановлен");
+        final IOException error = failure;
+        if (error != null) throw new IllegalStateException("Ошибка записи журнала", error);
+    }
+
+    /**
+     * Запись установки блока. Только постановка в очередь, без ввода-вывода
+     */
+    public void logPut(int x, int y, int z, int id, int[] sideIds) {
+        checkOpen();
+        final ByteBuffer record = ByteBuffer.allocate(PUT_BYTES);
+        record.put(PUT).putInt(x).putInt(y).putInt(z).putInt(id);
+        for (int side = 0; side < 6; side++) record.putShort((short) sideIds[side]);
+        enqueue(record.array());
+    }
+
+    /**
+     * Запись удаления блока. Только постановка в очередь, без ввода-вывода
+     */
+    public void logRemove(int x, int y, int z) {
+        checkOpen();
+        enqueue(ByteBuffer.allocate(REMOVE_BYTES).put(REMOVE).putInt(x).putInt(y).putInt(z).array());
+    }
+
+    private void enqueue(byte[] record) {
+        recordsSinceSnapshot.incrementAndGet();
+        queue.add(record);
+    }
+
+    /**
+     * Ожидание, пока все поставленные в очередь записи окажутся на диске
+     */
+    public void sync() throws IOException {
+        checkOpen();
+        final CountDownLatch done = new CountDownLatch(1);
+        queue.add(new Sync(done));
+        try {
+            // поток записи сначала запоминает ошибку, затем отпускает ожидания из очереди: если ошибки ещё нет,
+            // это ожидание уже в очереди и будет отпущено
+            if (failure == null) done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ожидание записи журнала прервано", e);
+        }
+        final IOException error = failure;
+        if (error != null) throw new IOException("Ошибка записи журнала", error);
+    }
+
+    public synchronized void setSnapshotThreshold(long snapshotThreshold) {
+        this.snapshotThreshold = snapshotThreshold;
+    }
+
+    /**
+     * @return true, если после последнего снимка записано не меньше snapshotThreshold правок
+     */
+    public synchronized boolean needsSnapshot() {
+        return recordsSinceSnapshot.get() >= snapshotThreshold;
+    }
+
+    /**
+     * Снимок мира: журнал переходит на новое поколение, чанки копируются в память, сжатие
+     * и запись снимка идут в отдельном потоке. Вызывающий должен исключить правки мира на время вызова
+     *
+     * @return поколение снимка
+     */
+    public synchronized long snapshot(BlockStorage blocks) {
+        checkOpen();
+        final long next = ++generation;
+        queue.add(new Rotate(next));
+        recordsSinceSnapshot.set(0);
+
+        final List<Encoded> chunks = new ArrayList<>();
+        final ByteBuffer scratch = ByteBuffer.allocate(ChunkCodec.MAX_CHUNK_BYTES);
+        final long[] present = new long[FACE_MASK_WORDS];
+        blocks.forEachChunk(key -> {
+            scratch.clear();
+            final int count = ChunkCodec.encode(blocks, key, scratch, present);
+            if (count == 0) return;
+            chunks.add(new Encoded(key, Arrays.copyOf(scratch.array(), scratch.position()), count));
+        });
+
+        snapshotWriter.execute(() -> {
+            final Path temp = dir.resolve(SNAPSHOT_PREFIX + next + SNAPSHOT_SUFFIX + TEMP_SUFFIX);
+            try {
+                try (RegionWriter writer = new RegionWriter(temp, true)) {
+                    for (Encoded chunk : chunks) writer.writeEncoded(chunk.key(), chunk.data(), chunk.data().length, chunk.count());
+                }
+                try (FileChannel file = FileChannel.open(temp, WRITE)) {
+                    file.force(true);
+                }
+                Files.move(temp, snapshotPath(next), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                synchronized (this) {
+                    snapshotGeneration = Math.max(snapshotGeneration, next);
+                }
+                snapshots.incrementAndGet();
+                queue.add(new Compact(next));
+            } catch (IOException e) {
+                failure = e;
+            }
+        });
+        return next;
+    }
+
+    private void writeLoop() {
+        final List<Object> drained = new ArrayList<>();
+        try {
+            while (true) {
+                drained.add(queue.take());
+                queue.drainTo(drained);
+                boolean closing = false;
+                for (Object item : drained) {
+                    if (item instanceof byte[] record) {
+                        if (group.remaining() < record.length) commit();
+                        if (group.position() == 0) group.position(GROUP_HEADER_BYTES);
+                        group.put(record);
+                        records.incrementAndGet();
+                    } else if (item instanceof Rotate rotate) {
+                        commit();
+                        channel.close();
+                        channel = FileChannel.open(journalPath(rotate.generation()), CREATE, WRITE, APPEND);
+                    } else if (item instanceof Compact compact) {
+                        deleteBefore(compact.generation());
+                    } else if (item instanceof Sync sync) {
+                        commit();
+                        sync.done().countDown();
+                    } else if (item == CLOSE) {
+                        closing = true;
+                    }
+                }
+                commit();
+                drained.clear();
+                if (closing) break;
+            }
+        } catch (IOException e) {
+            failure = e;
+            for (Object item : queue) if (item instanceof Sync sync) sync.done().countDown();
+            for (Object item : drained) if (item instanceof Sync sync) sync.done().countDown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Запись накопленной группы и сброс на диск одним вызовом force
+     */
+    private void commit() throws IOException {
+        if (group.position() <= GROUP_HEADER_BYTES) return;
+        final long start = System.nanoTime();
+        final int length = group.position() - GROUP_HEADER_BYTES;
+        crc.reset();
+        crc.update(group.array(), GROUP_HEADER_BYTES, length);
+        group.putInt(0, length).putInt(4, (int) crc.getValue()).flip();
+        while (group.hasRemaining()) channel.write(group);
+        channel.force(false);
+        group.clear();
+        groups.incrementAndGet();
+        bytes.addAndGet(GROUP_HEADER_BYTES + length);
+        final long time = System.nanoTime() - start;
+        commitNanos.addAndGet(time);
+        maxCommitNanos.accumulateAndGet(time, Math::max);
+    }
+
+    private void deleteBefore(long generation) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                if (name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_SUFFIX)
+                        && parseGeneration(name, JOURNAL_PREFIX, JOURNAL_SUFFIX) < generation) Files.delete(file);
+                else if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX)
+                        && parseGeneration(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < generation) Files.delete(file);
+            }
+        }
+    }
+
+    public long getRecordCount() {
+        return records.get();
+    }
+
+    /**
+     * @return количество групп, каждая записана одним сбросом на диск
+     */
+    public long getGroupCount() {
+        return groups.get();
+    }
+
+    public long getBytesWritten() {
+        return bytes.get();
+    }
+
+    public long getSnapshotCount() {
+        return snapshots.get();
+    }
+
+    /**
+     * @return среднее время записи группы, мс
+     */
+    public float getAverageCommitMillis() {
+        final long count = groups.get();
+        return count == 0 ? 0.0f : commitNanos.get() / 1_000_000.0f / count;
+    }
+
+    public float getMaxCommitMillis() {
+        return maxCommitNanos.get() / 1_000_000.0f;
+    }
+
+    /**
+     * Дописывание очереди, ожидание записи снимка и закрытие журнала
+     */
+    @Override
+    public void close() throws IOException {
+        snapshotWriter.shutdown();
+        try {
+            snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+            if (writerThread != null) {
+                queue.add(CLOSE);
+                writerThread.join();
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Закрытие журнала прервано", e);
+        }
+        final IOException error = failure;
+        if (error != null) throw new IOException("Ошибка записи журнала", error);
+    }
+}
@@ -0,0 +1,415 @@
+package engine.region;
+
+import engine.storage.BlockStorage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static engine.storage.BlockStorage.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Файл мира, отображённый в память через FileChannel.map. Каждый чанк занимает слот фиксированного
+ * размера, поэтому изменённый чанк записывается на своё место. В хранилище держится не больше
+ * maxResident чанков: лишние выгружаются, начиная с дольше всех не бывавших в радиусе загрузки
+ * вокруг наблюдателя, среди них - с самых дальних. Изменённые чанки при выгрузке копируются,
+ * копия записывается в файл отдельным потоком
+ * <pre>
+ * заголовок: int MAGIC, int VERSION, int ёмкость в слотах, int занятые слоты, long[ёмкость] ключи чанков слотов
+ * слот:      данные ChunkCodec, до SLOT_BYTES байт, с начала страницы после заголовка
+ * </pre>
+ */
+public class MappedWorld implements Closeable {
+    static final int MAGIC = 0x56584d57;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int PAGE_BYTES = 4096;
+    /**
+     * Размер слота чанка, кратный странице
+     */
+    static final int SLOT_BYTES = (ChunkCodec.MAX_CHUNK_BYTES + PAGE_BYTES - 1) & -PAGE_BYTES;
+    /**
+     * Слотов в одном отображённом сегменте: размер одного отображения ограничен 2 ГБ
+     */
+    static final int SEGMENT_SLOTS = 1024;
+
+    private static final class Resident {
+        /**
+         * Слот в файле, -1 - чанк создан правками и ещё не записывался
+         */
+        int slot;
+        /**
+         * Версия чанка в хранилище на момент последней записи или загрузки, -1 - не записывался
+         */
+        int savedVersion;
+        /**
+         * Номер обновления, в котором чанк последний раз был в радиусе загрузки
+         */
+        long lastUsed;
+
+        Resident(int slot, int savedVersion, long lastUsed) {
+            this.slot = slot;
+            this.savedVersion = savedVersion;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer directory;
+    private final MappedByteBuffer[] segments;
+    private final long dataOffset;
+    private final int capacity;
+    private int usedSlots;
+
+    private final HashMap<Long, Integer> slots = new HashMap<>();
+    private final HashMap<Long, Resident> resident = new HashMap<>();
+    /**
+     * Копии выгруженных изменённых чанков, ещё не записанные в файл. Загрузка чанка берёт данные отсюда
+     */
+    private final ConcurrentHashMap<Long, byte[]> pending = new ConcurrentHashMap<>();
+    private final ExecutorService writer;
+    private volatile IOException writeFailure;
+
+    private int maxResident = 1024;
+    private int loadRadius = 4;
+    private long tick = 0;
+    private long pageIns = 0, evictions = 0;
+    private final AtomicLong writeBacks = new AtomicLong();
+
+    private final ByteBuffer scratch = ByteBuffer.allocate(ChunkCodec.MAX_CHUNK_BYTES);
+    private final long[] present = new long[FACE_MASK_WORDS];
+    private final int[] sideIds = new int[6];
+    private final int[] neighbourVersions = new int[6];
+
+    /**
+     * Смещения соседних чанков по сторонам near, up, down, far, left, right
+     */
+    private static final int[] NEIGHBOUR_X = new int[]{0, 0, 0, 0, -1, 1};
+    private static final int[] NEIGHBOUR_Y = new int[]{0, 1, -1, 0, 0, 0};
+    private static final int[] NEIGHBOUR_Z = new int[]{1, 0, 0, -1, 0, 0};
+
+    private MappedWorld(FileChannel channel, int capacity) throws IOException {
+        this.channel = channel;
+        this.capacity = capacity;
+        dataOffset = (HEADER_BYTES + 8L * capacity + PAGE_BYTES - 1) & -PAGE_BYTES;
+        directory = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+        segments = new MappedByteBuffer[(capacity + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS];
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "world-write-back");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Создание пустого файла мира
+     *
+     * @param capacity наибольшее количество чанков в файле
+     */
+    public static MappedWorld create(Path path, int capacity) throws IOException {
+        if (capacity <= 0) throw new IllegalArgumentException("Ёмкость файла мира должна быть положительной: " + capacity);
+        final FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE, TRUNCATE_EXISTING);
+        try {
+            final MappedWorld world = new MappedWorld(channel, capacity);
+            world.directory.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, capacity).putInt(12, 0);
+            return world;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Открытие существующего файла мира, читается только каталог слотов
+     */
+    public static MappedWorld open(Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, READ, WRITE);
+        try {
+            if (channel.size() < HEADER_BYTES) throw new IOException("Не файл мира: " + path);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) channel.read(header, header.position());
+            header.flip();
+            if (header.getInt() != MAGIC) throw new IOException("Не файл мира: " + path);
+            final int version = header.getInt();
+            if (version != VERSION) throw new IOException("Неподдерживаемая версия файла мира: " + version);
+            final int capacity = header.getInt(), used = header.getInt();
+            if (capacity <= 0 || used < 0 || used > capacity) throw new IOException("Повреждён каталог файла мира: " + path);
+
+            final MappedWorld world = new MappedWorld(channel, capacity);
+            world.usedSlots = used;
+            for (int slot = 0; slot < used; slot++) world.slots.put(world.directory.getLong(HEADER_BYTES + 8 * slot), slot);
+            return world;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private MappedByteBuffer segment(int slot) throws IOException {
+        final int index = slot / SEGMENT_SLOTS;
+        synchronized (segments) {
+            if (segments[index] == null) {
+                final int count = Math.min(SEGMENT_SLOTS, capacity - index * SEGMENT_SLOTS);
+                segments[index] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        dataOffset + (long) index * SEGMENT_SLOTS * SLOT_BYTES, (long) count * SLOT_BYTES);
+            }
+            return segments[index];
+        }
+    }
+
+    private static int slotOffset(int slot) {
+        return (slot % SEGMENT_SLOTS) * SLOT_BYTES;
+    }
+
+    public synchronized void setMaxResident(int maxResident) {
+        this.maxResident = maxResident;
+    }
+
+    /**
+     * @param loadRadius радиус в чанках вокруг наблюдателя, в котором чанки файла загружаются
+     */
+    public synchronized void setLoadRadius(int loadRadius) {
+        this.loadRadius = loadRadius;
+    }
+
+    /**
+     * Загрузка чанков файла в радиусе вокруг наблюдателя и выгрузка лишних чанков.
+     * Чанки хранилища, созданные правками, учитываются как изменённые
+     *
+     * @return количество загруженных чанков
+     */
+    public synchronized int update(BlockStorage blocks, float x, float y, float z) throws IOException {
+        rethrowWriteFailure();
+        tick++;
+        final int cx = (int) Math.floor(x) >> CHUNK_SHIFT, cy = (int) Math.floor(y) >> CHUNK_SHIFT, cz = (int) Math.floor(z) >> CHUNK_SHIFT;
+        final int radius = loadRadius;
+        int loaded = 0;
+        for (int dy = -radius; dy <= radius; dy++)
+            for (int dz = -radius; dz <= radius; dz++)
+                for (int dx = -radius; dx <= radius; dx++) {
+                    final long key = chunkKey(cx + dx, cy + dy, cz + dz);
+                    final Resident known = resident.get(key);
+                    if (known != null) {
+                        known.lastUsed = tick;
+                        continue;
+                    }
+                    final Integer slot = slots.get(key);
+                    if (slot == null) continue;
+                    pageIn(blocks, key, slot).lastUsed = tick;
+                    loaded++;
+                }
+        blocks.forEachChunk(key -> {
+            if (!resident.containsKey(key)) resident.put(key, new Resident(slots.getOrDefault(key, -1), -1, tick));
+        });
+
+        if (resident.size() > maxResident) {
+            final List<Map.Entry<Long, Resident>> order = new ArrayList<>(resident.entrySet());
+            order.sort(Comparator.<Map.Entry<Long, Resident>>comparingLong(entry -> entry.getValue().lastUsed)
+                    .thenComparingLong(entry -> -distance(entry.getKey(), cx, cy, cz)));
+            for (int i = 0; resident.size() > maxResident; i++) {
+                final Map.Entry<Long, Resident> entry = order.get(i);
+                final long key = entry.getKey();
+                final Resident chunk = entry.getValue();
+                if (chunk.savedVersion != blocks.getChunkVersion(key)) writeBack(blocks, key, chunk);
+                rememberSavedNeighbours(blocks, key);
+                blocks.evictChunk(key);
+                keepNeighboursSaved(blocks, key);
+                resident.remove(key);
+                evictions++;
+            }
+        }
+        return loaded;
+    }
+
+    private static long distance(long key, int cx, int cy, int cz) {
+        final long dx = chunkX(key) - cx, dy = chunkY(key) - cy, dz = chunkZ(key) - cz;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Загрузка чанка, если он есть в файле и ещё не загружен. Вызывается перед правкой чанка,
+     * чтобы правка не создала пустой чанк поверх сохранённого
+     */
+    public synchronized void ensureResident(BlockStorage blocks, long chunkKey) throws IOException {
+        if (resident.containsKey(chunkKey)) return;
+        final Integer slot = slots.get(chunkKey);
+        if (slot != null) pageIn(blocks, chunkKey, slot).lastUsed = tick;
+    }
+
+    private Resident pageIn(BlockStorage blocks, long key, int slot) throws IOException {
+        final byte[] copy = pending.get(key);
+        if (copy != null) ChunkCodec.decode(ByteBuffer.wrap(copy), 0, key, blocks, sideIds);
+        else ChunkCodec.decode(segment(slot), slotOffset(slot), key, blocks, sideIds);
+        rememberSavedNeighbours(blocks, key);
+        blocks.touchLoadedChunk(key);
+        keepNeighboursSaved(blocks, key);
+        pageIns++;
+        final Resident chunk = new Resident(slot, blocks.getChunkVersion(key), tick);
+        resident.put(key, chunk);
+        return chunk;
+    }
+
+    /**
+     * Версии загруженных соседей чанка key, сохранённых в файле без изменений, -1 для остальных.
+     * Загрузка и выгрузка чанка меняют версии соседей, но не их блоки
+     */
+    private void rememberSavedNeighbours(BlockStorage blocks, long key) {
+        for (int side = 0; side < 6; side++) {
+            final long neighbour = neighbourKey(key, side);
+            final Resident chunk = resident.get(neighbour);
+            final int version = blocks.getChunkVersion(neighbour);
+            neighbourVersions[side] = chunk != null && chunk.savedVersion == version ? version : -1;
+        }
+    }
+
+    /**
+     * Соседи, сохранённые до загрузки или выгрузки чанка key, остаются сохранёнными с новыми версиями
+     */
+    private void keepNeighboursSaved(BlockStorage blocks, long key) {
+        for (int side = 0; side < 6; side++) {
+            if (neighbourVersions[side] < 0) continue;
+            final long neighbour = neighbourKey(key, side);
+            resident.get(neighbour).savedVersion = blocks.getChunkVersion(neighbour);
+        }
+    }
+
+    private static long neighbourKey(long key, int side) {
+        return chunkKey(chunkX(key) + NEIGHBOUR_X[side], chunkY(key) + NEIGHBOUR_Y[side], chunkZ(key) + NEIGHBOUR_Z[side]);
+    }
+
+    /**
+     * Копирование чанка и постановка копии на запись в его слот
+     */
+    private void writeBack(BlockStorage blocks, long key, Resident chunk) throws IOException {
+        final int version = blocks.getChunkVersion(key);
+        scratch.clear();
+        if (ChunkCodec.encode(blocks, key, scratch, present) == 0) {
+            chunk.savedVersion = version;
+            if (chunk.slot < 0) return;
+            // опустевший чанк записывается пустой картой занятых ячеек
+            scratch.clear();
+            for (int w = 0; w < FACE_MASK_WORDS; w++) scratch.putLong(0L);
+        }
+        if (chunk.slot < 0) chunk.slot = allocateSlot(key);
+        final byte[] copy = Arrays.copyOf(scratch.array(), scratch.position());
+        final int slot = chunk.slot;
+        pending.put(key, copy);
+        writer.execute(() -> {
+            try {
+                segment(slot).put(slotOffset(slot), copy, 0, copy.length);
+                pending.remove(key, copy);
+                writeBacks.incrementAndGet();
+            } catch (IOException e) {
+                writeFailure = e;
+            }
+        });
+        chunk.savedVersion = version;
+    }
+
+    private int allocateSlot(long key) throws IOException {
+        if (usedSlots == capacity) throw new IOException("Файл мира заполнен: " + capacity + " чанков");
+        final int slot = usedSlots++;
+        directory.putLong(HEADER_BYTES + 8 * slot, key);
+        directory.putInt(12, usedSlots);
+        slots.put(key, slot);
+        return slot;
+    }
+
+    private void rethrowWriteFailure() throws IOException {
+        final IOException failure = writeFailure;
+        if (failure != null) throw new IOException("Ошибка записи файла мира", failure);
+    }
+
+    /**
+     * Запись всех изменённых загруженных чанков с ожиданием окончания записи и сбросом на диск
+     *
+     * @return количество записанных чанков
+     */
+    public synchronized int flush(BlockStorage blocks) throws IOException {
+        int written = 0;
+        blocks.forEachChunk(key -> {
+            if (!resident.containsKey(key)) resident.put(key, new Resident(slots.getOrDefault(key, -1), -1, tick));
+        });
+        for (Map.Entry<Long, Resident> entry : resident.entrySet()) {
+            final Resident chunk = entry.getValue();
+            if (chunk.savedVersion == blocks.getChunkVersion(entry.getKey())) continue;
+            writeBack(blocks, entry.getKey(), chunk);
+            written++;
+        }
+        try {
+            writer.submit(() -> {
+                synchronized (segments) {
+                    for (MappedByteBuffer segment : segments) if (segment != null) segment.force();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Запись файла мира прервана", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Ошибка записи файла мира", e.getCause());
+        }
+        directory.force();
+        rethrowWriteFailure();
+        return written;
+    }
+
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    public synchronized long getEvictedCount() {
+        return evictions;
+    }
+
+    public synchronized long getPageInCount() {
+        return pageIns;
+    }
+
+    public long getWriteBackCount() {
+        return writeBacks.get();
+    }
+
+    public int getPendingWriteCount() {
+        return pending.size();
+    }
+
+    public synchronized int getSlotCount() {
+        return usedSlots;
+    }
+
+    /**
+     * Завершение записи и закрытие файла. Загруженные изменённые чанки нужно предварительно записать flush
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(1, TimeUnit.MINUTES)) throw new IOException("Запись файла мира не завершилась");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Запись файла мира прервана", e);
+        }
+        synchronized (segments) {
+            for (MappedByteBuffer segment : segments) if (segment != null) segment.force();
+        }
+        directory.force();
+        channel.close();
+        rethrowWriteFailure();
+    }
+}
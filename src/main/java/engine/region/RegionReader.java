@@ -0,0 +1,185 @@
+package engine.region;
+
+import engine.storage.BlockStorage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static engine.region.RegionWriter.*;
+
+/**
+ * Чтение файла региона, записанного RegionWriter. При открытии читается только оглавление,
+ * чанки читаются по запросу через общий буфер и сразу записываются в хранилище. Не потокобезопасен
+ */
+public class RegionReader implements Closeable {
+    private final FileChannel channel;
+    private final boolean compressed;
+    private final Inflater inflater;
+
+    private final long[] keys, offsets;
+    private final int[] lengths, rawLengths, blockCounts;
+    private final boolean[] loaded;
+    private final HashMap<Long, Integer> entries;
+    private int loadedCount = 0;
+
+    private ByteBuffer stored = ByteBuffer.allocate(ChunkCodec.MAX_CHUNK_BYTES);
+    private final ByteBuffer raw;
+    private final int[] sideIds = new int[6];
+
+    private RegionReader(FileChannel channel, boolean compressed, ByteBuffer index, int count) {
+        this.channel = channel;
+        this.compressed = compressed;
+        this.inflater = compressed ? new Inflater() : null;
+        this.raw = compressed ? ByteBuffer.allocate(ChunkCodec.MAX_CHUNK_BYTES) : null;
+        keys = new long[count];
+        offsets = new long[count];
+        lengths = new int[count];
+        rawLengths = new int[count];
+        blockCounts = new int[count];
+        loaded = new boolean[count];
+        entries = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            keys[i] = index.getLong();
+            offsets[i] = index.getLong();
+            lengths[i] = index.getInt();
+            rawLengths[i] = index.getInt();
+            blockCounts[i] = index.getInt();
+            entries.put(keys[i], i);
+        }
+    }
+
+    /**
+     * Открытие файла региона с чтением заголовка и оглавления
+     */
+    public static RegionReader open(Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path);
+        try {
+            final long size = channel.size();
+            if (size < HEADER_BYTES + 4 + TRAILER_BYTES) throw new IOException("Файл региона слишком мал: " + path);
+            final ByteBuffer header = readFully(channel, ByteBuffer.allocate(HEADER_BYTES), 0);
+            if (header.getInt() != MAGIC) throw new IOException("Не файл региона: " + path);
+            final int version = header.getInt();
+            if (version != VERSION) throw new IOException("Неподдерживаемая версия файла региона: " + version);
+            final boolean compressed = (header.getInt() & FLAG_COMPRESSED) != 0;
+
+            final ByteBuffer trailer = readFully(channel, ByteBuffer.allocate(TRAILER_BYTES), size - TRAILER_BYTES);
+            final long indexOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || indexOffset < HEADER_BYTES || indexOffset > size - TRAILER_BYTES - 4)
+                throw new IOException("Повреждено оглавление файла региона: " + path);
+            final ByteBuffer index = readFully(channel, ByteBuffer.allocate((int) (size - TRAILER_BYTES - indexOffset)), indexOffset);
+            final int count = index.getInt();
+            if (count < 0 || index.remaining() != count * 28L)
+                throw new IOException("Повреждено оглавление файла региона: " + path);
+            return new RegionReader(channel, compressed, index, count);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Неожиданный конец файла региона");
+        }
+        return buffer.flip();
+    }
+
+    public int getChunkCount() {
+        return keys.length;
+    }
+
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public boolean contains(long chunkKey) {
+        return entries.containsKey(chunkKey);
+    }
+
+    public boolean isLoaded(long chunkKey) {
+        final Integer entry = entries.get(chunkKey);
+        return entry != null && loaded[entry];
+    }
+
+    /**
+     * Обход ключей всех чанков файла в порядке записи
+     */
+    public void forEachChunk(LongConsumer consumer) {
+        for (long key : keys) consumer.accept(key);
+    }
+
+    /**
+     * Чтение чанка в хранилище: блоки записываются с сохранённой видимостью сторон,
+     * затем версия чанка меняется один раз. Повторное чтение перезаписывает блоки чанка
+     *
+     * @return количество прочитанных блоков или -1, если чанка нет в файле
+     */
+    public int readChunk(long chunkKey, BlockStorage target) throws IOException {
+        final Integer entry = entries.get(chunkKey);
+        if (entry == null) return -1;
+        return readEntry(entry, target);
+    }
+
+    /**
+     * Последовательное чтение всех ещё не прочитанных чанков
+     *
+     * @return количество прочитанных блоков
+     */
+    public int readAll(BlockStorage target) throws IOException {
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (!loaded[i]) count += readEntry(i, target);
+        }
+        return count;
+    }
+
+    private int readEntry(int entry, BlockStorage target) throws IOException {
+        if (stored.capacity() < lengths[entry]) stored = ByteBuffer.allocate(lengths[entry]);
+        stored.clear().limit(lengths[entry]);
+        readFully(channel, stored, offsets[entry]);
+
+        final ByteBuffer data;
+        if (compressed) {
+            inflater.reset();
+            inflater.setInput(stored.array(), 0, lengths[entry]);
+            try {
+                final int length = inflater.inflate(raw.array(), 0, raw.capacity());
+                if (length != rawLengths[entry] || !inflater.finished())
+                    throw new IOException("Повреждены данные чанка " + keys[entry]);
+            } catch (DataFormatException e) {
+                throw new IOException("Повреждены данные чанка " + keys[entry], e);
+            }
+            data = raw.clear().limit(rawLengths[entry]);
+        } else {
+            data = stored;
+        }
+
+        final long key = keys[entry];
+        final int count = ChunkCodec.decode(data, data.position(), key, target, sideIds);
+        if (count != blockCounts[entry]) throw new IOException("Повреждены данные чанка " + key);
+        target.touchLoadedChunk(key);
+        if (!loaded[entry]) {
+            loaded[entry] = true;
+            loadedCount++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) inflater.end();
+        channel.close();
+    }
+}
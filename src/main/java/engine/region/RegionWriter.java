@@ -0,0 +1,160 @@
+package engine.region;
+
+import engine.storage.BlockStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static engine.storage.BlockStorage.FACE_MASK_WORDS;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Запись мира в двоичный файл региона. Файл состоит из заголовка, данных чанков, оглавления
+ * и завершающей записи:
+ * <pre>
+ * заголовок:  int MAGIC, int VERSION, int флаги (FLAG_COMPRESSED)
+ * чанк:       данные ChunkCodec, при сжатии весь чанк сжат Deflater
+ * оглавление: int количество чанков, по каждому long ключ, long смещение, int длина в файле,
+ *             int длина без сжатия, int количество блоков
+ * завершение: long смещение оглавления, int MAGIC
+ * </pre>
+ * По оглавлению чанки читаются по отдельности, не читая весь файл
+ */
+public class RegionWriter implements Closeable {
+    static final int MAGIC = 0x56584752;
+    static final int VERSION = 1;
+    static final int FLAG_COMPRESSED = 1;
+    static final int HEADER_BYTES = 12, TRAILER_BYTES = 12;
+
+    private final FileChannel channel;
+    private final boolean compressed;
+    private final Deflater deflater;
+
+    private final ByteBuffer raw = ByteBuffer.allocate(ChunkCodec.MAX_CHUNK_BYTES);
+    private byte[] packed = new byte[ChunkCodec.MAX_CHUNK_BYTES];
+    private final long[] present = new long[FACE_MASK_WORDS];
+
+    private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    private final DataOutputStream index = new DataOutputStream(indexBytes);
+    private int chunkCount = 0;
+    private long position;
+    private long rawBytes = 0;
+
+    public RegionWriter(Path path, boolean compressed) throws IOException {
+        this.channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+        this.compressed = compressed;
+        this.deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(compressed ? FLAG_COMPRESSED : 0).flip();
+        writeFully(header);
+        position = HEADER_BYTES;
+    }
+
+    /**
+     * Запись всех чанков хранилища в файл
+     *
+     * @return количество записанных чанков
+     */
+    public static int write(BlockStorage blocks, Path path, boolean compressed) throws IOException {
+        try (RegionWriter writer = new RegionWriter(path, compressed)) {
+            final IOException[] failure = new IOException[1];
+            blocks.forEachChunk(key -> {
+                if (failure[0] != null) return;
+                try {
+                    writer.writeChunk(blocks, key);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+            return writer.chunkCount;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * Запись одного чанка, пустые чанки пропускаются
+     *
+     * @return количество записанных блоков
+     */
+    public int writeChunk(BlockStorage blocks, long chunkKey) throws IOException {
+        raw.clear();
+        final int count = ChunkCodec.encode(blocks, chunkKey, raw, present);
+        if (count == 0) return 0;
+        writeEncoded(chunkKey, raw.array(), raw.position(), count);
+        return count;
+    }
+
+    /**
+     * Запись чанка, заранее закодированного ChunkCodec
+     *
+     * @param data      данные чанка с начала массива
+     * @param rawLength длина данных
+     * @param count     количество блоков в данных
+     */
+    void writeEncoded(long chunkKey, byte[] data, int rawLength, int count) throws IOException {
+        final ByteBuffer stored;
+        if (compressed) {
+            deflater.reset();
+            deflater.setInput(data, 0, rawLength);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == packed.length) packed = Arrays.copyOf(packed, packed.length + (packed.length >> 1));
+                length += deflater.deflate(packed, length, packed.length - length);
+            }
+            stored = ByteBuffer.wrap(packed, 0, length);
+        } else {
+            stored = ByteBuffer.wrap(data, 0, rawLength);
+        }
+        final int storedLength = stored.remaining();
+        writeFully(stored);
+
+        index.writeLong(chunkKey);
+        index.writeLong(position);
+        index.writeInt(storedLength);
+        index.writeInt(rawLength);
+        index.writeInt(count);
+        chunkCount++;
+        position += storedLength;
+        rawBytes += rawLength;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @return объём данных чанков без сжатия
+     */
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * Запись оглавления и завершающей записи, после неё файл готов к чтению
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            index.flush();
+            final byte[] entries = indexBytes.toByteArray();
+            final ByteBuffer tail = ByteBuffer.allocate(4 + entries.length + TRAILER_BYTES);
+            tail.putInt(chunkCount).put(entries).putLong(position).putInt(MAGIC).flip();
+            writeFully(tail);
+        } finally {
+            if (deflater != null) deflater.end();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package engine.region;
+
+import engine.entities.Block;
+import engine.storage.BlockStorage;
+import org.joml.Vector3i;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Текстовый формат сцены: по строке Block.toString на блок. Видимость сторон в нём не хранится
+ * и пересчитывается при вставке блоков в Engine
+ */
+public final class TextWorldFormat {
+    private TextWorldFormat() {
+    }
+
+    /**
+     * Запись всех блоков хранилища
+     *
+     * @return количество записанных блоков
+     */
+    public static int write(BlockStorage blocks, Writer writer) throws IOException {
+        final IOException[] failure = new IOException[1];
+        final int[] count = new int[1];
+        blocks.forEach((x, y, z, id) -> {
+            if (failure[0] != null) return;
+            try {
+                writer.write(blocks.getBlock(x, y, z).toString());
+                writer.write('\n');
+                count[0]++;
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) throw failure[0];
+        return count[0];
+    }
+
+    /**
+     * Разбор строки вида "Block: cord=[\tx\ty\tz\t],\tid=N,\tsideIds=[a, b, c, d, e, f]"
+     */
+    public static Block parse(String line) {
+        final String[] parts = line.split("\t");
+        if (parts.length != 7 || !parts[0].equals("Block: cord=[") || !parts[4].equals("],")
+                || !parts[5].startsWith("id=") || !parts[6].startsWith("sideIds=[") || !parts[6].endsWith("]"))
+            throw new IllegalArgumentException("Строка не описывает блок: " + line);
+        final Vector3i cord = new Vector3i(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+        final int id = Integer.parseInt(parts[5].substring(3, parts[5].length() - 1));
+        final String[] sides = parts[6].substring(9, parts[6].length() - 1).split(", ");
+        final int[] sideIds = new int[sides.length];
+        for (int side = 0; side < sides.length; side++) sideIds[side] = Integer.parseInt(sides[side]);
+        return new Block(cord, id, sideIds);
+    }
+
+    /**
+     * Чтение всех блоков, пустые строки пропускаются
+     */
+    public static List<Block> read(BufferedReader reader) throws IOException {
+        final List<Block> result = new ArrayList<>();
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (!line.isBlank()) result.add(parse(line));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,236 @@
+package engine.storage;
+
+import engine.entities.Block;
+import org.joml.Vector3i;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Хранилище блоков сцены. Мир логически разбит на чанки CHUNK_SIZE³,
+ * чанк адресуется упакованным в long ключом
+ */
+public interface BlockStorage {
+    int CHUNK_SHIFT = 4;
+    int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    int CHUNK_MASK = CHUNK_SIZE - 1;
+    int CHUNK_VOLUME = CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE;
+
+    /**
+     * Количество 64-битных слов в битовой карте чанка
+     */
+    int FACE_MASK_WORDS = CHUNK_VOLUME / 64;
+
+    /**
+     * id пустой ячейки
+     */
+    int EMPTY = Integer.MIN_VALUE;
+
+    /**
+     * Упаковка координат чанка в ключ (по 21 биту на ось)
+     *
+     * @param cx координата чанка по x
+     * @param cy координата чанка по y
+     * @param cz координата чанка по z
+     * @return ключ чанка
+     */
+    static long chunkKey(int cx, int cy, int cz) {
+        return ((long) cx & 0x1FFFFFL) << 42 | ((long) cy & 0x1FFFFFL) << 21 | ((long) cz & 0x1FFFFFL);
+    }
+
+    static int chunkX(long key) {
+        return (int) (key << 1 >> 43);
+    }
+
+    static int chunkY(long key) {
+        return (int) (key << 22 >> 43);
+    }
+
+    static int chunkZ(long key) {
+        return (int) (key << 43 >> 43);
+    }
+
+    /**
+     * Ключ чанка, содержащего блок
+     */
+    static long chunkKeyOf(int x, int y, int z) {
+        return chunkKey(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT, z >> CHUNK_SHIFT);
+    }
+
+    boolean contains(int x, int y, int z);
+
+    /**
+     * @return id блока или EMPTY, если ячейка пуста
+     */
+    int getId(int x, int y, int z);
+
+    /**
+     * Проверка, что id принадлежит непрозрачному блоку (id != -1)
+     */
+    static boolean isSolidId(int id) {
+        return id != EMPTY && id != -1;
+    }
+
+    /**
+     * Проверка id сторон до записи блока: 6 значений в диапазоне short
+     *
+     * @throws IllegalArgumentException если id сторон нельзя записать
+     */
+    static void checkSideIds(int[] sideIds) {
+        if (sideIds.length != 6)
+            throw new IllegalArgumentException("Массив id сторон блока неравен стандартному размеру(6)");
+        for (int sideId : sideIds) {
+            if (sideId < Short.MIN_VALUE || sideId > Short.MAX_VALUE)
+                throw new IllegalArgumentException("id стороны блока вне допустимого диапазона: " + sideId);
+        }
+    }
+
+    /**
+     * Проверка, что в ячейке есть непрозрачный блок (id != -1)
+     */
+    default boolean isSolid(int x, int y, int z) {
+        return isSolidId(getId(x, y, z));
+    }
+
+    int getSideId(int x, int y, int z, int side);
+
+    boolean isSideRendered(int x, int y, int z, int side);
+
+    void setSideRendered(int x, int y, int z, int side, boolean render);
+
+    /**
+     * Добавление (замена) блока, все стороны считаются видимыми
+     *
+     * @param id      id блока
+     * @param sideIds массив[6] id сторон
+     */
+    void put(int x, int y, int z, int id, int[] sideIds);
+
+    default void put(Block block) {
+        final Vector3i cord = block.cord;
+        put(cord.x, cord.y, cord.z, block.id, block.sideIds);
+        for (int side = 0; side < 6; side++) setSideRendered(cord.x, cord.y, cord.z, side, block.sideRender[side]);
+    }
+
+    /**
+     * @return true, если блок был удалён
+     */
+    boolean remove(int x, int y, int z);
+
+    /**
+     * Маски видимых сторон всех блоков чанка, по биту на ячейку: бит (index & 63) слова
+     * side * FACE_MASK_WORDS + (index >> 6), index - индекс ячейки (y, z, x) внутри чанка.
+     * По умолчанию маски собираются из сохранённой видимости сторон
+     *
+     * @param masks заполняемый массив[6 * FACE_MASK_WORDS]
+     * @return true, если в чанке есть хотя бы одна видимая сторона
+     */
+    default boolean computeFaceMasks(long chunkKey, long[] masks) {
+        Arrays.fill(masks, 0, 6 * FACE_MASK_WORDS, 0L);
+        final boolean[] any = new boolean[1];
+        forEachInChunk(chunkKey, (x, y, z, id) -> {
+            final int index = ((y & CHUNK_MASK) << (2 * CHUNK_SHIFT)) | ((z & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+            for (int side = 0; side < 6; side++) {
+                if (!isSideRendered(x, y, z, side)) continue;
+                masks[side * FACE_MASK_WORDS + (index >> 6)] |= 1L << index;
+                any[0] = true;
+            }
+        });
+        return any[0];
+    }
+
+    /**
+     * Запись блока с готовой маской видимых сторон без смены версии чанка. Для пакетных правок:
+     * после них версию каждого изменённого чанка один раз меняет touchChunk
+     *
+     * @param faces маска видимых сторон, бит i соответствует стороне i
+     * @return true, если ячейка изменилась: блока не было или у него были другие id, id сторон или маска
+     */
+    boolean putUnversioned(int x, int y, int z, int id, int[] sideIds, int faces);
+
+    /**
+     * Удаление блока без смены версии чанка
+     *
+     * @return true, если блок был удалён
+     */
+    boolean removeUnversioned(int x, int y, int z);
+
+    /**
+     * Замена маски видимых сторон блока без смены версии чанка
+     *
+     * @return true, если блок есть и его маска изменилась
+     */
+    boolean setFacesUnversioned(int x, int y, int z, int faces);
+
+    /**
+     * Увеличение версии существующего чанка после правок без смены версии
+     *
+     * @return true, если чанк существует
+     */
+    boolean touchChunk(long chunkKey);
+
+    /**
+     * Увеличение версии чанка, только что загруженного из файла без смены версии. Меняются и версии
+     * соседей, видимость сторон которых зависит от блоков загруженного чанка
+     *
+     * @return true, если чанк существует
+     */
+    default boolean touchLoadedChunk(long chunkKey) {
+        return touchChunk(chunkKey);
+    }
+
+    /**
+     * Выгрузка чанка целиком: блоки чанка удаляются, чанк исчезает из forEachChunk, версии соседей,
+     * видимость сторон которых зависела от его блоков, меняются.
+     * Вызывается, когда мир не изменяется другими потоками
+     *
+     * @return true, если чанк существовал
+     */
+    boolean evictChunk(long chunkKey);
+
+    /**
+     * Создание объекта блока по данным хранилища
+     *
+     * @return блок или null, если ячейка пуста
+     */
+    default Block getBlock(int x, int y, int z) {
+        final int id = getId(x, y, z);
+        if (id == EMPTY) return null;
+        final int[] sideIds = new int[6];
+        for (int side = 0; side < 6; side++) sideIds[side] = getSideId(x, y, z, side);
+        final Block block = new Block(new Vector3i(x, y, z), id, sideIds);
+        for (int side = 0; side < 6; side++) block.sideRender[side] = isSideRendered(x, y, z, side);
+        return block;
+    }
+
+    /**
+     * @return количество блоков в хранилище
+     */
+    int size();
+
+    /**
+     * Обход ключей всех непустых (или когда-либо заполненных) чанков
+     */
+    void forEachChunk(LongConsumer consumer);
+
+    /**
+     * Версия чанка, увеличивается при любом изменении его блоков или видимости их сторон
+     */
+    int getChunkVersion(long chunkKey);
+
+    void forEachInChunk(long chunkKey, BlockVisitor visitor);
+
+    default void forEach(BlockVisitor visitor) {
+        forEachChunk(key -> forEachInChunk(key, visitor));
+    }
+
+    /**
+     * Создание хранилища заданного типа
+     */
+    static BlockStorage create(StorageType type) {
+        return switch (type) {
+            case CHUNKED -> new ChunkedBlockStorage();
+            case MAP -> new MapBlockStorage();
+        };
+    }
+}
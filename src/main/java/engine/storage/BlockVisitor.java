@@ -0,0 +1,9 @@
+package engine.storage;
+
+/**
+ * Обработчик блока при обходе хранилища
+ */
+@FunctionalInterface
+public interface BlockVisitor {
+    void visit(int x, int y, int z, int id);
+}
@@ -0,0 +1,225 @@
+package engine.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static engine.storage.BlockStorage.*;
+
+/**
+ * Чанк CHUNK_SIZE³ блоков, данные хранятся в упакованных примитивных массивах.
+ * Индекс ячейки: x меняется быстрее всего, затем z, затем y
+ */
+public class Chunk {
+    public final int cx, cy, cz;
+    public final long key;
+
+    /**
+     * id блоков, EMPTY для пустых ячеек
+     */
+    final int[] ids;
+    /**
+     * id сторон, по 6 на ячейку
+     */
+    final short[] sideIds;
+    /**
+     * Маски видимых сторон, бит i соответствует стороне i
+     */
+    final byte[] faces;
+    /**
+     * Битовые карты занятых ячеек и ячеек с твёрдыми блоками, бит с номером индекса ячейки.
+     * Слово w содержит четыре ряда по x: y = w / 4, z = (w % 4) * 4 .. (w % 4) * 4 + 3
+     */
+    final long[] present, solid;
+    /**
+     * Соседние чанки по сторонам near, up, down, far, left, right. Связываются при создании чанка
+     */
+    final AtomicReferenceArray<Chunk> neighbours = new AtomicReferenceArray<>(6);
+
+    int count;
+    /**
+     * Увеличивается после каждой записи в массивы чанка. Запись в volatile публикует изменённые
+     * маски сторон: поток, прочитавший версию, видит все записи до неё
+     */
+    volatile int version;
+    /**
+     * Чанк выгружен evictChunk и больше не принадлежит хранилищу
+     */
+    volatile boolean evicted;
+
+    Chunk(int cx, int cy, int cz) {
+        this.cx = cx;
+        this.cy = cy;
+        this.cz = cz;
+        this.key = chunkKey(cx, cy, cz);
+        ids = new int[CHUNK_VOLUME];
+        sideIds = new short[CHUNK_VOLUME * 6];
+        faces = new byte[CHUNK_VOLUME];
+        present = new long[FACE_MASK_WORDS];
+        solid = new long[FACE_MASK_WORDS];
+        Arrays.fill(ids, EMPTY);
+    }
+
+    static int index(int x, int y, int z) {
+        return ((y & CHUNK_MASK) << (2 * CHUNK_SHIFT)) | ((z & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+    }
+
+    int getId(int index) {
+        return ids[index];
+    }
+
+    int getSideId(int index, int side) {
+        return sideIds[index * 6 + side];
+    }
+
+    boolean isSideRendered(int index, int side) {
+        return (faces[index] & (1 << side)) != 0;
+    }
+
+    void setSideRendered(int index, int side, boolean render) {
+        final byte old = faces[index];
+        final byte mask = (byte) (render ? old | (1 << side) : old & ~(1 << side));
+        if (mask != old) {
+            faces[index] = mask;
+            version++;
+        }
+    }
+
+    /**
+     * @return true, если ячейка была пустой
+     */
+    boolean put(int index, int id, int[] sideIds) {
+        final boolean wasSolid = isSolid(index);
+        final boolean added = write(index, id, sideIds, 0b111111);
+        version++;
+        if (wasSolid != isSolidId(id)) touchNeighbours(index);
+        return added;
+    }
+
+    /**
+     * Запись блока с маской видимых сторон faces без смены версии. id сторон проверяются до
+     * записи: при ошибке ячейка не меняется
+     *
+     * @return true, если ячейка была пустой
+     */
+    boolean write(int index, int id, int[] sideIds, int faces) {
+        checkSideIds(sideIds);
+        final boolean added = ids[index] == EMPTY;
+        if (added) count++;
+        ids[index] = id;
+        final long bit = 1L << index;
+        present[index >>> 6] |= bit;
+        if (isSolidId(id)) solid[index >>> 6] |= bit;
+        else solid[index >>> 6] &= ~bit;
+        for (int side = 0; side < 6; side++) this.sideIds[index * 6 + side] = (short) sideIds[side];
+        this.faces[index] = (byte) faces;
+        return added;
+    }
+
+    /**
+     * @return true, если в ячейке уже записан такой блок с такой маской сторон
+     */
+    boolean holds(int index, int id, int[] sideIds, int faces) {
+        if (ids[index] != id || ids[index] == EMPTY || this.faces[index] != (byte) faces || sideIds.length != 6) return false;
+        for (int side = 0; side < 6; side++) {
+            if (this.sideIds[index * 6 + side] != sideIds[side]) return false;
+        }
+        return true;
+    }
+
+    void setFaces(int index, int faces) {
+        this.faces[index] = (byte) faces;
+    }
+
+    boolean remove(int index) {
+        final boolean wasSolid = isSolid(index);
+        if (!clear(index)) return false;
+        version++;
+        if (wasSolid) touchNeighbours(index);
+        return true;
+    }
+
+    boolean isSolid(int index) {
+        return (solid[index >>> 6] & 1L << index) != 0;
+    }
+
+    /**
+     * Смена версии соседних чанков, к которым прилегает граничная ячейка: их маски граней
+     * считаются по битовой карте твёрдых блоков этого чанка
+     */
+    private void touchNeighbours(int index) {
+        final int x = index & CHUNK_MASK, z = index >> CHUNK_SHIFT & CHUNK_MASK, y = index >> 2 * CHUNK_SHIFT;
+        if (z == CHUNK_MASK) touchNeighbour(0);
+        if (y == CHUNK_MASK) touchNeighbour(1);
+        if (y == 0) touchNeighbour(2);
+        if (z == 0) touchNeighbour(3);
+        if (x == 0) touchNeighbour(4);
+        if (x == CHUNK_MASK) touchNeighbour(5);
+    }
+
+    void touchNeighbour(int side) {
+        final Chunk neighbour = neighbours.get(side);
+        if (neighbour != null) neighbour.version++;
+    }
+
+    /**
+     * Удаление блока без смены версии
+     */
+    boolean clear(int index) {
+        if (ids[index] == EMPTY) return false;
+        ids[index] = EMPTY;
+        faces[index] = 0;
+        present[index >>> 6] &= ~(1L << index);
+        solid[index >>> 6] &= ~(1L << index);
+        count--;
+        return true;
+    }
+
+    private static final long ROWS_X0 = 0x0001_0001_0001_0001L, ROWS_X15 = 0x8000_8000_8000_8000L;
+
+    /**
+     * Маски видимых сторон всех блоков чанка: сторона видима, если соседняя клетка не занята
+     * твёрдым блоком. Каждое слово считается сдвигами и масками по словам этого чанка и соседних
+     *
+     * @param masks массив[6 * FACE_MASK_WORDS], маска стороны side начинается с side * FACE_MASK_WORDS
+     */
+    void faceMasks(long[] masks) {
+        final Chunk near = neighbours.get(0), up = neighbours.get(1), down = neighbours.get(2),
+                far = neighbours.get(3), left = neighbours.get(4), right = neighbours.get(5);
+        final int words = FACE_MASK_WORDS;
+        for (int w = 0; w < words; w++) {
+            final long occupied = present[w];
+            if (occupied == 0) {
+                for (int side = 0; side < 6; side++) masks[side * words + w] = 0;
+                continue;
+            }
+            final long cells = solid[w];
+            final int y = w >> 2, zRow = w & 3;
+
+            final long nextZ = zRow < 3 ? solid[w + 1] : near == null ? 0 : near.solid[w - 3];
+            final long prevZ = zRow > 0 ? solid[w - 1] : far == null ? 0 : far.solid[w + 3];
+            final long nextY = y < CHUNK_MASK ? solid[w + 4] : up == null ? 0 : up.solid[zRow];
+            final long prevY = y > 0 ? solid[w - 4] : down == null ? 0 : down.solid[words - 4 + zRow];
+            final long prevX = left == null ? 0 : (left.solid[w] & ROWS_X15) >>> CHUNK_MASK;
+            final long nextX = right == null ? 0 : (right.solid[w] & ROWS_X0) << CHUNK_MASK;
+
+            masks[w] = occupied & ~(cells >>> CHUNK_SIZE | nextZ << 3 * CHUNK_SIZE);
+            masks[words + w] = occupied & ~nextY;
+            masks[2 * words + w] = occupied & ~prevY;
+            masks[3 * words + w] = occupied & ~(cells << CHUNK_SIZE | prevZ >>> 3 * CHUNK_SIZE);
+            masks[4 * words + w] = occupied & ~(cells << 1 & ~ROWS_X0 | prevX);
+            masks[5 * words + w] = occupied & ~(cells >>> 1 & ~ROWS_X15 | nextX);
+        }
+    }
+
+    void forEach(BlockVisitor visitor) {
+        if (count == 0) return;
+        final int baseX = cx << CHUNK_SHIFT, baseY = cy << CHUNK_SHIFT, baseZ = cz << CHUNK_SHIFT;
+        for (int index = 0; index < CHUNK_VOLUME; index++) {
+            final int id = ids[index];
+            if (id == EMPTY) continue;
+            visitor.visit(baseX + (index & CHUNK_MASK),
+                    baseY + (index >> (2 * CHUNK_SHIFT)),
+                    baseZ + ((index >> CHUNK_SHIFT) & CHUNK_MASK), id);
+        }
+    }
+}
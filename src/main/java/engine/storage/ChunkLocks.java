@@ -0,0 +1,51 @@
+package engine.storage;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import static engine.storage.BlockStorage.*;
+
+/**
+ * Полосатые блокировки чанков: чанк защищается одной из 64 блокировок по хешу ключа.
+ * Изменение блока захватывает блокировки его чанка и чанков соседей, поэтому правки
+ * в разных частях мира идут параллельно без общей блокировки
+ */
+public class ChunkLocks {
+    private static final int STRIPES = 64;
+
+    private final ReentrantLock[] stripes;
+
+    public ChunkLocks() {
+        stripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantLock();
+    }
+
+    static int stripe(long chunkKey) {
+        return (int) ((chunkKey * 0x9E3779B97F4A7C15L) >>> 58);
+    }
+
+    private static long stripeOf(int x, int y, int z) {
+        return 1L << stripe(chunkKeyOf(x, y, z));
+    }
+
+    /**
+     * Захват блокировок чанка клетки и чанков шести её соседей. Блокировки берутся
+     * в порядке возрастания номера, что исключает взаимную блокировку потоков
+     *
+     * @return маска захваченных блокировок для unlock
+     */
+    public long lockAround(int x, int y, int z) {
+        long mask = stripeOf(x, y, z);
+        if ((x & CHUNK_MASK) == 0) mask |= stripeOf(x - 1, y, z);
+        if ((x & CHUNK_MASK) == CHUNK_MASK) mask |= stripeOf(x + 1, y, z);
+        if ((y & CHUNK_MASK) == 0) mask |= stripeOf(x, y - 1, z);
+        if ((y & CHUNK_MASK) == CHUNK_MASK) mask |= stripeOf(x, y + 1, z);
+        if ((z & CHUNK_MASK) == 0) mask |= stripeOf(x, y, z - 1);
+        if ((z & CHUNK_MASK) == CHUNK_MASK) mask |= stripeOf(x, y, z + 1);
+        for (long rest = mask; rest != 0; rest &= rest - 1) stripes[Long.numberOfTrailingZeros(rest)].lock();
+        return mask;
+    }
+
+    public void unlock(long mask) {
+        for (long rest = mask; rest != 0; rest &= rest - 1) stripes[Long.numberOfTrailingZeros(rest)].unlock();
+    }
+}
@@ -0,0 +1,230 @@
+package engine.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Хранилище блоков по чанкам CHUNK_SIZE³ с упакованными массивами id блоков и id сторон.
+ * Чанки создаются при первой записи и удаляются только выгрузкой evictChunk, которая помечает
+ * чанк выгруженным, чтобы его не вернули ссылки на последний использованный чанк. Запись в чанк должна идти под его
+ * блокировкой из ChunkLocks, чтение возможно без блокировок
+ */
+public class ChunkedBlockStorage implements BlockStorage {
+    private final ConcurrentHashMap<Long, Chunk> chunks;
+    /**
+     * Последний использованный чанк, свой у каждого потока: чтения разных потоков не пишут в общую память
+     */
+    private final ThreadLocal<Chunk[]> lastChunk = ThreadLocal.withInitial(() -> new Chunk[1]);
+    private final AtomicInteger size = new AtomicInteger();
+
+    public ChunkedBlockStorage() {
+        chunks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Поиск чанка, содержащего блок
+     *
+     * @return чанк или null, если он ещё не создан
+     */
+    private Chunk chunkAt(int x, int y, int z) {
+        final int cx = x >> CHUNK_SHIFT, cy = y >> CHUNK_SHIFT, cz = z >> CHUNK_SHIFT;
+        final Chunk[] cache = lastChunk.get();
+        final Chunk last = cache[0];
+        if (last != null && last.cx == cx && last.cy == cy && last.cz == cz && !last.evicted) return last;
+        final Chunk chunk = chunks.get(BlockStorage.chunkKey(cx, cy, cz));
+        if (chunk != null) cache[0] = chunk;
+        return chunk;
+    }
+
+    /**
+     * Смещения соседних чанков по сторонам near, up, down, far, left, right
+     */
+    private static final int[] NEIGHBOUR_X = new int[]{0, 0, 0, 0, -1, 1};
+    private static final int[] NEIGHBOUR_Y = new int[]{0, 1, -1, 0, 0, 0};
+    private static final int[] NEIGHBOUR_Z = new int[]{1, 0, 0, -1, 0, 0};
+
+    private Chunk chunkForWrite(int x, int y, int z) {
+        final Chunk chunk = chunkAt(x, y, z);
+        if (chunk != null) return chunk;
+        final int cx = x >> CHUNK_SHIFT, cy = y >> CHUNK_SHIFT, cz = z >> CHUNK_SHIFT;
+        final Chunk created;
+        // создание чанков редкое, под общей блокировкой чанк добавляется и связывается с соседями атомарно
+        synchronized (chunks) {
+            final long key = BlockStorage.chunkKey(cx, cy, cz);
+            final Chunk existing = chunks.get(key);
+            if (existing != null) {
+                created = existing;
+            } else {
+                created = new Chunk(cx, cy, cz);
+                for (int side = 0; side < 6; side++) {
+                    final Chunk neighbour = chunks.get(BlockStorage.chunkKey(cx + NEIGHBOUR_X[side], cy + NEIGHBOUR_Y[side], cz + NEIGHBOUR_Z[side]));
+                    if (neighbour == null) continue;
+                    created.neighbours.set(side, neighbour);
+                    neighbour.neighbours.set(side ^ (side < 4 ? 3 : 1), created);
+                }
+                chunks.put(key, created);
+            }
+        }
+        lastChunk.get()[0] = created;
+        return created;
+    }
+
+    public Chunk getChunk(long chunkKey) {
+        return chunks.get(chunkKey);
+    }
+
+    public int chunkCount() {
+        return chunks.size();
+    }
+
+    @Override
+    public boolean contains(int x, int y, int z) {
+        return getId(x, y, z) != EMPTY;
+    }
+
+    @Override
+    public int getId(int x, int y, int z) {
+        final Chunk chunk = chunkAt(x, y, z);
+        return chunk == null ? EMPTY : chunk.getId(Chunk.index(x, y, z));
+    }
+
+    @Override
+    public int getSideId(int x, int y, int z, int side) {
+        final Chunk chunk = chunkAt(x, y, z);
+        return chunk == null ? EMPTY : chunk.getSideId(Chunk.index(x, y, z), side);
+    }
+
+    @Override
+    public boolean isSideRendered(int x, int y, int z, int side) {
+        final Chunk chunk = chunkAt(x, y, z);
+        return chunk != null && chunk.isSideRendered(Chunk.index(x, y, z), side);
+    }
+
+    @Override
+    public void setSideRendered(int x, int y, int z, int side, boolean render) {
+        final Chunk chunk = chunkAt(x, y, z);
+        if (chunk == null) return;
+        final int index = Chunk.index(x, y, z);
+        if (chunk.getId(index) != EMPTY) chunk.setSideRendered(index, side, render);
+    }
+
+    @Override
+    public void put(int x, int y, int z, int id, int[] sideIds) {
+        final Chunk chunk = chunkForWrite(x, y, z);
+        if (chunk.put(Chunk.index(x, y, z), id, sideIds)) size.incrementAndGet();
+    }
+
+    @Override
+    public boolean remove(int x, int y, int z) {
+        final Chunk chunk = chunkAt(x, y, z);
+        if (chunk == null || !chunk.remove(Chunk.index(x, y, z))) return false;
+        size.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Маски считаются по битовым картам твёрдых блоков чанка и шести связанных с ним соседей,
+     * без обращения к отдельным ячейкам
+     */
+    @Override
+    public boolean computeFaceMasks(long chunkKey, long[] masks) {
+        final Chunk chunk = chunks.get(chunkKey);
+        if (chunk == null || chunk.count == 0) {
+            Arrays.fill(masks, 0, 6 * FACE_MASK_WORDS, 0L);
+            return false;
+        }
+        chunk.faceMasks(masks);
+        return true;
+    }
+
+    @Override
+    public boolean putUnversioned(int x, int y, int z, int id, int[] sideIds, int faces) {
+        final Chunk chunk = chunkForWrite(x, y, z);
+        final int index = Chunk.index(x, y, z);
+        if (chunk.holds(index, id, sideIds, faces)) return false;
+        if (chunk.write(index, id, sideIds, faces)) size.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public boolean removeUnversioned(int x, int y, int z) {
+        final Chunk chunk = chunkAt(x, y, z);
+        if (chunk == null || !chunk.clear(Chunk.index(x, y, z))) return false;
+        size.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public boolean setFacesUnversioned(int x, int y, int z, int faces) {
+        final Chunk chunk = chunkAt(x, y, z);
+        if (chunk == null) return false;
+        final int index = Chunk.index(x, y, z);
+        if (chunk.getId(index) == EMPTY || chunk.faces[index] == (byte) faces) return false;
+        chunk.setFaces(index, faces);
+        return true;
+    }
+
+    @Override
+    public boolean touchChunk(long chunkKey) {
+        final Chunk chunk = chunks.get(chunkKey);
+        if (chunk == null) return false;
+        chunk.version++;
+        return true;
+    }
+
+    /**
+     * Маски граней связанных соседей считаются по твёрдым блокам загруженного чанка, поэтому их версии тоже меняются
+     */
+    @Override
+    public boolean touchLoadedChunk(long chunkKey) {
+        final Chunk chunk = chunks.get(chunkKey);
+        if (chunk == null) return false;
+        chunk.version++;
+        for (int side = 0; side < 6; side++) chunk.touchNeighbour(side);
+        return true;
+    }
+
+    @Override
+    public boolean evictChunk(long chunkKey) {
+        synchronized (chunks) {
+            final Chunk chunk = chunks.get(chunkKey);
+            if (chunk == null) return false;
+            // пометка раньше удаления: ссылки потоков на чанк, взятые из таблицы до выгрузки, больше не используются
+            chunk.evicted = true;
+            chunks.remove(chunkKey);
+            for (int side = 0; side < 6; side++) {
+                final Chunk neighbour = chunk.neighbours.getAndSet(side, null);
+                if (neighbour == null) continue;
+                neighbour.neighbours.set(side ^ (side < 4 ? 3 : 1), null);
+                // грани соседа на границе с выгруженным чанком теперь считаются открытыми
+                neighbour.version++;
+            }
+            size.addAndGet(-chunk.count);
+            return true;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void forEachChunk(LongConsumer consumer) {
+        for (Long key : chunks.keySet()) consumer.accept(key);
+    }
+
+    @Override
+    public int getChunkVersion(long chunkKey) {
+        final Chunk chunk = chunks.get(chunkKey);
+        return chunk == null ? 0 : chunk.version;
+    }
+
+    @Override
+    public void forEachInChunk(long chunkKey, BlockVisitor visitor) {
+        final Chunk chunk = chunks.get(chunkKey);
+        if (chunk != null) chunk.forEach(visitor);
+    }
+}
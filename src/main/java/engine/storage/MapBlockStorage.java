@@ -0,0 +1,143 @@
+package engine.storage;
+
+import engine.entities.Block;
+import org.joml.Vector3i;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Прежнее хранилище: каждый блок - отдельный объект в ConcurrentHashMap по ключу Vector3i.
+ * Оставлено для сравнения с ChunkedBlockStorage
+ */
+public class MapBlockStorage implements BlockStorage {
+    private final ConcurrentHashMap<Vector3i, Block> blocks;
+    private final ConcurrentHashMap<Long, Integer> chunkVersions;
+
+    public MapBlockStorage() {
+        blocks = new ConcurrentHashMap<>();
+        chunkVersions = new ConcurrentHashMap<>();
+    }
+
+    private void touch(int x, int y, int z) {
+        chunkVersions.merge(BlockStorage.chunkKeyOf(x, y, z), 1, Integer::sum);
+    }
+
+    @Override
+    public boolean contains(int x, int y, int z) {
+        return blocks.containsKey(new Vector3i(x, y, z));
+    }
+
+    @Override
+    public int getId(int x, int y, int z) {
+        final Block block = blocks.get(new Vector3i(x, y, z));
+        return block == null ? EMPTY : block.id;
+    }
+
+    @Override
+    public int getSideId(int x, int y, int z, int side) {
+        final Block block = blocks.get(new Vector3i(x, y, z));
+        return block == null ? EMPTY : block.sideIds[side];
+    }
+
+    @Override
+    public boolean isSideRendered(int x, int y, int z, int side) {
+        final Block block = blocks.get(new Vector3i(x, y, z));
+        return block != null && block.sideRender[side];
+    }
+
+    @Override
+    public void setSideRendered(int x, int y, int z, int side, boolean render) {
+        final Block block = blocks.get(new Vector3i(x, y, z));
+        if (block != null && block.sideRender[side] != render) {
+            block.sideRender[side] = render;
+            touch(x, y, z);
+        }
+    }
+
+    @Override
+    public void put(int x, int y, int z, int id, int[] sideIds) {
+        final Vector3i cord = new Vector3i(x, y, z);
+        blocks.put(cord, new Block(cord, id, sideIds.clone()));
+        touch(x, y, z);
+    }
+
+    @Override
+    public boolean remove(int x, int y, int z) {
+        if (blocks.remove(new Vector3i(x, y, z)) == null) return false;
+        touch(x, y, z);
+        return true;
+    }
+
+    @Override
+    public boolean putUnversioned(int x, int y, int z, int id, int[] sideIds, int faces) {
+        final Vector3i cord = new Vector3i(x, y, z);
+        final Block block = new Block(cord, id, sideIds.clone());
+        for (int side = 0; side < 6; side++) block.sideRender[side] = (faces & (1 << side)) != 0;
+        final Block old = blocks.put(cord, block);
+        chunkVersions.putIfAbsent(BlockStorage.chunkKeyOf(x, y, z), 0);
+        return old == null || old.id != id || !Arrays.equals(old.sideIds, block.sideIds)
+                || !Arrays.equals(old.sideRender, block.sideRender);
+    }
+
+    @Override
+    public boolean removeUnversioned(int x, int y, int z) {
+        return blocks.remove(new Vector3i(x, y, z)) != null;
+    }
+
+    @Override
+    public boolean setFacesUnversioned(int x, int y, int z, int faces) {
+        final Block block = blocks.get(new Vector3i(x, y, z));
+        if (block == null) return false;
+        boolean changed = false;
+        for (int side = 0; side < 6; side++) {
+            final boolean render = (faces & (1 << side)) != 0;
+            changed |= block.sideRender[side] != render;
+            block.sideRender[side] = render;
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean touchChunk(long chunkKey) {
+        return chunkVersions.computeIfPresent(chunkKey, (key, version) -> version + 1) != null;
+    }
+
+    @Override
+    public boolean evictChunk(long chunkKey) {
+        if (chunkVersions.remove(chunkKey) == null) return false;
+        forEachInChunk(chunkKey, (x, y, z, id) -> blocks.remove(new Vector3i(x, y, z)));
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return blocks.size();
+    }
+
+    @Override
+    public void forEachChunk(LongConsumer consumer) {
+        for (Long key : chunkVersions.keySet()) consumer.accept(key);
+    }
+
+    @Override
+    public int getChunkVersion(long chunkKey) {
+        return chunkVersions.getOrDefault(chunkKey, 0);
+    }
+
+    @Override
+    public void forEachInChunk(long chunkKey, BlockVisitor visitor) {
+        final int baseX = BlockStorage.chunkX(chunkKey) << CHUNK_SHIFT;
+        final int baseY = BlockStorage.chunkY(chunkKey) << CHUNK_SHIFT;
+        final int baseZ = BlockStorage.chunkZ(chunkKey) << CHUNK_SHIFT;
+        for (int y = baseY; y < baseY + CHUNK_SIZE; y++) {
+            for (int z = baseZ; z < baseZ + CHUNK_SIZE; z++) {
+                for (int x = baseX; x < baseX + CHUNK_SIZE; x++) {
+                    final Block block = blocks.get(new Vector3i(x, y, z));
+                    if (block != null) visitor.visit(x, y, z, block.id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package engine.storage;
+
+/**
+ * Способ хранения блоков: чанки с упакованными массивами или прежняя ConcurrentHashMap
+ */
+public enum StorageType {
+    CHUNKED, MAP
+}
@@ -0,0 +1,154 @@
+package engine.tick;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Ограниченная очередь команд ввода без блокировок: несколько производителей, один потребитель.
+ * Команда - маска Commands, время создания и направление взгляда. Ячейки выделены заранее,
+ * каждая помечена номером: производитель занимает место сравнением с обменом хвоста,
+ * заполняет ячейку и публикует её номером, потребитель читает ячейки по порядку.
+ * Переполненная очередь не ждёт, а отклоняет команду
+ */
+public class CommandQueue {
+    /**
+     * Получатель команд при разборе очереди
+     */
+    public interface Sink {
+        void accept(long commands, long timestampNanos, float lookX, float lookY, float lookZ);
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequence;
+    private final long[] commands, timestamps;
+    private final float[] looks;
+    private final LongSupplier clock;
+
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Изменяется только потребителем
+     */
+    private volatile long head = 0;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private volatile long drainedCount = 0, totalLatencyNanos = 0, maxLatencyNanos = 0;
+    private volatile int maxDepth = 0;
+
+    /**
+     * @param capacity вместимость, степень двойки
+     * @param clock    часы в наносекундах, те же, что у производителей
+     */
+    public CommandQueue(int capacity, LongSupplier clock) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Вместимость очереди должна быть степенью двойки: " + capacity);
+        mask = capacity - 1;
+        sequence = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequence.set(i, i);
+        commands = new long[capacity];
+        timestamps = new long[capacity];
+        looks = new float[capacity * 3];
+        this.clock = clock;
+    }
+
+    public CommandQueue(int capacity) {
+        this(capacity, System::nanoTime);
+    }
+
+    /**
+     * Добавление команды, можно вызывать из любого потока
+     *
+     * @return false, если очередь заполнена
+     */
+    public boolean offer(long commandMask, long timestampNanos, float lookX, float lookY, float lookZ) {
+        long position = tail.get();
+        while (true) {
+            final long difference = sequence.get((int) position & mask) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if (difference < 0) {
+                rejectedCount.incrementAndGet();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        final int slot = (int) position & mask;
+        commands[slot] = commandMask;
+        timestamps[slot] = timestampNanos;
+        looks[slot * 3] = lookX;
+        looks[slot * 3 + 1] = lookY;
+        looks[slot * 3 + 2] = lookZ;
+        sequence.lazySet(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * Передача всех опубликованных команд получателю в порядке добавления. Только для потока-потребителя
+     *
+     * @return количество команд
+     */
+    public int drain(Sink sink) {
+        final int depth = size();
+        if (depth > maxDepth) maxDepth = depth;
+        long position = head;
+        int count = 0;
+        long latency = 0, maxLatency = maxLatencyNanos;
+        final long now = clock.getAsLong();
+        while (true) {
+            final int slot = (int) position & mask;
+            if (sequence.get(slot) != position + 1) break;
+            final long timestamp = timestamps[slot];
+            sink.accept(commands[slot], timestamp, looks[slot * 3], looks[slot * 3 + 1], looks[slot * 3 + 2]);
+            sequence.lazySet(slot, position + mask + 1);
+            position++;
+            count++;
+            final long age = now - timestamp;
+            latency += age;
+            if (age > maxLatency) maxLatency = age;
+        }
+        head = position;
+        if (count > 0) {
+            drainedCount += count;
+            totalLatencyNanos += latency;
+            maxLatencyNanos = maxLatency;
+        }
+        return count;
+    }
+
+    /**
+     * Текущее количество команд в очереди, приблизительно при параллельной записи
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getDrainedCount() {
+        return drainedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Среднее время от создания команды до её разбора, мс
+     */
+    public float getAverageLatencyMillis() {
+        final long count = drainedCount;
+        return count == 0 ? 0f : totalLatencyNanos / 1e6f / count;
+    }
+
+    public float getMaxLatencyMillis() {
+        return maxLatencyNanos / 1e6f;
+    }
+}
@@ -0,0 +1,120 @@
+package engine.tick;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Планировщик шагов симуляции с фиксированным шагом. Прошедшее время накапливается и расходуется
+ * целыми шагами, поэтому скорость симуляции не зависит от частоты вызовов. Если отставание
+ * больше maxCatchUp шагов, лишние шаги отбрасываются. Не потокобезопасен, кроме чтения метрик
+ */
+public class TickScheduler {
+    private final long stepNanos;
+    private final int maxCatchUp;
+    private final LongSupplier clock;
+
+    /**
+     * Время начала следующего шага по часам clock
+     */
+    private long nextTick;
+    private boolean started = false;
+
+    private volatile long tickCount = 0, overrunCount = 0, droppedCount = 0;
+    private volatile long totalTickNanos = 0, maxTickNanos = 0, lastTickNanos = 0;
+
+    /**
+     * @param stepNanos  длительность шага, нс
+     * @param maxCatchUp наибольшее количество шагов за один вызов advance
+     * @param clock      часы в наносекундах
+     */
+    public TickScheduler(long stepNanos, int maxCatchUp, LongSupplier clock) {
+        if (stepNanos <= 0 || maxCatchUp <= 0) throw new IllegalArgumentException("Шаг и догон должны быть положительны");
+        this.stepNanos = stepNanos;
+        this.maxCatchUp = maxCatchUp;
+        this.clock = clock;
+    }
+
+    public TickScheduler(int ticksPerSecond, int maxCatchUp) {
+        this(1_000_000_000L / ticksPerSecond, maxCatchUp, System::nanoTime);
+    }
+
+    /**
+     * Выполнение всех наступивших шагов. Первый вызов только запоминает время
+     *
+     * @return количество выполненных шагов
+     */
+    public int advance(Runnable tick) {
+        long now = clock.getAsLong();
+        if (!started) {
+            started = true;
+            nextTick = now + stepNanos;
+            return 0;
+        }
+        int done = 0;
+        while (now - nextTick >= 0) {
+            if (done == maxCatchUp) {
+                final long behind = (now - nextTick) / stepNanos + 1;
+                droppedCount += behind;
+                nextTick += behind * stepNanos;
+                break;
+            }
+            final long start = clock.getAsLong();
+            tick.run();
+            now = clock.getAsLong();
+            record(now - start);
+            nextTick += stepNanos;
+            done++;
+        }
+        return done;
+    }
+
+    private void record(long nanos) {
+        lastTickNanos = nanos;
+        totalTickNanos += nanos;
+        if (nanos > maxTickNanos) maxTickNanos = nanos;
+        if (nanos > stepNanos) overrunCount++;
+        tickCount++;
+    }
+
+    /**
+     * Время до начала следующего шага, нс (0, если шаг уже наступил)
+     */
+    public long nanosUntilNextTick() {
+        if (!started) return 0;
+        return Math.max(0, nextTick - clock.getAsLong());
+    }
+
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Количество шагов, выполнявшихся дольше длительности шага
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * Количество шагов, пропущенных из-за отставания больше maxCatchUp
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public float getAverageTickMillis() {
+        final long count = tickCount;
+        return count == 0 ? 0f : totalTickNanos / 1e6f / count;
+    }
+
+    public float getMaxTickMillis() {
+        return maxTickNanos / 1e6f;
+    }
+
+    public float getLastTickMillis() {
+        return lastTickNanos / 1e6f;
+    }
+}
@@ -0,0 +1,67 @@
+package engine.tick;
+
+import engine.entities.LightPoint;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Неизменяемый снимок состояния симуляции после шага. Отрисовка показывает мир на шаг позади
+ * и интерполирует положение камеры между предыдущим и текущим шагом
+ */
+public final class WorldState {
+    /**
+     * Номер шага, после которого сделан снимок
+     */
+    public final long tick;
+    /**
+     * Время публикации снимка по System.nanoTime
+     */
+    public final long publishedNanos;
+    public final long stepNanos;
+    /**
+     * Копии источников света на момент шага
+     */
+    public final List<LightPoint> lights;
+
+    private final float previousX, previousY, previousZ;
+    private final float currentX, currentY, currentZ;
+
+    public WorldState(long tick, long publishedNanos, long stepNanos, Vector3f previousCamera, Vector3f currentCamera,
+                      Collection<LightPoint> lights) {
+        this.tick = tick;
+        this.publishedNanos = publishedNanos;
+        this.stepNanos = stepNanos;
+        previousX = previousCamera.x;
+        previousY = previousCamera.y;
+        previousZ = previousCamera.z;
+        currentX = currentCamera.x;
+        currentY = currentCamera.y;
+        currentZ = currentCamera.z;
+        final List<LightPoint> copies = new ArrayList<>(lights.size());
+        for (LightPoint light : lights) copies.add(new LightPoint(new Vector3f(light.cord), new Vector4f(light.color)));
+        this.lights = Collections.unmodifiableList(copies);
+    }
+
+    /**
+     * Доля шага, прошедшая с публикации снимка, от 0 до 1
+     */
+    public float alpha(long nowNanos) {
+        final float alpha = (float) (nowNanos - publishedNanos) / stepNanos;
+        return Math.max(0f, Math.min(1f, alpha));
+    }
+
+    /**
+     * Положение камеры между предыдущим (alpha = 0) и текущим (alpha = 1) шагом
+     */
+    public Vector3f cameraPosition(float alpha, Vector3f dest) {
+        return dest.set(
+                previousX + (currentX - previousX) * alpha,
+                previousY + (currentY - previousY) * alpha,
+                previousZ + (currentZ - previousZ) * alpha);
+    }
+}
@@ -4,7 +4,12 @@ import controller.Controller;
 import controller.Mode;
 import engine.Engine;
 import engine.entities.MirrorGlass;
+import engine.tick.WorldState;
+import graphics.translateObjects.ChunkSubmission;
 import graphics.translateObjects.DataTranslation;
+import graphics.translateObjects.LodPolicy;
+import graphics.translateObjects.MeshingMode;
+import graphics.translateObjects.VertexFormat;
 import org.joml.Vector3f;
 import org.lwjgl.Version;
 import org.lwjgl.glfw.GLFWErrorCallback;
@@ -34,13 +39,28 @@ public class Display {
     private final String name;
     private long window;
     private double frames, lastTime;
+    private long lastUploadedBytes;
     private float ambLight;
+    /**
+     * Количество дополнительных окон в верхней части экрана, каждое - отдельный проход графа кадра
+     */
+    private int secondaryWindows = 1;
+    /**
+     * Формат вершин чанков. Packed втрое компактнее, но вмещает только чанки в пределах
+     * VertexFormat.PACKED_CHUNK_MIN..PACKED_CHUNK_MAX, более далёкие не рисуются
+     */
+    private VertexFormat vertexFormat = VertexFormat.Full;
 
-    private void printRenderTime() {
+    private void printRenderTime(DataTranslation dataTranslation, FrameGraph frameGraph) {
         frames++;
         final double currentTime = glfwGetTime();
         if (currentTime - lastTime > 2.0) {
-            System.out.println("gui \t" + frames / 2.0);
+            final long uploadedBytes = dataTranslation.getUploadedBytes();
+            System.out.println("gui \t" + frames / 2.0 + "\tupload \t" + (long) ((uploadedBytes - lastUploadedBytes) / frames) + " B/frame"
+                    + "\tgeometry \t" + dataTranslation.getGeometryBytes() / 1024 + " KB\toutline saved \t" + dataTranslation.getOutlineBytesSaved() / 1024 + " KB"
+                    + "\t" + dataTranslation.getArenaReport() + "\t" + dataTranslation.getLodReport() + "\t" + frameGraph.report()
+                    + "\tmeshing failures \t" + dataTranslation.getMeshingFailures());
+            lastUploadedBytes = uploadedBytes;
             lastTime = currentTime;
             frames = 0;
         }
@@ -68,6 +88,21 @@ public class Display {
         this.controller = controller;
     }
 
+    /**
+     * Задаётся до run, от 0 до 4 окон
+     */
+    public void setSecondaryWindows(int secondaryWindows) {
+        if (secondaryWindows < 0 || secondaryWindows > 4) throw new IllegalArgumentException("Окон может быть от 0 до 4");
+        this.secondaryWindows = secondaryWindows;
+    }
+
+    /**
+     * Задаётся до run, по умолчанию Full. Packed - только для мира в пределах ±8192 блоков по каждой оси
+     */
+    public void setVertexFormat(VertexFormat vertexFormat) {
+        this.vertexFormat = vertexFormat;
+    }
+
     public void run() {
         System.out.println("GraphicsDisplay has launched with LWJGL " + Version.getVersion());
 
@@ -156,8 +191,11 @@ public class Display {
         glEnable(GL_STENCIL_TEST);
         glStencilOp(GL_KEEP, GL_KEEP, GL_REPLACE);
 
-        final Shader shaderG = new Shader("vertexShader", "fragmentShader", "geometryShader");
-        final Shader mirrorShader = new Shader("vertexShader", "mirrorFragmentShader", "geometryShader");
+        final DataTranslation dataTranslation = new DataTranslation(engine, MeshingMode.Simple, vertexFormat, ChunkSubmission.Indirect);
+        final String vertexShader = dataTranslation.getVertexShader();
+
+        final Shader shaderG = new Shader(vertexShader, "fragmentShader", "geometryShader");
+        final Shader mirrorShader = new Shader(vertexShader, "mirrorFragmentShader", "geometryShader");
 
         final Texture textureMap = new Texture("texturePack.png", 0, 4096, 4096);
         textureMap.texUnit(shaderG, "tex0");
@@ -167,89 +205,62 @@ public class Display {
         reflectMap.texUnit(shaderG, "tex1");
         reflectMap.texUnit(mirrorShader, "tex1");
 
-        final DataTranslation dataTranslation = new DataTranslation(engine);
 
         final FrameBuffer mainFrame = new FrameBuffer(
                 new Shader("frameVertexShader", "frameFragmentShader"),
                 2, width, height, getSubWindowVertices(0f, 0f, 1f, 1f));
-        final FrameBuffer secondaryFrameUR = new FrameBuffer(
-                new Shader("frameVertexShader", "testFrameFragmentShader"),
-                3, width, height, getSubWindowVertices(0.75f, 0.75f, 0.25f, 0.25f));
 
 
         MirrorGlass mirrorGlass = engine.mirrors.toArray(new MirrorGlass[1])[0];
         Mirror mirror = new Mirror(
-                new Shader("vertexShader", "fragmentShader", "mirrorRenderGeometryShader"),
+                new Shader(vertexShader, "fragmentShader", "mirrorRenderGeometryShader"),
                 4,
                 camera,
                 mirrorGlass,
                 width,
                 height);
 
+        // геометрия загружается графом один раз за кадр, проходы только рисуют её
+        final FrameGraph frameGraph = new FrameGraph(dataTranslation, RenderingType.Texture)
+                .addTexture(textureMap)
+                .addTexture(reflectMap);
+        // дальние чанки строятся огрублёнными, уровень выбирается от основной камеры
+        dataTranslation.setLodPolicy(new LodPolicy(8, 96, 192, 384));
+        frameGraph.setLodCamera(camera);
+        frameGraph.setTriangleBudget(2_000_000);
+        frameGraph.addPass(new RenderPass("mirror", mirror.camera, mirror.shader, mirror, 0.2f, 0.3f, 0.5f, shader -> {
+            glUniform1i(glGetUniformLocation(shader.getId(), "side"), mirror.getTVal(camera));
+            Vector3f normal = mirror.getNormal();
+            glUniform3f(glGetUniformLocation(shader.getId(), "mirrorNormal"), normal.x, normal.y, normal.z);
+            glUniform1f(glGetUniformLocation(shader.getId(), "mirrorDot"), mirror.val);
+        }));
+        final RenderPass mainPass = new RenderPass("main", camera, mirrorShader, mainFrame.subWindow(), 0.2f, 0.3f, 0.5f,
+                shader -> glUniform1i(glGetUniformLocation(shader.getId(), "mirrorTex"), 4));
+        mainPass.setOcclusionCulling(true);
+        frameGraph.addPass(mainPass);
+        for (int i = 0; i < secondaryWindows; i++) {
+            final FrameBuffer secondaryFrame = new FrameBuffer(
+                    new Shader("frameVertexShader", "testFrameFragmentShader"),
+                    i == 0 ? 3 : 4 + i, width, height, getSubWindowVertices(0.75f - 0.5f * i, 0.75f, 0.25f, 0.25f));
+            frameGraph.addPass(new RenderPass("secondary" + i, mirror.camera, shaderG, secondaryFrame.subWindow(), 0.7f, 0.7f, 0.7f));
+        }
+
+        final Vector3f cameraPosition = new Vector3f();
         while (!glfwWindowShouldClose(window) && controller.status == Mode.RUNNING) {
             controller.handleInput(window);
+            // камера ставится между двумя последними шагами симуляции
+            final WorldState state = engine.getState();
+            camera.setPos(state.cameraPosition(state.alpha(System.nanoTime()), cameraPosition));
 
-            mirror.render(camera, () -> {
-                Shader shader = mirror.shader;
-
-                glClearColor(0.2f, 0.3f, 0.5f, 1.0f);
-                glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT); // clear the framebuffer
-                textureMap.bind();
-                reflectMap.bind();
-
-                dataTranslation.update(RenderingType.Texture);
-                shader.activate();
-                shader.transferCamera(mirror.camera);
-                glUniform1i(glGetUniformLocation(shader.getId(), "side"), mirror.getTVal(camera));
-                Vector3f normal = mirror.getNormal();
-                glUniform3f(glGetUniformLocation(shader.getId(), "mirrorNormal"), normal.x, normal.y, normal.z);
-                glUniform1f(glGetUniformLocation(shader.getId(), "mirrorDot"), mirror.val);
-                shader.translateLightPoints(engine.lightPoints);
-                shader.translate1f("ambient", 0.4f);
-                dataTranslation.setupVAO();
-
-                glDrawElements(GL_TRIANGLES, dataTranslation.indicesSize(RenderingType.Texture), GL_UNSIGNED_INT, 0);
-            });
-
-
-            mainFrame.renderSubWindow(() -> {
-                glClearColor(0.2f, 0.3f, 0.5f, 1.0f);
-                glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT); // clear the framebuffer
-                textureMap.bind();
-                reflectMap.bind();
-
-                dataTranslation.update(RenderingType.Texture);
-                mirrorShader.activate();
-                glUniform1i(glGetUniformLocation(mirrorShader.getId(), "mirrorTex"), 4);
-                mirrorShader.transferCamera(camera);
-                mirrorShader.translateLightPoints(engine.lightPoints);
-                mirrorShader.translate1f("ambient", 0.4f);
-                dataTranslation.setupVAO();
-
-                glDrawElements(GL_TRIANGLES, dataTranslation.indicesSize(RenderingType.Texture), GL_UNSIGNED_INT, 0);
-            });
-
-            secondaryFrameUR.renderSubWindow(() -> {
-                glClearColor(0.7f, 0.7f, 0.7f, 1.0f);
-                glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT); // clear the framebuffer
-                textureMap.bind();
-                reflectMap.bind();
-
-                dataTranslation.update(RenderingType.Texture);
-                shaderG.activate();
-                shaderG.transferCamera(mirror.camera);
-                shaderG.translateLightPoints(engine.lightPoints);
-                shaderG.translate1f("ambient", 0.4f);
-                dataTranslation.setupVAO();
-
-                glDrawElements(GL_TRIANGLES, dataTranslation.indicesSize(RenderingType.Texture), GL_UNSIGNED_INT, 0);
-            });
+            frameGraph.execute(state.lights);
 
             glfwSwapBuffers(window);
             glfwPollEvents();
-            //printRenderTime();
+            //printRenderTime(dataTranslation, frameGraph);
         }
 
+        System.out.println(frameGraph.report());
+        frameGraph.delete();
         dataTranslation.destroy();
         textureMap.delete();
         reflectMap.delete();
@@ -89,6 +89,24 @@ public class FrameBuffer {
         render();
     }
 
+    /**
+     * Цель прохода, результат которого сразу выводится на экран, как в renderSubWindow
+     */
+    public RenderTarget subWindow() {
+        return new RenderTarget() {
+            @Override
+            public void begin() {
+                hookOutput();
+            }
+
+            @Override
+            public void end() {
+                releaseOutput();
+                render();
+            }
+        };
+    }
+
     public void renderSubFrame(Runnable runnable){
         hookOutput();
         runnable.run();
@@ -0,0 +1,168 @@
+package graphics;
+
+import engine.entities.LightPoint;
+import graphics.translateObjects.DataTranslation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Граф кадра: геометрия сцены строится и загружается один раз, затем проходы выполняются по
+ * порядку добавления и рисуют одни и те же буферы. Проходы можно добавлять, убирать и выключать,
+ * загрузка от их количества не зависит
+ */
+public class FrameGraph {
+    private final DataTranslation geometry;
+    private final RenderingType renderingType;
+    private final List<Texture> textures = new ArrayList<>();
+    private final List<RenderPass> passes = new ArrayList<>();
+    private float ambient = 0.4f;
+    /**
+     * Камера, от которой выбираются уровни детализации чанков, null - без уровней детализации
+     */
+    private Camera lodCamera;
+    /**
+     * Допустимое количество треугольников чанков за кадр по всем проходам, 0 - без ограничения
+     */
+    private long triangleBudget = 0;
+
+    private int queryFrame = 0;
+    private long frames = 0, totalUploadNanos = 0, lastUploadNanos = 0;
+    private long lastTriangles = 0, totalTriangles = 0, overBudgetFrames = 0;
+
+    public FrameGraph(DataTranslation geometry, RenderingType renderingType) {
+        this.geometry = geometry;
+        this.renderingType = renderingType;
+    }
+
+    /**
+     * Текстура, привязываемая перед каждым проходом
+     */
+    public FrameGraph addTexture(Texture texture) {
+        textures.add(texture);
+        return this;
+    }
+
+    public FrameGraph addPass(RenderPass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public boolean removePass(RenderPass pass) {
+        if (!passes.remove(pass)) return false;
+        pass.delete();
+        return true;
+    }
+
+    public List<RenderPass> getPasses() {
+        return Collections.unmodifiableList(passes);
+    }
+
+    public void setAmbient(float ambient) {
+        this.ambient = ambient;
+    }
+
+    public void setLodCamera(Camera lodCamera) {
+        this.lodCamera = lodCamera;
+    }
+
+    public void setTriangleBudget(long triangleBudget) {
+        this.triangleBudget = triangleBudget;
+    }
+
+    /**
+     * Кадр: обновление геометрии и все включённые проходы
+     *
+     * @param lights источники света кадра
+     */
+    public void execute(Collection<LightPoint> lights) {
+        final long uploadStart = System.nanoTime();
+        if (lodCamera != null) geometry.update(renderingType, lodCamera.position);
+        else geometry.update(renderingType);
+        lastUploadNanos = System.nanoTime() - uploadStart;
+        totalUploadNanos += lastUploadNanos;
+        frames++;
+
+        long triangles = 0;
+        for (RenderPass pass : passes) {
+            if (!pass.isEnabled()) continue;
+            final long start = System.nanoTime();
+            pass.beginGpuTimer(queryFrame);
+            pass.target.begin();
+            pass.clear();
+            for (Texture texture : textures) texture.bind();
+
+            final Shader shader = pass.shader;
+            shader.activate();
+            shader.transferCamera(pass.camera);
+            shader.translateLightPoints(lights);
+            shader.translate1f("ambient", ambient);
+            pass.applySetup();
+            // матрица камеры посчитана в transferCamera, по ней отбираются чанки этого прохода
+            if (pass.isOcclusionCulling()) geometry.cull(pass.camera.matrix4f, pass.camera.position, pass.visible);
+            else geometry.cull(pass.camera.matrix4f, pass.visible);
+            geometry.draw(shader, renderingType, pass.visible);
+
+            pass.target.end();
+            pass.endGpuTimer(queryFrame);
+            pass.recordCpu(System.nanoTime() - start);
+            triangles += pass.visible.getDrawnIndices() / 3;
+        }
+        lastTriangles = triangles;
+        totalTriangles += triangles;
+        if (triangleBudget > 0 && triangles > triangleBudget) overBudgetFrames++;
+
+        // результаты запросов самого старого кадра кольца к этому времени обычно готовы
+        queryFrame = (queryFrame + 1) % RenderPass.QUERY_FRAMES;
+        for (RenderPass pass : passes) pass.collectGpuTimer(queryFrame);
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public float getLastUploadMillis() {
+        return lastUploadNanos / 1e6f;
+    }
+
+    /**
+     * @return треугольников чанков, нарисованных всеми проходами последнего кадра
+     */
+    public long getLastTriangles() {
+        return lastTriangles;
+    }
+
+    public long getOverBudgetFrames() {
+        return overBudgetFrames;
+    }
+
+    public float getAverageUploadMillis() {
+        return frames == 0 ? 0f : totalUploadNanos / 1e6f / frames;
+    }
+
+    /**
+     * Строка со средним временем загрузки, треугольниками за кадр и временем каждого прохода
+     */
+    public String report() {
+        final StringBuilder builder = new StringBuilder("upload ").append(getAverageUploadMillis()).append(" ms")
+                .append("\ttriangles ").append(frames == 0 ? 0 : totalTriangles / frames).append(" per frame");
+        if (triangleBudget > 0)
+            builder.append(" budget ").append(triangleBudget).append(" exceeded in ").append(overBudgetFrames).append(" frames");
+        for (RenderPass pass : passes) {
+            builder.append('\t').append(pass.name).append(pass.isEnabled() ? "" : " (off)")
+                    .append(" cpu ").append(pass.getAverageCpuMillis())
+                    .append(" ms gpu ").append(pass.getAverageGpuMillis()).append(" ms")
+                    .append(" chunks ").append(pass.visible.getDrawnChunks())
+                    .append(" drawn ").append(pass.visible.getCulledChunks()).append(" culled ")
+                    .append(pass.visible.getOccludedChunks()).append(" occluded ")
+                    .append(pass.visible.getDrawnIndices() / 3).append(" triangles");
+        }
+        return builder.toString();
+    }
+
+    public void delete() {
+        for (RenderPass pass : passes) pass.delete();
+    }
+}
@@ -5,11 +5,12 @@ import org.joml.Vector3f;
 
 import static graphics.Display.getSubWindowVertices;
 
-public class Mirror {
+public class Mirror implements RenderTarget {
     public final Camera camera;
     private final FrameBuffer frameBuffer;
     public final Shader shader;
     private final MirrorGlass mirrorGlass;
+    private final Camera mainCamera;
 
     private final int slot;
     public final float val;
@@ -21,6 +22,7 @@ public class Mirror {
         this.camera = new Camera(1900, 1000, mirrorCameraPos, mirrorCameraVec);
         this.shader = shader;
         this.mirrorGlass = mirrorGlass;
+        this.mainCamera = mainCamera;
         mirrorGlass.mirror = this;
         this.slot = slot;
         this.val = -getCenter().dot(getNormal());
@@ -50,4 +52,19 @@ public class Mirror {
         updateCamera(mainCamera);
         frameBuffer.renderSubFrame(runnable);
     }
+
+    /**
+     * Проход в текстуру зеркала: камера зеркала следует за основной камерой
+     */
+    @Override
+    public void begin() {
+        updateCamera(mainCamera);
+        frameBuffer.hookOutput();
+    }
+
+    @Override
+    public void end() {
+        frameBuffer.releaseOutput();
+        frameBuffer.enableFrameTexture();
+    }
 }
@@ -0,0 +1,142 @@
+package graphics;
+
+import graphics.translateObjects.VisibleSet;
+
+import static org.lwjgl.opengl.GL46.*;
+
+/**
+ * Проход отрисовки графа кадра: камера, шейдер, цель и цвет очистки. Геометрию проход не
+ * обновляет, она загружается графом один раз на кадр. Хранит своё время CPU и GPU
+ */
+public class RenderPass {
+    /**
+     * Дополнительные uniform прохода, задаются после камеры и источников света
+     */
+    public interface Setup {
+        void apply(Shader shader);
+    }
+
+    /**
+     * Количество кадров, в течение которых ждут результаты запросов времени GPU
+     */
+    static final int QUERY_FRAMES = 3;
+
+    public final String name;
+    public final Camera camera;
+    public final Shader shader;
+    public final RenderTarget target;
+    /**
+     * Чанки, видимые камерой прохода в последнем кадре
+     */
+    public final VisibleSet visible = new VisibleSet();
+    private final float red, green, blue;
+    private final Setup setup;
+    private boolean enabled = true;
+    /**
+     * Отбор перекрытых чанков от положения камеры. Не подходит камере зеркала: она стоит за
+     * плоскостью отражения, и блоки между ней и зеркалом отсекаются шейдером, а не закрывают вид
+     */
+    private boolean occlusionCulling = false;
+
+    private int[] queries;
+    private final boolean[] issued = new boolean[QUERY_FRAMES];
+
+    private long frames = 0, totalCpuNanos = 0, lastCpuNanos = 0;
+    private long gpuFrames = 0, totalGpuNanos = 0, lastGpuNanos = 0;
+
+    public RenderPass(String name, Camera camera, Shader shader, RenderTarget target,
+                      float red, float green, float blue, Setup setup) {
+        this.name = name;
+        this.camera = camera;
+        this.shader = shader;
+        this.target = target;
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        this.setup = setup;
+    }
+
+    public RenderPass(String name, Camera camera, Shader shader, RenderTarget target, float red, float green, float blue) {
+        this(name, camera, shader, target, red, green, blue, null);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isOcclusionCulling() {
+        return occlusionCulling;
+    }
+
+    public void setOcclusionCulling(boolean occlusionCulling) {
+        this.occlusionCulling = occlusionCulling;
+    }
+
+    void clear() {
+        glClearColor(red, green, blue, 1.0f);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
+    }
+
+    void applySetup() {
+        if (setup != null) setup.apply(shader);
+    }
+
+    void beginGpuTimer(int frame) {
+        if (queries == null) {
+            queries = new int[QUERY_FRAMES];
+            glGenQueries(queries);
+        }
+        glBeginQuery(GL_TIME_ELAPSED, queries[frame]);
+    }
+
+    void endGpuTimer(int frame) {
+        glEndQuery(GL_TIME_ELAPSED);
+        issued[frame] = true;
+    }
+
+    /**
+     * Чтение времени GPU запроса кадра frame, если результат готов (без ожидания GPU)
+     */
+    void collectGpuTimer(int frame) {
+        if (!issued[frame] || glGetQueryObjecti(queries[frame], GL_QUERY_RESULT_AVAILABLE) == GL_FALSE) return;
+        issued[frame] = false;
+        lastGpuNanos = glGetQueryObjecti64(queries[frame], GL_QUERY_RESULT);
+        totalGpuNanos += lastGpuNanos;
+        gpuFrames++;
+    }
+
+    void recordCpu(long nanos) {
+        lastCpuNanos = nanos;
+        totalCpuNanos += nanos;
+        frames++;
+    }
+
+    void delete() {
+        if (queries != null) glDeleteQueries(queries);
+        queries = null;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public float getLastCpuMillis() {
+        return lastCpuNanos / 1e6f;
+    }
+
+    public float getAverageCpuMillis() {
+        return frames == 0 ? 0f : totalCpuNanos / 1e6f / frames;
+    }
+
+    public float getLastGpuMillis() {
+        return lastGpuNanos / 1e6f;
+    }
+
+    public float getAverageGpuMillis() {
+        return gpuFrames == 0 ? 0f : totalGpuNanos / 1e6f / gpuFrames;
+    }
+}
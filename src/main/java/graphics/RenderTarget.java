@@ -0,0 +1,10 @@
+package graphics;
+
+/**
+ * Цель прохода отрисовки: что привязать перед проходом и что сделать с результатом после
+ */
+public interface RenderTarget {
+    void begin();
+
+    void end();
+}
@@ -6,8 +6,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.IntBuffer;
 import java.nio.file.Files;
+import java.util.Collection;
 import java.util.Objects;
-import java.util.Set;
 
 import static org.lwjgl.opengl.GL46.*;
 import static org.lwjgl.opengl.GL46.glDeleteProgram;
@@ -110,7 +110,7 @@ public class Shader {
         glUniform3fv(camPos, new float[]{camera.position.x, camera.position.y, camera.position.z});
     }
 
-    protected void translateLightPoints(Set<LightPoint> lightPoints) {
+    protected void translateLightPoints(Collection<LightPoint> lightPoints) {
         int lightSize = glGetUniformLocation(getId(), "lightSize");
         int lightColor = glGetUniformLocation(getId(), "lightColor");
         int lightPos = glGetUniformLocation(getId(), "lightPos");
@@ -0,0 +1,193 @@
+package graphics.translateObjects;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Распределитель участков одного большого буфера (арены) в условных единицах (вершинах, индексах).
+ * Участок выдаётся по дескриптору, его смещение читается через getOffset, поэтому при уплотнении
+ * владельцам не нужно ничего обновлять. Свободные участки хранятся списком по смещению, соседние
+ * сливаются при освобождении, выделение - первый подходящий участок. Без OpenGL
+ */
+public class ArenaAllocator {
+    /**
+     * Перенос участка при уплотнении, вызывается для каждого занятого участка по возрастанию смещения
+     */
+    public interface Mover {
+        void move(int from, int to, int length);
+    }
+
+    private int capacity;
+    /**
+     * Свободные участки: смещение -> длина
+     */
+    private final TreeMap<Integer, Integer> free = new TreeMap<>();
+
+    private int[] offsets = new int[64], lengths = new int[64];
+    private int[] releasedHandles = new int[16];
+    private int handleCount = 0, releasedCount = 0;
+
+    private int used = 0, liveCount = 0;
+    private long compactions = 0, movedUnits = 0;
+
+    public ArenaAllocator(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Ёмкость арены должна быть положительной: " + capacity);
+        this.capacity = capacity;
+        free.put(0, capacity);
+    }
+
+    /**
+     * Выделение участка
+     *
+     * @return дескриптор участка или -1, если подходящего свободного участка нет
+     */
+    public int allocate(int length) {
+        if (length <= 0) throw new IllegalArgumentException("Длина участка должна быть положительной: " + length);
+        for (Map.Entry<Integer, Integer> entry : free.entrySet()) {
+            final int offset = entry.getKey(), size = entry.getValue();
+            if (size < length) continue;
+            free.remove(offset);
+            if (size > length) free.put(offset + length, size - length);
+            used += length;
+            liveCount++;
+            return newHandle(offset, length);
+        }
+        return -1;
+    }
+
+    /**
+     * Выделение с уплотнением арены, если подходящего участка нет. Арена, заполненная больше чем
+     * на три четверти, при этом растёт в полтора раза
+     *
+     * @return дескриптор участка
+     */
+    public int allocate(int length, Mover mover) {
+        final int handle = allocate(length);
+        if (handle >= 0) return handle;
+        final int required = used + length;
+        final int newCapacity = required > capacity / 4 * 3 ? Math.max(required, capacity + (capacity >> 1)) : capacity;
+        compact(newCapacity, mover);
+        return allocate(length);
+    }
+
+    private int newHandle(int offset, int length) {
+        final int handle;
+        if (releasedCount > 0) {
+            handle = releasedHandles[--releasedCount];
+        } else {
+            if (handleCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, handleCount * 2);
+                lengths = Arrays.copyOf(lengths, handleCount * 2);
+            }
+            handle = handleCount++;
+        }
+        offsets[handle] = offset;
+        lengths[handle] = length;
+        return handle;
+    }
+
+    /**
+     * Освобождение участка со слиянием с соседними свободными
+     */
+    public void free(int handle) {
+        if (handle < 0 || handle >= handleCount || lengths[handle] == 0)
+            throw new IllegalArgumentException("Неизвестный участок арены: " + handle);
+        int offset = offsets[handle], length = lengths[handle];
+        used -= length;
+        liveCount--;
+        lengths[handle] = 0;
+        if (releasedCount == releasedHandles.length) releasedHandles = Arrays.copyOf(releasedHandles, releasedCount * 2);
+        releasedHandles[releasedCount++] = handle;
+
+        final Map.Entry<Integer, Integer> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            free.remove(before.getKey());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+        final Integer after = free.get(offset + length);
+        if (after != null) {
+            free.remove(offset + length);
+            length += after;
+        }
+        free.put(offset, length);
+    }
+
+    /**
+     * Сдвиг всех занятых участков к началу арены в порядке смещения и увеличение ёмкости до newCapacity.
+     * После уплотнения свободен один участок в конце
+     *
+     * @param newCapacity новая ёмкость, не меньше занятого объёма
+     * @param mover       перенос данных участка, вызывается и для участков, оставшихся на месте
+     */
+    public void compact(int newCapacity, Mover mover) {
+        if (newCapacity < used) throw new IllegalArgumentException("Ёмкость " + newCapacity + " меньше занятого " + used);
+        final Integer[] live = new Integer[liveCount];
+        int count = 0;
+        for (int handle = 0; handle < handleCount; handle++) {
+            if (lengths[handle] > 0) live[count++] = handle;
+        }
+        Arrays.sort(live, (a, b) -> Integer.compare(offsets[a], offsets[b]));
+        int next = 0;
+        for (Integer handle : live) {
+            mover.move(offsets[handle], next, lengths[handle]);
+            if (offsets[handle] != next) movedUnits += lengths[handle];
+            offsets[handle] = next;
+            next += lengths[handle];
+        }
+        capacity = newCapacity;
+        free.clear();
+        if (next < capacity) free.put(next, capacity - next);
+        compactions++;
+    }
+
+    public int getOffset(int handle) {
+        return offsets[handle];
+    }
+
+    public int getLength(int handle) {
+        return lengths[handle];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getUsed() {
+        return used;
+    }
+
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    /**
+     * Количество свободных участков
+     */
+    public int getFreeBlocks() {
+        return free.size();
+    }
+
+    public int getLargestFree() {
+        int largest = 0;
+        for (int size : free.values()) largest = Math.max(largest, size);
+        return largest;
+    }
+
+    /**
+     * Доля свободного места вне наибольшего свободного участка, от 0 до 1
+     */
+    public float getFragmentation() {
+        final int freeUnits = capacity - used;
+        return freeUnits == 0 ? 0f : 1f - (float) getLargestFree() / freeUnits;
+    }
+
+    public long getCompactions() {
+        return compactions;
+    }
+
+    public long getMovedUnits() {
+        return movedUnits;
+    }
+}
@@ -0,0 +1,80 @@
+package graphics.translateObjects;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL46.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Буфер OpenGL, участки которого раздаёт ArenaAllocator. Данные пишутся и переносятся через
+ * GL_COPY_READ_BUFFER и GL_COPY_WRITE_BUFFER, поэтому привязки VAO не затрагиваются, а id буфера
+ * не меняется и после уплотнения
+ */
+class ArenaBuffer {
+    final int id;
+    final ArenaAllocator allocator;
+    /**
+     * Байт в единице арены
+     */
+    private final int unitBytes;
+    private IntBuffer scratch = memAllocInt(1024);
+    private long movedBytes = 0;
+
+    ArenaBuffer(int capacity, int unitBytes) {
+        this.unitBytes = unitBytes;
+        allocator = new ArenaAllocator(capacity);
+        id = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, id);
+        glBufferData(GL_COPY_WRITE_BUFFER, (long) capacity * unitBytes, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    /**
+     * Выделение участка. При нехватке места арена уплотняется и при необходимости растёт: занятые
+     * участки плотно копируются во временный буфер, хранилище арены пересоздаётся с новой ёмкостью
+     * и данные возвращаются одним копированием
+     */
+    int allocate(int length) {
+        final int handle = allocator.allocate(length);
+        if (handle >= 0) return handle;
+
+        final long usedBytes = (long) allocator.getUsed() * unitBytes;
+        final int temporary = glGenBuffers();
+        glBindBuffer(GL_COPY_READ_BUFFER, id);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, temporary);
+        glBufferData(GL_COPY_WRITE_BUFFER, Math.max(usedBytes, unitBytes), GL_STREAM_COPY);
+        final int compacted = allocator.allocate(length, (from, to, count) -> glCopyBufferSubData(
+                GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) from * unitBytes, (long) to * unitBytes, (long) count * unitBytes));
+
+        glBindBuffer(GL_COPY_READ_BUFFER, temporary);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, id);
+        glBufferData(GL_COPY_WRITE_BUFFER, (long) allocator.getCapacity() * unitBytes, GL_DYNAMIC_DRAW);
+        if (usedBytes > 0) glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, usedBytes);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        glDeleteBuffers(temporary);
+        movedBytes += usedBytes;
+        return compacted;
+    }
+
+    /**
+     * Запись length значений data в участок handle
+     */
+    void upload(int handle, int[] data, int length) {
+        if (scratch.capacity() < length) scratch = memRealloc(scratch.clear(), Math.max(length, scratch.capacity() * 2));
+        scratch.clear();
+        scratch.put(data, 0, length).flip();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, id);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) allocator.getOffset(handle) * unitBytes, scratch);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    long getMovedBytes() {
+        return movedBytes;
+    }
+
+    void delete() {
+        memFree(scratch);
+        glDeleteBuffers(id);
+    }
+}
@@ -0,0 +1,9 @@
+package graphics.translateObjects;
+
+/**
+ * Способ обновления VBO и EBO: пересоздание хранилища через glBufferData при каждом обновлении
+ * или однократное выделение хранилища и запись только изменённых диапазонов через glBufferSubData
+ */
+public enum BufferUpdateMode {
+    Orphan, SubRange
+}
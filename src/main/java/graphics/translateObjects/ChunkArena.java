@@ -0,0 +1,183 @@
+package graphics.translateObjects;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL46.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Сетки чанков в двух аренах (вершины и индексы) с общим VAO. У каждого чанка свой участок,
+ * поэтому перестроенный чанк перезаписывает только свой участок, а индексы остаются локальными
+ * для чанка: смещение вершин передаётся в команде как baseVertex. Проход рисуется одним
+ * glMultiDrawElementsIndirect по буферу команд DrawElementsIndirectCommand
+ */
+class ChunkArena {
+    /**
+     * Размер DrawElementsIndirectCommand: count, instanceCount, firstIndex, baseVertex, baseInstance
+     */
+    private static final int COMMAND_INTS = 5;
+
+    private final VertexFormat format;
+    private final ArenaBuffer vertices, indices;
+    private final VAO vertexArrayObject;
+
+    private final int commandBuffer;
+    /**
+     * Ёмкость буфера команд и количество команд, записанных в текущем кадре
+     */
+    private int commandCapacity = 256, commandCursor = 0;
+    private IntBuffer commands = memAllocInt(256 * COMMAND_INTS);
+    private long uploadedBytes = 0;
+
+    ChunkArena(VertexFormat format, int vertexCapacity, int indexCapacity) {
+        this.format = format;
+        vertices = new ArenaBuffer(vertexCapacity, format.size * 4);
+        indices = new ArenaBuffer(indexCapacity, 4);
+        vertexArrayObject = new VAO();
+        vertexArrayObject.bind();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indices.id);
+        format.link(vertexArrayObject, vertices.id);
+        vertexArrayObject.unbind();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        commandBuffer = glGenBuffers();
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        glBufferData(GL_DRAW_INDIRECT_BUFFER, 4L * COMMAND_INTS * commandCapacity, GL_STREAM_DRAW);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+    }
+
+    /**
+     * Загрузка текущей сетки чанка в его участки. Участок переиспользуется, если сетка в него
+     * помещается и не слишком мала для него, иначе освобождается и выделяется заново
+     */
+    void store(ChunkMesh chunkMesh) {
+        final MeshBuffer mesh = chunkMesh.mesh;
+        if (mesh.format != format) throw new IllegalArgumentException("Формат вершин сетки " + mesh.format + " вместо " + format);
+        if (mesh.isEmpty()) {
+            release(chunkMesh);
+            chunkMesh.arenaRevision = chunkMesh.revision;
+            return;
+        }
+        if (chunkMesh.arenaVertices >= 0 && !fits(vertices.allocator.getLength(chunkMesh.arenaVertices), mesh.verticesCount)) {
+            vertices.allocator.free(chunkMesh.arenaVertices);
+            chunkMesh.arenaVertices = -1;
+        }
+        if (chunkMesh.arenaIndices >= 0 && !fits(indices.allocator.getLength(chunkMesh.arenaIndices), mesh.sizeITexture)) {
+            indices.allocator.free(chunkMesh.arenaIndices);
+            chunkMesh.arenaIndices = -1;
+        }
+        if (chunkMesh.arenaVertices < 0) chunkMesh.arenaVertices = vertices.allocate(mesh.verticesCount);
+        if (chunkMesh.arenaIndices < 0) chunkMesh.arenaIndices = indices.allocate(mesh.sizeITexture);
+        vertices.upload(chunkMesh.arenaVertices, mesh.vertexData, mesh.sizeC);
+        indices.upload(chunkMesh.arenaIndices, mesh.indicesTexture, mesh.sizeITexture);
+        uploadedBytes += 4L * (mesh.sizeC + mesh.sizeITexture);
+        chunkMesh.arenaRevision = chunkMesh.revision;
+        chunkMesh.arenaIndexCount = mesh.sizeITexture;
+    }
+
+    /**
+     * Участок подходит для сетки, если она в нём помещается и занимает не меньше половины
+     */
+    static boolean fits(int allocated, int required) {
+        return required <= allocated && required * 2 >= allocated;
+    }
+
+    boolean isStored(ChunkMesh chunkMesh) {
+        return chunkMesh.arenaIndices >= 0;
+    }
+
+    /**
+     * Освобождение участков чанка
+     */
+    void release(ChunkMesh chunkMesh) {
+        if (chunkMesh.arenaVertices >= 0) vertices.allocator.free(chunkMesh.arenaVertices);
+        if (chunkMesh.arenaIndices >= 0) indices.allocator.free(chunkMesh.arenaIndices);
+        chunkMesh.arenaVertices = chunkMesh.arenaIndices = -1;
+        chunkMesh.arenaRevision = -1;
+    }
+
+    /**
+     * Начало кадра: буфер команд пересоздаётся, чтобы не ждать команд прошлого кадра
+     */
+    void beginFrame() {
+        commandCursor = 0;
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        glBufferData(GL_DRAW_INDIRECT_BUFFER, 4L * COMMAND_INTS * commandCapacity, GL_STREAM_DRAW);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+    }
+
+    /**
+     * Запись команд для видимых чанков набора и их отрисовка одним вызовом
+     *
+     * @return количество команд
+     */
+    int draw(VisibleSet visible) {
+        final int count = visible.getDrawnChunks();
+        if (count == 0) return 0;
+        if (commands.capacity() < count * COMMAND_INTS)
+            commands = memRealloc(commands.clear(), Math.max(count, commands.capacity() / COMMAND_INTS * 2) * COMMAND_INTS);
+        commands.clear();
+        int written = 0;
+        for (int i = 0; i < count; i++) {
+            final ChunkMesh chunkMesh = visible.chunks[i];
+            if (chunkMesh.arenaIndices < 0) continue;
+            commands.put(chunkMesh.arenaIndexCount).put(1)
+                    .put(indices.allocator.getOffset(chunkMesh.arenaIndices))
+                    .put(vertices.allocator.getOffset(chunkMesh.arenaVertices))
+                    .put(0);
+            written++;
+        }
+        if (written == 0) return 0;
+        commands.flip();
+
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        if (commandCursor + written > commandCapacity) {
+            // команды прошлых проходов уже переданы драйверу, хранилище можно пересоздать
+            commandCapacity = Math.max(commandCursor + written, commandCapacity * 2);
+            glBufferData(GL_DRAW_INDIRECT_BUFFER, 4L * COMMAND_INTS * commandCapacity, GL_STREAM_DRAW);
+            commandCursor = 0;
+        }
+        final long offset = 4L * COMMAND_INTS * commandCursor;
+        glBufferSubData(GL_DRAW_INDIRECT_BUFFER, offset, commands);
+        vertexArrayObject.bind();
+        glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, offset, written, 0);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        commandCursor += written;
+        uploadedBytes += 4L * COMMAND_INTS * written;
+        return written;
+    }
+
+    long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return занятый объём арен, байт
+     */
+    long getUsedBytes() {
+        return 4L * format.size * vertices.allocator.getUsed() + 4L * indices.allocator.getUsed();
+    }
+
+    /**
+     * @return байт, перенесённых при уплотнении арен
+     */
+    long getMovedBytes() {
+        return vertices.getMovedBytes() + indices.getMovedBytes();
+    }
+
+    long getCompactions() {
+        return vertices.allocator.getCompactions() + indices.allocator.getCompactions();
+    }
+
+    float getFragmentation() {
+        return Math.max(vertices.allocator.getFragmentation(), indices.allocator.getFragmentation());
+    }
+
+    void delete() {
+        memFree(commands);
+        glDeleteBuffers(commandBuffer);
+        vertices.delete();
+        indices.delete();
+        vertexArrayObject.delete();
+    }
+}
@@ -0,0 +1,123 @@
+package graphics.translateObjects;
+
+import engine.storage.BlockStorage;
+import engine.storage.BlockVisitor;
+
+import java.util.Arrays;
+
+import static engine.storage.BlockStorage.CHUNK_MASK;
+import static engine.storage.BlockStorage.CHUNK_SHIFT;
+
+/**
+ * Связность граней чанка через прозрачные ячейки: бит a * 6 + b означает, что из грани a в грань b
+ * можно пройти по соседним непустым для взгляда ячейкам. Грани нумеруются как стороны блока
+ * (0 +z, 1 +y, 2 -y, 3 -z, 4 -x, 5 +x). Считается в потоке построения сетки, один объект на поток
+ */
+public class ChunkConnectivity implements BlockVisitor {
+    public static final int FACES = 6;
+    /**
+     * Все грани связаны между собой: пустой, не загруженный или ещё не посчитанный чанк
+     */
+    public static final long ALL = (1L << FACES * FACES) - 1;
+
+    private static final int VOLUME = 1 << 3 * CHUNK_SHIFT;
+
+    /**
+     * Непрозрачные ячейки и ячейки, уже пройденные заливкой, по биту на ячейку (y << 8 | z << 4 | x)
+     */
+    private final long[] closed = new long[VOLUME / 64];
+    private final short[] queue = new short[VOLUME];
+    private int solidCount;
+
+    /**
+     * @return связность граней чанка key
+     */
+    public long compute(BlockStorage blocks, long key) {
+        Arrays.fill(closed, 0);
+        solidCount = 0;
+        blocks.forEachInChunk(key, this);
+        if (solidCount == 0) return ALL;
+        if (solidCount == VOLUME) return 0;
+
+        long connectivity = 0;
+        for (int start = 0; start < VOLUME; start++) {
+            if (isClosed(start)) continue;
+            final int faces = fill(start);
+            for (int a = 0; a < FACES; a++) {
+                if ((faces & 1 << a) == 0) continue;
+                for (int b = 0; b < FACES; b++) {
+                    if ((faces & 1 << b) != 0) connectivity |= 1L << a * FACES + b;
+                }
+            }
+        }
+        return connectivity;
+    }
+
+    @Override
+    public void visit(int x, int y, int z, int id) {
+        if (!BlockStorage.isSolidId(id)) return;
+        close(index(x & CHUNK_MASK, y & CHUNK_MASK, z & CHUNK_MASK));
+        solidCount++;
+    }
+
+    /**
+     * Заливка области прозрачных ячеек, содержащей start
+     *
+     * @return маска граней чанка, которых касается область
+     */
+    private int fill(int start) {
+        int head = 0, tail = 0, faces = 0;
+        close(start);
+        queue[tail++] = (short) start;
+        while (head < tail) {
+            final int index = queue[head++];
+            final int x = index & CHUNK_MASK, z = index >> CHUNK_SHIFT & CHUNK_MASK, y = index >> 2 * CHUNK_SHIFT;
+            if (z == CHUNK_MASK) faces |= 1;
+            else tail = push(index + (1 << CHUNK_SHIFT), tail);
+            if (y == CHUNK_MASK) faces |= 1 << 1;
+            else tail = push(index + (1 << 2 * CHUNK_SHIFT), tail);
+            if (y == 0) faces |= 1 << 2;
+            else tail = push(index - (1 << 2 * CHUNK_SHIFT), tail);
+            if (z == 0) faces |= 1 << 3;
+            else tail = push(index - (1 << CHUNK_SHIFT), tail);
+            if (x == 0) faces |= 1 << 4;
+            else tail = push(index - 1, tail);
+            if (x == CHUNK_MASK) faces |= 1 << 5;
+            else tail = push(index + 1, tail);
+        }
+        return faces;
+    }
+
+    private int push(int index, int tail) {
+        if (isClosed(index)) return tail;
+        close(index);
+        queue[tail] = (short) index;
+        return tail + 1;
+    }
+
+    private boolean isClosed(int index) {
+        return (closed[index >>> 6] & 1L << index) != 0;
+    }
+
+    private void close(int index) {
+        closed[index >>> 6] |= 1L << index;
+    }
+
+    private static int index(int x, int y, int z) {
+        return y << 2 * CHUNK_SHIFT | z << CHUNK_SHIFT | x;
+    }
+
+    /**
+     * @return true, если в чанке со связностью connectivity из грани a видна грань b
+     */
+    public static boolean connected(long connectivity, int a, int b) {
+        return (connectivity & 1L << a * FACES + b) != 0;
+    }
+
+    /**
+     * @return грань, противоположная face
+     */
+    public static int opposite(int face) {
+        return face ^ (face < 4 ? 3 : 1);
+    }
+}
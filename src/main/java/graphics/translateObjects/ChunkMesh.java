@@ -0,0 +1,119 @@
+package graphics.translateObjects;
+
+/**
+ * Готовая сетка чанка и версия чанка, по которой она построена. Сетка двойная: mesh читает поток OpenGL,
+ * во второй буфер строится новая версия, после чего буферы меняются местами
+ */
+public class ChunkMesh {
+    public final long key;
+    MeshBuffer mesh;
+    private MeshBuffer spare;
+    int version = -1;
+    /**
+     * Уровень детализации сетки mesh и уровень, выбранный для чанка LodPolicy
+     */
+    int lod = 0, targetLod = 0;
+    /**
+     * Номер замены сетки: меняется и при смене уровня без изменения чанка, по нему сетка
+     * перекладывается в staging и арену
+     */
+    int revision = 0;
+    /**
+     * Сетки других уровней, построенные прежде, и версии чанка, по которым они построены
+     */
+    private final MeshBuffer[] cached = new MeshBuffer[LodPolicy.LEVELS];
+    private final int[] cachedVersions = new int[LodPolicy.LEVELS];
+    int seen;
+    /**
+     * Сетка строится в пуле потоков, новая задача для чанка не ставится
+     */
+    boolean pending;
+    /**
+     * Версия чанка, построить сетку по которой не удалось (-1 - нет): до смены версии чанк не перестраивается
+     */
+    int failedVersion = -1;
+    /**
+     * Место и номер замены сетки при последнем размещении в StagingBuffer
+     */
+    int placedC = -1, placedITexture, placedVertices, placedRevision = -1;
+    /**
+     * Участки вершин и индексов в арене ChunkArena (-1 - нет), номер замены и число индексов загруженной сетки
+     */
+    int arenaVertices = -1, arenaIndices = -1, arenaRevision = -1, arenaIndexCount;
+    /**
+     * Связность граней чанка (ChunkConnectivity), считается вместе с сеткой
+     */
+    long connectivity = ChunkConnectivity.ALL;
+
+    ChunkMesh(long key) {
+        this(key, VertexFormat.Full);
+    }
+
+    ChunkMesh(long key, VertexFormat format) {
+        this.key = key;
+        this.mesh = new MeshBuffer(format, 1024, 256);
+    }
+
+    public MeshBuffer getMesh() {
+        return mesh;
+    }
+
+    /**
+     * Буфер для построения следующей версии сетки: запасной, устаревшая сетка из кэша или новый
+     */
+    MeshBuffer takeSpare() {
+        MeshBuffer buffer = spare;
+        spare = null;
+        for (int level = 0; buffer == null && level < cached.length; level++) {
+            if (cached[level] != null && cachedVersions[level] != version) {
+                buffer = cached[level];
+                cached[level] = null;
+            }
+        }
+        return buffer == null ? new MeshBuffer(mesh.format, 1024, 256) : buffer;
+    }
+
+    /**
+     * Замена текущей сетки построенной. Прежняя сетка того же уровня становится запасным буфером,
+     * другого уровня - кэшируется для возврата на этот уровень
+     */
+    void swap(MeshBuffer built, int builtVersion, int builtLod, long builtConnectivity) {
+        if (builtLod == lod) spare = mesh;
+        else keep();
+        mesh = built;
+        version = builtVersion;
+        lod = builtLod;
+        connectivity = builtConnectivity;
+        revision++;
+    }
+
+    /**
+     * Возврат к кэшированной сетке уровня level, если она построена по версии чанка chunkVersion
+     *
+     * @return true, если сетка заменена
+     */
+    boolean restore(int level, int chunkVersion) {
+        final MeshBuffer buffer = cached[level];
+        if (buffer == null || cachedVersions[level] != chunkVersion) return false;
+        cached[level] = null;
+        keep();
+        mesh = buffer;
+        version = chunkVersion;
+        lod = level;
+        revision++;
+        return true;
+    }
+
+    private void keep() {
+        if (cached[lod] != null && spare == null) spare = cached[lod];
+        cached[lod] = mesh;
+        cachedVersions[lod] = version;
+    }
+
+    /**
+     * Возврат буфера, сетку в котором построить не удалось
+     */
+    void release(MeshBuffer buffer) {
+        spare = buffer;
+    }
+}
@@ -0,0 +1,280 @@
+package graphics.translateObjects;
+
+import engine.storage.BlockStorage;
+
+import java.util.Arrays;
+
+import static engine.storage.BlockStorage.*;
+
+/**
+ * Построение сетки блоков одного чанка. Экземпляр хранит рабочие массивы и не потокобезопасен
+ */
+public class ChunkMesher {
+    /**
+     * Вершины сторон блока: near, up, down, far, left, right. Номер вершины куба кодирует смещение
+     * от его угла: бит 0 - по x, бит 1 - по y, бит 2 - по z
+     */
+    private static final int[] SIDE_VERTICES = new int[]{
+            4, 6, 7, 5,//near
+            6, 2, 3, 7,//up
+            0, 4, 5, 1,//down
+            1, 3, 2, 0,//far
+            0, 2, 6, 4,//left
+            5, 7, 3, 1 //right
+    };
+    /**
+     * Ось нормали стороны: 0 - x, 1 - y, 2 - z
+     */
+    private static final int[] SIDE_AXIS = new int[]{2, 1, 1, 2, 0, 0};
+    /**
+     * Направление нормали стороны вдоль её оси
+     */
+    private static final int[] SIDE_SIGN = new int[]{1, 1, -1, -1, -1, 1};
+
+    private final MeshingMode meshingMode;
+
+    /**
+     * Маска сторон одного слоя чанка для жадного объединения: id стороны или EMPTY
+     */
+    private final int[] mask = new int[CHUNK_SIZE * CHUNK_SIZE];
+    /**
+     * Маски видимых сторон чанка из BlockStorage.computeFaceMasks
+     */
+    private final long[] faceMasks = new long[6 * FACE_MASK_WORDS];
+    private final int[] base = new int[3], cord = new int[3], min = new int[3], max = new int[3];
+    /**
+     * Ячейки огрублённого чанка: индекс самой верхней непрозрачной ячейки внутри неё, по которой
+     * берутся id сторон, или -1
+     */
+    private final int[] coarse = new int[CHUNK_VOLUME];
+    private final int[] coarseCord = new int[3];
+
+    public ChunkMesher() {
+        this(MeshingMode.Simple);
+    }
+
+    public ChunkMesher(MeshingMode meshingMode) {
+        this.meshingMode = meshingMode;
+    }
+
+    /**
+     * Перестроение сетки чанка по текущему состоянию хранилища
+     *
+     * @param blocks   хранилище блоков
+     * @param chunkKey ключ чанка
+     * @param mesh     заполняемая сетка, предыдущие данные отбрасываются
+     */
+    public void mesh(BlockStorage blocks, long chunkKey, MeshBuffer mesh) {
+        mesh.reset();
+        if (!blocks.computeFaceMasks(chunkKey, faceMasks)) return;
+        base[0] = chunkX(chunkKey) << CHUNK_SHIFT;
+        base[1] = chunkY(chunkKey) << CHUNK_SHIFT;
+        base[2] = chunkZ(chunkKey) << CHUNK_SHIFT;
+        for (int side = 0; side < 6; side++) {
+            switch (meshingMode) {
+                case Simple -> transferSide(mesh, blocks, side);
+                case Greedy -> transferGreedySide(mesh, blocks, side);
+            }
+        }
+    }
+
+    /**
+     * Построение сетки чанка с уровнем детализации lod: ячейка из 2^lod блоков по каждой оси
+     * непрозрачна, если непрозрачен хотя бы один её блок. Стороны на границе чанка отбрасываются,
+     * только если соседние блоки за границей все непрозрачны: сосед может быть построен с другим
+     * уровнем, и без этого на стыке видны щели
+     *
+     * @param lod уровень детализации, 0 - полная сетка
+     */
+    public void mesh(BlockStorage blocks, long chunkKey, MeshBuffer mesh, int lod) {
+        if (lod == 0) {
+            mesh(blocks, chunkKey, mesh);
+            return;
+        }
+        mesh.reset();
+        final int size = CHUNK_SIZE >> lod, scale = 1 << lod;
+        Arrays.fill(coarse, 0, size * size * size, -1);
+        // ячейки обходятся по возрастанию y, последней в огрублённую ячейку попадает самая верхняя
+        blocks.forEachInChunk(chunkKey, (x, y, z, id) -> {
+            if (!isSolidId(id)) return;
+            final int lx = x & CHUNK_MASK, ly = y & CHUNK_MASK, lz = z & CHUNK_MASK;
+            coarse[((ly >> lod) * size + (lz >> lod)) * size + (lx >> lod)] = ly << 2 * CHUNK_SHIFT | lz << CHUNK_SHIFT | lx;
+        });
+        base[0] = chunkX(chunkKey) << CHUNK_SHIFT;
+        base[1] = chunkY(chunkKey) << CHUNK_SHIFT;
+        base[2] = chunkZ(chunkKey) << CHUNK_SHIFT;
+        for (int cell = 0, count = size * size * size; cell < count; cell++) {
+            final int top = coarse[cell];
+            if (top < 0) continue;
+            coarseCord[0] = cell % size;
+            coarseCord[2] = cell / size % size;
+            coarseCord[1] = cell / size / size;
+            for (int side = 0; side < 6; side++) {
+                final int axis = SIDE_AXIS[side], next = coarseCord[axis] + SIDE_SIGN[side];
+                if (next >= 0 && next < size) {
+                    coarseCord[axis] = next;
+                    final boolean covered = coarse[(coarseCord[1] * size + coarseCord[2]) * size + coarseCord[0]] >= 0;
+                    coarseCord[axis] = next - SIDE_SIGN[side];
+                    if (covered) continue;
+                }
+                for (int i = 0; i < 3; i++) {
+                    min[i] = base[i] + coarseCord[i] * scale;
+                    max[i] = min[i] + scale - 1;
+                }
+                if ((next < 0 || next >= size) && isCovered(blocks, side, scale)) continue;
+                transferMergedSquare(mesh, side, blocks.getSideId(base[0] + (top & CHUNK_MASK),
+                        base[1] + (top >> 2 * CHUNK_SHIFT), base[2] + (top >> CHUNK_SHIFT & CHUNK_MASK), side));
+            }
+        }
+    }
+
+    /**
+     * Проверка, что все блоки соседнего чанка, прилегающие к стороне side ячейки min..max, непрозрачны
+     */
+    private boolean isCovered(BlockStorage blocks, int side, int scale) {
+        final int normal = SIDE_AXIS[side], uAxis = normal == 0 ? 1 : 0, vAxis = normal == 2 ? 1 : 2;
+        cord[normal] = SIDE_SIGN[side] > 0 ? max[normal] + 1 : min[normal] - 1;
+        for (int v = 0; v < scale; v++) {
+            cord[vAxis] = min[vAxis] + v;
+            for (int u = 0; u < scale; u++) {
+                cord[uAxis] = min[uAxis] + u;
+                if (!blocks.isSolid(cord[0], cord[1], cord[2])) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Передача всех видимых сторон одного направления: обход установленных битов маски
+     */
+    private void transferSide(MeshBuffer mesh, BlockStorage blocks, int side) {
+        for (int w = 0; w < FACE_MASK_WORDS; w++) {
+            for (long bits = faceMasks[side * FACE_MASK_WORDS + w]; bits != 0; bits &= bits - 1) {
+                final int index = w << 6 | Long.numberOfTrailingZeros(bits);
+                transferFace(mesh, blocks, base[0] + (index & CHUNK_MASK), base[1] + (index >> 2 * CHUNK_SHIFT),
+                        base[2] + (index >> CHUNK_SHIFT & CHUNK_MASK), side);
+            }
+        }
+    }
+
+    /**
+     * Преобразование и передача данных блока в массивы индексов и значений вершин без выделения памяти
+     *
+     * @param mesh   заполняемая сетка
+     * @param blocks хранилище блоков
+     * @param x      координата блока(куба)
+     * @param y      координата блока(куба)
+     * @param z      координата блока(куба)
+     */
+    public void transferBlock(MeshBuffer mesh, BlockStorage blocks, int x, int y, int z) {
+        for (int side = 0; side < 6; side++) {
+            if (blocks.isSideRendered(x, y, z, side)) transferFace(mesh, blocks, x, y, z, side);
+        }
+    }
+
+    private void transferFace(MeshBuffer mesh, BlockStorage blocks, int x, int y, int z, int side) {
+        final int a = SIDE_VERTICES[side * 4], b = SIDE_VERTICES[side * 4 + 1],
+                c = SIDE_VERTICES[side * 4 + 2], d = SIDE_VERTICES[side * 4 + 3];
+        if (mesh.format == VertexFormat.Packed) {
+            final int lx = x & CHUNK_MASK, ly = y & CHUNK_MASK, lz = z & CHUNK_MASK;
+            mesh.transferPackedSquare(
+                    VertexFormat.packPosition(lx + (a & 1), ly + (a >> 1 & 1), lz + (a >> 2 & 1)),
+                    VertexFormat.packPosition(lx + (b & 1), ly + (b >> 1 & 1), lz + (b >> 2 & 1)),
+                    VertexFormat.packPosition(lx + (c & 1), ly + (c >> 1 & 1), lz + (c >> 2 & 1)),
+                    VertexFormat.packPosition(lx + (d & 1), ly + (d >> 1 & 1), lz + (d >> 2 & 1)),
+                    VertexFormat.packChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT, z >> CHUNK_SHIFT),
+                    side, blocks.getSideId(x, y, z, side));
+            return;
+        }
+        mesh.transferSquare(
+                x + (a & 1), y + (a >> 1 & 1), z + (a >> 2 & 1),
+                x + (b & 1), y + (b >> 1 & 1), z + (b >> 2 & 1),
+                x + (c & 1), y + (c >> 1 & 1), z + (c >> 2 & 1),
+                x + (d & 1), y + (d >> 1 & 1), z + (d >> 2 & 1),
+                blocks.getSideId(x, y, z, side));
+    }
+
+    /**
+     * Жадное объединение видимых сторон одного направления: в каждом слое чанка соседние стороны
+     * с одинаковым id собираются в прямоугольники максимальной ширины, затем высоты
+     */
+    private void transferGreedySide(MeshBuffer mesh, BlockStorage blocks, int side) {
+        final int normal = SIDE_AXIS[side], uAxis = normal == 0 ? 1 : 0, vAxis = normal == 2 ? 1 : 2;
+
+        for (int layer = 0; layer < CHUNK_SIZE; layer++) {
+            cord[normal] = base[normal] + layer;
+            boolean any = false;
+            for (int v = 0; v < CHUNK_SIZE; v++) {
+                cord[vAxis] = base[vAxis] + v;
+                for (int u = 0; u < CHUNK_SIZE; u++) {
+                    cord[uAxis] = base[uAxis] + u;
+                    final int index = (cord[1] & CHUNK_MASK) << 2 * CHUNK_SHIFT | (cord[2] & CHUNK_MASK) << CHUNK_SHIFT | (cord[0] & CHUNK_MASK);
+                    final boolean visible = (faceMasks[side * FACE_MASK_WORDS + (index >> 6)] & 1L << index) != 0;
+                    mask[v * CHUNK_SIZE + u] = visible ? blocks.getSideId(cord[0], cord[1], cord[2], side) : EMPTY;
+                    any |= visible;
+                }
+            }
+            if (!any) continue;
+
+            for (int v = 0; v < CHUNK_SIZE; v++) {
+                for (int u = 0; u < CHUNK_SIZE; ) {
+                    final int id = mask[v * CHUNK_SIZE + u];
+                    if (id == EMPTY) {
+                        u++;
+                        continue;
+                    }
+                    int width = 1;
+                    while (u + width < CHUNK_SIZE && mask[v * CHUNK_SIZE + u + width] == id) width++;
+                    int height = 1;
+                    grow:
+                    while (v + height < CHUNK_SIZE) {
+                        for (int k = 0; k < width; k++) {
+                            if (mask[(v + height) * CHUNK_SIZE + u + k] != id) break grow;
+                        }
+                        height++;
+                    }
+                    for (int h = 0; h < height; h++) {
+                        for (int k = 0; k < width; k++) mask[(v + h) * CHUNK_SIZE + u + k] = EMPTY;
+                    }
+
+                    min[normal] = max[normal] = base[normal] + layer;
+                    min[uAxis] = base[uAxis] + u;
+                    max[uAxis] = min[uAxis] + width - 1;
+                    min[vAxis] = base[vAxis] + v;
+                    max[vAxis] = min[vAxis] + height - 1;
+                    transferMergedSquare(mesh, side, id);
+                    u += width;
+                }
+            }
+        }
+    }
+
+    private int corner(int vertex, int axis) {
+        return (vertex >> axis & 1) == 0 ? min[axis] : max[axis] + 1;
+    }
+
+    private int packedCorner(int vertex) {
+        return VertexFormat.packPosition(corner(vertex, 0) - base[0], corner(vertex, 1) - base[1], corner(vertex, 2) - base[2]);
+    }
+
+    /**
+     * Передача прямоугольника, покрывающего блоки от min до max включительно. Вершины берутся
+     * из той же таблицы, что и для одиночного блока, поэтому порядок обхода сторон сохраняется
+     */
+    private void transferMergedSquare(MeshBuffer mesh, int side, int id) {
+        final int a = SIDE_VERTICES[side * 4], b = SIDE_VERTICES[side * 4 + 1],
+                c = SIDE_VERTICES[side * 4 + 2], d = SIDE_VERTICES[side * 4 + 3];
+        if (mesh.format == VertexFormat.Packed) {
+            mesh.transferPackedSquare(packedCorner(a), packedCorner(b), packedCorner(c), packedCorner(d),
+                    VertexFormat.packChunk(base[0] >> CHUNK_SHIFT, base[1] >> CHUNK_SHIFT, base[2] >> CHUNK_SHIFT), side, id);
+            return;
+        }
+        final float ax = corner(a, 0), ay = corner(a, 1), az = corner(a, 2);
+        final float bx = corner(b, 0), by = corner(b, 1), bz = corner(b, 2);
+        final float dx = corner(d, 0), dy = corner(d, 1), dz = corner(d, 2);
+        final float height = Math.abs(bx - ax) + Math.abs(by - ay) + Math.abs(bz - az);
+        final float width = Math.abs(dx - ax) + Math.abs(dy - ay) + Math.abs(dz - az);
+        mesh.transferTiledSquare(ax, ay, az, bx, by, bz, corner(c, 0), corner(c, 1), corner(c, 2), dx, dy, dz,
+                width, height, id);
+    }
+}
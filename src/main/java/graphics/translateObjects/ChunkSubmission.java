@@ -0,0 +1,10 @@
+package graphics.translateObjects;
+
+/**
+ * Способ передачи сеток чанков: все сетки подряд в одном буфере и отрисовка видимых диапазонов
+ * через glMultiDrawElements или участки арены на чанк и одна команда glMultiDrawElementsIndirect
+ * на проход. Контур (RenderingType.Outline) рисуется только способом Ranges
+ */
+public enum ChunkSubmission {
+    Ranges, Indirect
+}
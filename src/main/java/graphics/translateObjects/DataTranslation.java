@@ -1,189 +1,297 @@
 package graphics.translateObjects;
 
 import engine.Engine;
-import engine.entities.Block;
 import engine.entities.Line;
 import engine.entities.MirrorGlass;
+import engine.storage.BlockStorage;
 import graphics.Mirror;
 import graphics.RenderingType;
+import graphics.Shader;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL46.glGetUniformLocation;
+import static org.lwjgl.opengl.GL46.glUniform1i;
+
 public class DataTranslation {
 
     private final Engine engine;
 
-    private final int[] indicesTextureRaw;
-    private final int[] indicesOutlineRaw;
-    private final float[] cordsRaw;
-
-    private int sizeITexture = 0, sizeIOutline = 0, sizeC = 0, verticesCount = 0;
+    /**
+     * Сетки чанков и данные, пересобираемые при каждом обновлении (зеркала). Зеркала всегда
+     * в полном формате: их вершины не лежат в сетке блоков
+     */
+    private final GeometryStream chunkStream, dynamicStream;
+    private final MeshBuffer dynamicMesh;
+    private final MeshingPipeline meshingPipeline;
+    private final Map<Long, ChunkMesh> chunkMeshes;
+    /**
+     * Непустые сетки в порядке размещения в staging, по ним отбираются видимые диапазоны индексов
+     */
+    private final List<ChunkMesh> placed = new ArrayList<>();
+    /**
+     * Арена сеток чанков в режиме ChunkSubmission.Indirect, иначе null
+     */
+    private final ChunkArena arena;
 
+    /**
+     * Выбор уровня детализации по расстоянию от камеры, null - все чанки строятся полностью
+     */
+    private LodPolicy lodPolicy;
+    private final Vector3f lodCamera = new Vector3f();
 
-    private final VBO vertexBufferObject;
-    private final VAO vertexArrayObject;
-    private final EBO elementBufferObject;
+    private int updateCount = 0;
+    private BufferUpdateMode bufferUpdateMode = BufferUpdateMode.SubRange;
+    /**
+     * Всего передано в VBO и EBO, байт
+     */
+    private long uploadedBytes = 0;
 
     public DataTranslation(Engine engine) {
+        this(engine, MeshingMode.Simple);
+    }
+
+    public DataTranslation(Engine engine, MeshingMode meshingMode) {
+        this(engine, meshingMode, VertexFormat.Full);
+    }
+
+    public DataTranslation(Engine engine, MeshingMode meshingMode, VertexFormat vertexFormat) {
+        this(engine, meshingMode, vertexFormat, ChunkSubmission.Ranges);
+    }
+
+    public DataTranslation(Engine engine, MeshingMode meshingMode, VertexFormat vertexFormat, ChunkSubmission submission) {
         this.engine = engine;
-        indicesTextureRaw = new int[20000000];
-        indicesOutlineRaw = new int[20000000];
-        cordsRaw = new float[20000000];
+        final boolean indirect = submission == ChunkSubmission.Indirect;
+        chunkStream = new GeometryStream(vertexFormat, indirect ? 256 : 1 << 16);
+        arena = indirect ? new ChunkArena(vertexFormat, 1 << 16, 1 << 17) : null;
+        dynamicStream = new GeometryStream(VertexFormat.Full, 256);
+        dynamicMesh = new MeshBuffer(256, 64);
+        meshingPipeline = new MeshingPipeline(meshingMode);
+        chunkMeshes = new HashMap<>();
+    }
+
+    /**
+     * Постановка на построение сеток чанков, версия которых изменилась, и замена сеток уже построенными
+     *
+     * @return true, если хотя бы одна сетка была заменена или удалена
+     */
+    private boolean rebuildDirtyChunks() {
+        final BlockStorage blocks = engine.blocks;
+        final VertexFormat format = chunkStream.getFormat();
+        final int pass = ++updateCount;
+        final boolean[] restored = new boolean[1];
+        blocks.forEachChunk(key -> {
+            final int version = blocks.getChunkVersion(key);
+            final ChunkMesh chunkMesh = chunkMeshes.computeIfAbsent(key, k -> new ChunkMesh(k, format));
+            chunkMesh.seen = pass;
+            if (lodPolicy != null)
+                chunkMesh.targetLod = lodPolicy.select(key, lodCamera.x, lodCamera.y, lodCamera.z, chunkMesh.targetLod);
+            if (chunkMesh.pending || chunkMesh.failedVersion == version
+                    || chunkMesh.version == version && chunkMesh.lod == chunkMesh.targetLod) return;
+            // сетка уровня, на котором чанк уже был, берётся из кэша без построения
+            if (chunkMesh.restore(chunkMesh.targetLod, version)) restored[0] = true;
+            else meshingPipeline.submit(blocks, chunkMesh, version, chunkMesh.targetLod);
+        });
+        final boolean removed = chunkMeshes.values().removeIf(chunkMesh -> {
+            if (chunkMesh.seen == pass) return false;
+            if (arena != null) arena.release(chunkMesh);
+            return true;
+        });
+        return meshingPipeline.collect() || removed || restored[0];
+    }
 
-        vertexArrayObject = new VAO();
-        vertexBufferObject = new VBO(this);
-        elementBufferObject = new EBO(this);
+    /**
+     * Размещение сетки чанка в staging. Если та же сетка уже лежит на этом месте,
+     * она не копируется и не попадает в изменённые диапазоны
+     */
+    private void place(StagingBuffer staging, ChunkMesh chunkMesh) {
+        if (chunkMesh.placedRevision == chunkMesh.revision
+                && staging.isAt(chunkMesh.placedC, chunkMesh.placedITexture, chunkMesh.placedVertices)) {
+            staging.skip(chunkMesh.mesh);
+            return;
+        }
+        chunkMesh.placedRevision = chunkMesh.revision;
+        chunkMesh.placedC = staging.getSizeC();
+        chunkMesh.placedITexture = staging.getSizeITexture();
+        chunkMesh.placedVertices = staging.getVerticesCount();
+        staging.append(chunkMesh.mesh);
+    }
+
+    /**
+     * Обновление с выбором уровней детализации чанков по положению камеры
+     */
+    public void update(RenderingType renderingType, Vector3f camera) {
+        lodCamera.set(camera);
+        update(renderingType);
     }
 
     public void update(RenderingType renderingType) {
-        reset();
-        for (Block block : engine.blocks.values()) {
-            transferBlock(block);
+        if (arena != null && renderingType == RenderingType.Outline)
+            throw new IllegalStateException("Контур рисуется только способом ChunkSubmission.Ranges");
+        if (arena != null) {
+            // перестроенные чанки перезаписывают только свои участки арены
+            if (rebuildDirtyChunks()) {
+                placed.clear();
+                for (ChunkMesh chunkMesh : chunkMeshes.values()) {
+                    if (chunkMesh.arenaRevision != chunkMesh.revision) arena.store(chunkMesh);
+                    if (arena.isStored(chunkMesh)) placed.add(chunkMesh);
+                }
+            }
+            arena.beginFrame();
+        } else if (rebuildDirtyChunks()) {
+            final StagingBuffer staging = chunkStream.staging;
+            staging.reset();
+            placed.clear();
+            for (ChunkMesh chunkMesh : chunkMeshes.values()) {
+                if (chunkMesh.mesh.isEmpty()) continue;
+                place(staging, chunkMesh);
+                placed.add(chunkMesh);
+            }
         }
 
+        dynamicMesh.reset();
         for (MirrorGlass mirrorGlass : engine.mirrors) {
             transferMirror(mirrorGlass, 10);
         }
+        dynamicStream.staging.reset();
+        dynamicStream.staging.append(dynamicMesh);
+
+        uploadedBytes += chunkStream.upload(renderingType, bufferUpdateMode);
+        uploadedBytes += dynamicStream.upload(renderingType, bufferUpdateMode);
+    }
+
+    /**
+     * Отрисовка сеток чанков и зеркал активированным шейдером. Шейдеру с вершинным шейдером
+     * getVertexShader() передаётся формат каждого потока через uniform packedVertices.
+     * Чанки рисуются без отбора, только способом ChunkSubmission.Ranges
+     */
+    public void draw(Shader shader, RenderingType renderingType) {
+        if (arena != null) throw new IllegalStateException("Способ Indirect рисует только отобранные чанки");
+        final int packedLocation = glGetUniformLocation(shader.getId(), "packedVertices");
+        glUniform1i(packedLocation, chunkStream.getFormat() == VertexFormat.Packed ? 1 : 0);
+        chunkStream.draw(renderingType);
+        glUniform1i(packedLocation, 0);
+        dynamicStream.draw(renderingType);
+    }
 
-        vertexArrayObject.bind();
-        vertexBufferObject.bindRefresh();
-        elementBufferObject.bindRefresh(renderingType);
+    /**
+     * Отбор чанков, видимых камерой с матрицей viewProjection, в набор visible
+     */
+    public void cull(Matrix4f viewProjection, VisibleSet visible) {
+        visible.cull(viewProjection, placed);
+    }
 
-        vertexArrayObject.LinkAttrib(vertexBufferObject, 0, 24, 0);
-        vertexArrayObject.LinkAttrib(vertexBufferObject, 1, 24, 12);
-        vertexArrayObject.LinkAttrib(vertexBufferObject, 2, 24, 20);
+    /**
+     * Отбор чанков, видимых камерой в точке camera, с отбором перекрытых непрозрачными блоками чанков
+     */
+    public void cull(Matrix4f viewProjection, Vector3f camera, VisibleSet visible) {
+        visible.cull(viewProjection, placed, chunkMeshes.values(), camera);
+    }
 
-        vertexArrayObject.unbind();
-        vertexBufferObject.unbind();
-        elementBufferObject.unbind();
+    /**
+     * Отрисовка только видимых чанков набора visible (по одному вызову на поток: диапазоны или косвенные
+     * команды арены), зеркала рисуются целиком. Контур рисуется без отбора
+     */
+    public void draw(Shader shader, RenderingType renderingType, VisibleSet visible) {
+        final int packedLocation = glGetUniformLocation(shader.getId(), "packedVertices");
+        glUniform1i(packedLocation, chunkStream.getFormat() == VertexFormat.Packed ? 1 : 0);
+        if (arena != null) arena.draw(visible);
+        else if (renderingType == RenderingType.Outline) chunkStream.draw(renderingType);
+        else chunkStream.drawRanges(visible);
+        glUniform1i(packedLocation, 0);
+        dynamicStream.draw(renderingType);
     }
 
-    public void setupVAO() {
-        vertexArrayObject.bind();
+    /**
+     * @return вершинный шейдер, читающий формат сеток чанков
+     */
+    public String getVertexShader() {
+        return chunkStream.getFormat().vertexShader;
     }
 
     public void destroy() {
-        vertexArrayObject.delete();
-        vertexBufferObject.delete();
-        elementBufferObject.delete();
+        meshingPipeline.shutdown();
+        if (arena != null) arena.delete();
+        chunkStream.delete();
+        dynamicStream.delete();
     }
 
-    public float[] getCords() {
-        final float[] cords = new float[sizeC];
-        System.arraycopy(cordsRaw, 0, cords, 0, sizeC);
-        return cords;
+    /**
+     * @return количество неудачных построений сеток чанков
+     */
+    public long getMeshingFailures() {
+        return meshingPipeline.getFailures();
     }
 
-    public int[] getIndices(RenderingType type) {
-        return switch (type) {
-            case Texture -> getTextureIndices();
-            case Outline -> getOutlineIndices();
-            default -> null;
-        };
+    public RuntimeException getLastMeshingFailure() {
+        return meshingPipeline.getLastFailure();
     }
 
-    private int[] getTextureIndices() {
-        final int[] indices = new int[sizeITexture];
-        System.arraycopy(indicesTextureRaw, 0, indices, 0, sizeITexture);
-        return indices;
+    public void setLodPolicy(LodPolicy lodPolicy) {
+        this.lodPolicy = lodPolicy;
     }
 
-    private int[] getOutlineIndices() {
-        final int[] indices = new int[sizeIOutline];
-        System.arraycopy(indicesOutlineRaw, 0, indices, 0, sizeIOutline);
-        return indices;
+    /**
+     * Строка с количеством чанков и треугольников загруженных сеток на каждом уровне детализации
+     */
+    public String getLodReport() {
+        final int[] chunks = new int[LodPolicy.LEVELS];
+        final long[] triangles = new long[LodPolicy.LEVELS];
+        for (ChunkMesh chunkMesh : chunkMeshes.values()) {
+            if (chunkMesh.mesh.isEmpty()) continue;
+            chunks[chunkMesh.lod]++;
+            triangles[chunkMesh.lod] += chunkMesh.mesh.sizeITexture / 3;
+        }
+        final StringBuilder builder = new StringBuilder("lod");
+        for (int level = 0; level < LodPolicy.LEVELS; level++) {
+            builder.append(' ').append(level).append(": ").append(chunks[level]).append(" chunks ")
+                    .append(triangles[level]).append(" triangles");
+        }
+        return builder.toString();
+    }
+
+    public void setBufferUpdateMode(BufferUpdateMode bufferUpdateMode) {
+        this.bufferUpdateMode = bufferUpdateMode;
     }
 
     /**
-     * Добавление нового пакета данных в массиы значений и индексов
-     *
-     * @param cords массив добавляемых значений вершин
-     */
-    private void transfer(float[] cords, int[] indicesTexture, int[] indicesOutline) {
-        System.arraycopy(cords, 0, cordsRaw, sizeC, cords.length);
-        System.arraycopy(indicesTexture, 0, indicesTextureRaw, sizeITexture, indicesTexture.length);
-        System.arraycopy(indicesOutline, 0, indicesOutlineRaw, sizeIOutline, indicesOutline.length);
-        sizeC += cords.length;
-        sizeITexture += indicesTexture.length;
-        sizeIOutline += indicesOutline.length;
-    }
-
-    private void reset() {
-        sizeITexture = 0;
-        sizeIOutline = 0;
-        sizeC = 0;
-        verticesCount = 0;
-    }
-
-    public int indicesSize(RenderingType type) {
-        return switch (type) {
-            case Texture -> sizeITexture;
-            case Outline -> sizeIOutline;
-            default -> 0;
-        };
-    }
-
-    public void transferTriangleDirect(Vector3f a, Vector3f b, Vector3f c, float x1, float y1, float x2, float y2, float x3, float y3, long id, boolean upper) {
-        final float metaID = (float) id;
-
-        final float[] tempCordsRaw = upper ? new float[]{
-                a.x, a.y, a.z, x1, y1, metaID,
-                b.x, b.y, b.z, x2, y2, metaID,
-                c.x, c.y, c.z, x3, y3, metaID,
-        } : new float[]{
-                a.x, a.y, a.z, x3, y3, metaID,
-                b.x, b.y, b.z, x2, y2, metaID,
-                c.x, c.y, c.z, x1, y1, metaID,
-        };
-        final int[] tempIndicesTextureRaw = new int[]{
-                verticesCount, verticesCount + 2, verticesCount + 1,
-        };
-        final int[] tempIndicesOutlineRaw = new int[]{
-                verticesCount, verticesCount + 2, verticesCount + 1,
-        };
-        verticesCount += 3;
-        transfer(tempCordsRaw, tempIndicesTextureRaw, tempIndicesOutlineRaw);
-    }
-
-    /**
-     * Преобразование и передача данных четырёхугольника(квадрата) в массивы индексов и значений вершин
-     *
-     * @param a  первая координата треугольника
-     * @param b  вторая координата треугольника
-     * @param c  третья координата треугольника
-     * @param id id стороны
-     */
-    public void transferTriangle(Vector3f a, Vector3f b, Vector3f c, long id, boolean upper) {
-        final float yId = id == 10 ? 0 : (float) (id / 16L) / 16.0f;
-        final float xId = id == 10 ? 0 : (float) (id % 16L) / 16.0f;
-        final float delta = id == 10 ? 1.0f : 1.0f / 16.0f;
-        final float metaID = (float) id;
-
-        final float[] tempCordsRaw = upper ? new float[]{
-                a.x, a.y, a.z, xId, yId, metaID,
-                b.x, b.y, b.z, xId, yId + delta, metaID,
-                c.x, c.y, c.z, xId + delta, yId + delta, metaID,
-        } : new float[]{
-                a.x, a.y, a.z, xId + delta, yId + delta, metaID,
-                b.x, b.y, b.z, xId + delta, yId, metaID,
-                c.x, c.y, c.z, xId, yId, metaID,
-        };
-        final int[] tempIndicesTextureRaw = new int[]{
-                verticesCount, verticesCount + 2, verticesCount + 1,
-        };
-        final int[] tempIndicesOutlineRaw = new int[]{
-                verticesCount, verticesCount + 2, verticesCount + 1,
-        };
-        verticesCount += 3;
-        transfer(tempCordsRaw, tempIndicesTextureRaw, tempIndicesOutlineRaw);
-    }
-    //1 3 2 a, b, c
-    //1 4 3 a, d, b
-
-    public void transferSquare(Vector3f a, Vector3f b, Vector3f c, Vector3f d, long id) {
-        transferTriangle(a, b, c, id, true);
-        transferTriangle(c, d, a, id, false);
+     * @return суммарное количество байт, переданных в VBO и EBO с момента создания
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes + (arena == null ? 0 : arena.getUploadedBytes());
+    }
+
+    /**
+     * @return объём данных сеток в staging (копия того, что лежит в VBO и EBO), байт
+     */
+    public long getGeometryBytes() {
+        if (arena != null) return arena.getUsedBytes();
+        final StagingBuffer staging = chunkStream.staging;
+        return 4L * (staging.getSizeC() + staging.getSizeITexture() + staging.getSizeIOutline());
+    }
+
+    /**
+     * @return сэкономлено байт индексов: контур, который раньше копировался при каждом добавлении сетки,
+     * за вычетом построенного по запросу прохода Outline
+     */
+    public long getOutlineBytesSaved() {
+        return chunkStream.staging.getOutlineBytesSkipped() + dynamicStream.staging.getOutlineBytesSkipped()
+                - chunkStream.staging.getOutlineBytesBuilt() - dynamicStream.staging.getOutlineBytesBuilt();
+    }
+
+    /**
+     * @return строка с занятым объёмом, фрагментацией и уплотнениями арены (пустая без арены)
+     */
+    public String getArenaReport() {
+        if (arena == null) return "";
+        return "arena " + arena.getUsedBytes() / 1024 + " KB\tfragmentation " + arena.getFragmentation()
+                + "\tcompactions " + arena.getCompactions() + "\tmoved " + arena.getMovedBytes() / 1024 + " KB";
     }
 
     public void transferMirror(MirrorGlass mirrorGlass, long id) {
@@ -202,8 +310,8 @@ public class DataTranslation {
                 //transferTriangleDirect(v1, v2, v3, 0f, 0f, 0f, 1f, 1f, 1f, id, true);
                 //transferTriangleDirect(v3, v4, v1, 0f, 0f, 1f, 0f, 1f, 1f, id, false);
                 //1.0	0.39569312	-0.39722523	;	0.41758934	0.41576263	;	-0.3969634	0.39850032	;	-0.3771254	-0.37547576
-                transferTriangleDirect(v1, v2, v3, 0.5f + xA.x/2f, 0.5f + xA.y/2f, 0.5f + xB.x/2f, 0.5f + xB.y/2f, 0.5f + xC.x/2f, 0.5f + xC.y/2f, id, true);
-                transferTriangleDirect(v3, v4, v1, 0.5f + xC.x/2f, 0.5f + xC.y/2f, 0.5f + xD.x/2f, 0.5f + xD.y/2f, 0.5f + xA.x/2f, 0.5f + xA.y/2f, id, true);
+                dynamicMesh.transferTriangleDirect(v1, v2, v3, 0.5f + xA.x/2f, 0.5f + xA.y/2f, 0.5f + xB.x/2f, 0.5f + xB.y/2f, 0.5f + xC.x/2f, 0.5f + xC.y/2f, id, true);
+                dynamicMesh.transferTriangleDirect(v3, v4, v1, 0.5f + xC.x/2f, 0.5f + xC.y/2f, 0.5f + xD.x/2f, 0.5f + xD.y/2f, 0.5f + xA.x/2f, 0.5f + xA.y/2f, id, true);
             }//ABC ABD ACB ACD ADB ADC | BAC BAD BCA BCD BDA BDC | CAB CAD CBA CBD CDA CDB | DAB DAC DBA DBC DCA DCB
         }
     }
@@ -219,34 +327,7 @@ public class DataTranslation {
         Vector3f startDown = new Vector3f(line.start).add(0.0f, -delta, 0.0f);
         Vector3f endUp = new Vector3f(line.end).add(0.0f, delta, 0.0f);
         Vector3f endDown = new Vector3f(line.end).add(0.0f, -delta, 0.0f);
-        transferSquare(startUp, startDown, endDown, endUp, 17);
-        transferSquare(endUp, endDown, startDown, startUp, 17);
-    }
-
-    /**
-     * Преобразование и передача данных блока в массивы индексов и значений вершин
-     *
-     * @param block блок(куб)
-     */
-    public void transferBlock(Block block) {
-        final float delta = 1.0f / 2.0f;
-        final Vector3f center = new Vector3f(block.cord).add(delta, delta, delta);
-        final Vector3f[] vertex = new Vector3f[]{
-                new Vector3f(center.x - delta, center.y - delta, center.z - delta),//0 - far down left
-                new Vector3f(center.x + delta, center.y - delta, center.z - delta),//1 - far down right
-                new Vector3f(center.x - delta, center.y + delta, center.z - delta),//2 - far up left
-                new Vector3f(center.x + delta, center.y + delta, center.z - delta),//3 - far up right
-                new Vector3f(center.x - delta, center.y - delta, center.z + delta),//4 - near down left
-                new Vector3f(center.x + delta, center.y - delta, center.z + delta),//5 - near down right
-                new Vector3f(center.x - delta, center.y + delta, center.z + delta),//6 - near up left
-                new Vector3f(center.x + delta, center.y + delta, center.z + delta) //7 - near up right
-        };
-        if (block.sideRender[0]) transferSquare(vertex[4], vertex[6], vertex[7], vertex[5], block.sideIds[0]);//near
-        if (block.sideRender[1]) transferSquare(vertex[6], vertex[2], vertex[3], vertex[7], block.sideIds[1]);//up
-        if (block.sideRender[2]) transferSquare(vertex[0], vertex[4], vertex[5], vertex[1], block.sideIds[2]);//down
-        if (block.sideRender[3]) transferSquare(vertex[1], vertex[3], vertex[2], vertex[0], block.sideIds[3]);//far
-        if (block.sideRender[4]) transferSquare(vertex[0], vertex[2], vertex[6], vertex[4], block.sideIds[4]);//left
-        if (block.sideRender[5]) transferSquare(vertex[5], vertex[7], vertex[3], vertex[1], block.sideIds[5]);//right
+        dynamicMesh.transferSquare(startUp, startDown, endDown, endUp, 17);
+        dynamicMesh.transferSquare(endUp, endDown, startDown, startUp, 17);
     }
 }
-
@@ -0,0 +1,51 @@
+package graphics.translateObjects;
+
+/**
+ * Изменённые с последней загрузки диапазоны буфера [from, to). Соседние и пересекающиеся диапазоны
+ * объединяются, при добавлении не по возрастанию все диапазоны сводятся к одному охватывающему
+ */
+public class DirtyRanges {
+    private int[] ranges = new int[32];
+    private int count = 0;
+
+    public void add(int from, int to) {
+        if (from >= to) return;
+        if (count > 0) {
+            final int lastFrom = ranges[2 * count - 2], lastTo = ranges[2 * count - 1];
+            if (from >= lastFrom && from <= lastTo) {
+                ranges[2 * count - 1] = Math.max(lastTo, to);
+                return;
+            }
+            if (from < lastFrom) {
+                ranges[1] = Math.max(ranges[2 * count - 1], to);
+                ranges[0] = Math.min(ranges[0], from);
+                count = 1;
+                return;
+            }
+        }
+        if (2 * count + 2 > ranges.length) {
+            final int[] grown = new int[ranges.length * 2];
+            System.arraycopy(ranges, 0, grown, 0, 2 * count);
+            ranges = grown;
+        }
+        ranges[2 * count] = from;
+        ranges[2 * count + 1] = to;
+        count++;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int from(int i) {
+        return ranges[2 * i];
+    }
+
+    public int to(int i) {
+        return ranges[2 * i + 1];
+    }
+
+    public void clear() {
+        count = 0;
+    }
+}
@@ -2,6 +2,8 @@ package graphics.translateObjects;
 
 import graphics.RenderingType;
 
+import java.nio.IntBuffer;
+
 import static org.lwjgl.opengl.GL46.*;
 
 /**
@@ -9,20 +11,61 @@ import static org.lwjgl.opengl.GL46.*;
  */
 public class EBO {
     private final int id;
-    private final DataTranslation dataTranslation;
+    private final StagingBuffer staging;
+    /**
+     * Размер выделенного хранилища в int и тип индексов, загруженных в него
+     */
+    private int capacity = 0;
+    private RenderingType loadedType = null;
 
-    protected EBO(DataTranslation dataTranslation) {
+    protected EBO(StagingBuffer staging) {
         id = glGenBuffers();
-        this.dataTranslation = dataTranslation;
+        this.staging = staging;
     }
 
-    protected void bindRefresh(RenderingType type) {
+    protected long bindRefresh(RenderingType type, BufferUpdateMode mode) {
         bind();
-        refresh(type);
+        return refresh(type, mode);
     }
 
-    protected void refresh(RenderingType type) {
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, dataTranslation.getIndices(type), GL_DYNAMIC_DRAW);
+    /**
+     * Загрузка индексов заданного типа в буфер
+     *
+     * @param type тип отрисовки
+     * @param mode способ обновления буфера
+     * @return количество переданных байт
+     */
+    protected long refresh(RenderingType type, BufferUpdateMode mode) {
+        final DirtyRanges dirty = type == RenderingType.Outline ? staging.dirtyIndicesOutline : staging.dirtyIndicesTexture;
+        final IntBuffer indices = type == RenderingType.Outline ? staging.getIndicesOutline() : staging.getIndicesTexture();
+        final int size = indices.remaining();
+        if (mode == BufferUpdateMode.Orphan || size > capacity || type != loadedType) {
+            if (mode == BufferUpdateMode.Orphan) {
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_DYNAMIC_DRAW);
+                capacity = 0;
+            } else {
+                if (size > capacity) {
+                    capacity = Math.max(size, capacity + (capacity >> 1));
+                    glBufferData(GL_ELEMENT_ARRAY_BUFFER, 4L * capacity, GL_DYNAMIC_DRAW);
+                }
+                glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 0, indices);
+            }
+            loadedType = type;
+            staging.dirtyIndicesTexture.clear();
+            staging.dirtyIndicesOutline.clear();
+            return 4L * size;
+        }
+        long uploaded = 0;
+        for (int i = 0; i < dirty.count(); i++) {
+            final int from = dirty.from(i), to = Math.min(dirty.to(i), size);
+            if (from >= to) continue;
+            glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 4L * from, type == RenderingType.Outline
+                    ? staging.getIndicesOutline(from, to) : staging.getIndicesTexture(from, to));
+            uploaded += 4L * (to - from);
+        }
+        staging.dirtyIndicesTexture.clear();
+        staging.dirtyIndicesOutline.clear();
+        return uploaded;
     }
 
     protected void bind() {
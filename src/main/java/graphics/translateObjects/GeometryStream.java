@@ -0,0 +1,105 @@
+package graphics.translateObjects;
+
+import graphics.RenderingType;
+import org.lwjgl.PointerBuffer;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL46.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Вершины одного формата: staging на стороне CPU и VAO, VBO, EBO, в которые он загружается
+ */
+public class GeometryStream {
+    final StagingBuffer staging;
+
+    private final VBO vertexBufferObject;
+    private final VAO vertexArrayObject;
+    private final EBO elementBufferObject;
+    /**
+     * Количества и смещения диапазонов для glMultiDrawElements, растут по мере надобности
+     */
+    private IntBuffer rangeCounts;
+    private PointerBuffer rangeOffsets;
+
+    GeometryStream(VertexFormat format, int vertices) {
+        staging = new StagingBuffer(format, vertices);
+        vertexArrayObject = new VAO();
+        vertexBufferObject = new VBO(staging);
+        elementBufferObject = new EBO(staging);
+    }
+
+    public VertexFormat getFormat() {
+        return staging.format;
+    }
+
+    /**
+     * Загрузка изменённых данных staging в OpenGL
+     *
+     * @return количество переданных байт
+     */
+    long upload(RenderingType renderingType, BufferUpdateMode mode) {
+        if (renderingType == RenderingType.Outline) staging.buildOutline();
+        vertexArrayObject.bind();
+        long uploaded = vertexBufferObject.bindRefresh(mode);
+        uploaded += elementBufferObject.bindRefresh(renderingType, mode);
+
+        staging.format.link(vertexArrayObject, vertexBufferObject);
+
+        vertexArrayObject.unbind();
+        vertexBufferObject.unbind();
+        elementBufferObject.unbind();
+        return uploaded;
+    }
+
+    /**
+     * Отрисовка загруженных индексов, шейдер должен быть активирован. Контур рисуется отрезками
+     */
+    void draw(RenderingType renderingType) {
+        final boolean outline = renderingType == RenderingType.Outline;
+        final int count = outline ? staging.getSizeIOutline() : staging.getSizeITexture();
+        if (count == 0) return;
+        vertexArrayObject.bind();
+        glDrawElements(outline ? GL_LINES : GL_TRIANGLES, count, GL_UNSIGNED_INT, 0);
+    }
+
+    /**
+     * Отрисовка диапазонов треугольников набора видимых чанков одним вызовом glMultiDrawElements
+     */
+    void drawRanges(VisibleSet visible) {
+        final int ranges = visible.ranges;
+        if (ranges == 0) return;
+        if (rangeCounts == null || rangeCounts.capacity() < ranges) {
+            if (rangeCounts != null) {
+                memFree(rangeCounts);
+                memFree(rangeOffsets);
+            }
+            final int capacity = Math.max(64, Integer.highestOneBit(ranges) << 1);
+            rangeCounts = memAllocInt(capacity);
+            rangeOffsets = memAllocPointer(capacity);
+        }
+        // предыдущий кадр оставил limit по своему числу диапазонов
+        rangeCounts.clear();
+        rangeOffsets.clear();
+        for (int i = 0; i < ranges; i++) {
+            rangeCounts.put(i, visible.counts[i]);
+            rangeOffsets.put(i, 4L * visible.firsts[i]);
+        }
+        rangeCounts.position(0).limit(ranges);
+        rangeOffsets.position(0).limit(ranges);
+        vertexArrayObject.bind();
+        glMultiDrawElements(GL_TRIANGLES, rangeCounts, GL_UNSIGNED_INT, rangeOffsets);
+    }
+
+    void delete() {
+        if (rangeCounts != null) {
+            memFree(rangeCounts);
+            memFree(rangeOffsets);
+        }
+        staging.free();
+        vertexArrayObject.delete();
+        vertexBufferObject.delete();
+        elementBufferObject.delete();
+    }
+}
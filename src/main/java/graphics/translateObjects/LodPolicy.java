@@ -0,0 +1,70 @@
+package graphics.translateObjects;
+
+import java.util.Arrays;
+
+import static engine.storage.BlockStorage.CHUNK_SHIFT;
+import static engine.storage.BlockStorage.chunkX;
+import static engine.storage.BlockStorage.chunkY;
+import static engine.storage.BlockStorage.chunkZ;
+
+/**
+ * Выбор уровня детализации чанка по расстоянию от камеры до его центра. Уровень i строится
+ * с ячейками по 2^i блоков, за границей bands[i] чанк переходит на уровень i + 1. Чтобы чанк на
+ * границе не перестраивался при каждом шаге камеры, уровень повышается только дальше границы
+ * на hysteresis блоков и понижается только ближе границы на столько же
+ */
+public class LodPolicy {
+    /**
+     * Наибольший уровень: ячейка 8 блоков, в чанке 2 ячейки по оси
+     */
+    public static final int MAX_LEVEL = 3;
+    public static final int LEVELS = MAX_LEVEL + 1;
+
+    private final float[] bands;
+    private final float hysteresis;
+
+    /**
+     * @param hysteresis запас вокруг границ, блоков
+     * @param bands      возрастающие границы уровней 1..bands.length, блоков
+     */
+    public LodPolicy(float hysteresis, float... bands) {
+        if (bands.length > MAX_LEVEL) throw new IllegalArgumentException("Уровней детализации не больше " + MAX_LEVEL);
+        if (hysteresis < 0) throw new IllegalArgumentException("Запас не может быть отрицательным: " + hysteresis);
+        for (int i = 1; i < bands.length; i++) {
+            if (bands[i] - bands[i - 1] <= 2 * hysteresis)
+                throw new IllegalArgumentException("Границы уровней должны возрастать больше чем на два запаса: " + Arrays.toString(bands));
+        }
+        this.bands = bands.clone();
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * @param distance расстояние от камеры до центра чанка, блоков
+     * @param current  уровень чанка сейчас
+     * @return новый уровень чанка
+     */
+    public int select(float distance, int current) {
+        int raised = 0, lowered = 0;
+        for (float band : bands) {
+            if (distance > band + hysteresis) raised++;
+            if (distance > band - hysteresis) lowered++;
+        }
+        if (current < raised) return raised;
+        return Math.min(current, lowered);
+    }
+
+    /**
+     * Уровень чанка key для камеры в точке (x, y, z)
+     */
+    public int select(long key, float x, float y, float z, int current) {
+        final float half = 1 << CHUNK_SHIFT - 1;
+        final float dx = (chunkX(key) << CHUNK_SHIFT) + half - x;
+        final float dy = (chunkY(key) << CHUNK_SHIFT) + half - y;
+        final float dz = (chunkZ(key) << CHUNK_SHIFT) + half - z;
+        return select((float) Math.sqrt(dx * dx + dy * dy + dz * dz), current);
+    }
+
+    public int getLevels() {
+        return bands.length + 1;
+    }
+}
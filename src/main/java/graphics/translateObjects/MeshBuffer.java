@@ -0,0 +1,244 @@
+package graphics.translateObjects;
+
+import org.joml.Vector3f;
+
+/**
+ * Массивы значений вершин и индексов на стороне CPU, расширяются по мере заполнения.
+ * Значения вершин хранятся как 4-байтные слова: float записываются своим битовым представлением
+ */
+public class MeshBuffer {
+    /**
+     * Смещение id стороны для прямоугольников, текстура которых повторяется по плитке атласа.
+     * Текстурная координата таких вершин задаётся в плитках, атлас вычисляется во фрагментном шейдере
+     */
+    public static final int TILED_ID_OFFSET = 256;
+
+    public final VertexFormat format;
+
+    int[] vertexData;
+    /**
+     * Индексы треугольников. Индексы контура строятся из них в StagingBuffer, только когда контур рисуется
+     */
+    int[] indicesTexture;
+
+    int sizeC = 0, sizeITexture = 0, verticesCount = 0;
+
+    public MeshBuffer(int cordsCapacity, int indicesCapacity) {
+        this(VertexFormat.Full, cordsCapacity, indicesCapacity);
+    }
+
+    public MeshBuffer(VertexFormat format, int cordsCapacity, int indicesCapacity) {
+        this.format = format;
+        vertexData = new int[cordsCapacity];
+        indicesTexture = new int[indicesCapacity];
+    }
+
+    private static int grow(int capacity, int required) {
+        return Math.max(required, capacity + (capacity >> 1) + 16);
+    }
+
+    private void ensureCapacity(int cordsCount, int indicesTextureCount) {
+        if (sizeC + cordsCount > vertexData.length) {
+            final int[] grown = new int[grow(vertexData.length, sizeC + cordsCount)];
+            System.arraycopy(vertexData, 0, grown, 0, sizeC);
+            vertexData = grown;
+        }
+        if (sizeITexture + indicesTextureCount > indicesTexture.length) {
+            final int[] grown = new int[grow(indicesTexture.length, sizeITexture + indicesTextureCount)];
+            System.arraycopy(indicesTexture, 0, grown, 0, sizeITexture);
+            indicesTexture = grown;
+        }
+    }
+
+    public int getVerticesCount() {
+        return verticesCount;
+    }
+
+    public int getIndicesTextureCount() {
+        return sizeITexture;
+    }
+
+    public boolean isEmpty() {
+        return verticesCount == 0;
+    }
+
+    public void reset() {
+        sizeITexture = 0;
+        sizeC = 0;
+        verticesCount = 0;
+    }
+
+    /**
+     * Добавление готовой сетки со смещением её индексов на текущее количество вершин
+     *
+     * @param mesh добавляемая сетка
+     */
+    void append(MeshBuffer mesh) {
+        if (mesh.format != format) throw new IllegalArgumentException("Формат вершин сетки " + mesh.format + " вместо " + format);
+        ensureCapacity(mesh.sizeC, mesh.sizeITexture);
+        System.arraycopy(mesh.vertexData, 0, vertexData, sizeC, mesh.sizeC);
+        for (int i = 0; i < mesh.sizeITexture; i++) indicesTexture[sizeITexture + i] = mesh.indicesTexture[i] + verticesCount;
+        sizeC += mesh.sizeC;
+        sizeITexture += mesh.sizeITexture;
+        verticesCount += mesh.verticesCount;
+    }
+
+    /**
+     * Резервирование места под вершины и индексы, после него putVertex и putTriangle не проверяют размеры массивов
+     *
+     * @param vertices количество вершин
+     * @param indices  количество индексов
+     */
+    void reserve(int vertices, int indices) {
+        ensureCapacity(vertices * format.size, indices);
+    }
+
+    void putVertex(float x, float y, float z, float u, float v, float metaID) {
+        final int[] data = vertexData;
+        int i = sizeC;
+        data[i++] = Float.floatToRawIntBits(x);
+        data[i++] = Float.floatToRawIntBits(y);
+        data[i++] = Float.floatToRawIntBits(z);
+        data[i++] = Float.floatToRawIntBits(u);
+        data[i++] = Float.floatToRawIntBits(v);
+        data[i++] = Float.floatToRawIntBits(metaID);
+        sizeC = i;
+    }
+
+    void putPackedVertex(int vertex, int chunk) {
+        vertexData[sizeC++] = vertex;
+        vertexData[sizeC++] = chunk;
+    }
+
+    void putTriangle(int a, int b, int c) {
+        indicesTexture[sizeITexture++] = a;
+        indicesTexture[sizeITexture++] = b;
+        indicesTexture[sizeITexture++] = c;
+    }
+
+    /**
+     * Индексы четырёхугольника из четырёх последних вершин abcd: треугольники abc и cda
+     * с тем же порядком обхода, что и у отдельных треугольников transferTriangle
+     */
+    void putQuad() {
+        final int a = verticesCount, b = a + 1, c = a + 2, d = a + 3;
+        putTriangle(a, c, b);
+        putTriangle(c, a, d);
+        verticesCount += 4;
+    }
+
+    public void transferTriangleDirect(Vector3f a, Vector3f b, Vector3f c, float x1, float y1, float x2, float y2, float x3, float y3, long id, boolean upper) {
+        final float metaID = (float) id;
+
+        reserve(3, 3);
+        if (upper) {
+            putVertex(a.x, a.y, a.z, x1, y1, metaID);
+            putVertex(b.x, b.y, b.z, x2, y2, metaID);
+            putVertex(c.x, c.y, c.z, x3, y3, metaID);
+        } else {
+            putVertex(a.x, a.y, a.z, x3, y3, metaID);
+            putVertex(b.x, b.y, b.z, x2, y2, metaID);
+            putVertex(c.x, c.y, c.z, x1, y1, metaID);
+        }
+        putTriangle(verticesCount, verticesCount + 2, verticesCount + 1);
+        verticesCount += 3;
+    }
+
+    /**
+     * Преобразование и передача данных четырёхугольника(квадрата) в массивы индексов и значений вершин
+     *
+     * @param a  первая координата треугольника
+     * @param b  вторая координата треугольника
+     * @param c  третья координата треугольника
+     * @param id id стороны
+     */
+    public void transferTriangle(Vector3f a, Vector3f b, Vector3f c, long id, boolean upper) {
+        transferTriangle(a.x, a.y, a.z, b.x, b.y, b.z, c.x, c.y, c.z, id, upper);
+    }
+
+    private void transferTriangle(float ax, float ay, float az, float bx, float by, float bz, float cx, float cy, float cz, long id, boolean upper) {
+        final float yId = id == 10 ? 0 : (float) (id / 16L) / 16.0f;
+        final float xId = id == 10 ? 0 : (float) (id % 16L) / 16.0f;
+        final float delta = id == 10 ? 1.0f : 1.0f / 16.0f;
+        final float metaID = (float) id;
+
+        reserve(3, 3);
+        if (upper) {
+            putVertex(ax, ay, az, xId, yId, metaID);
+            putVertex(bx, by, bz, xId, yId + delta, metaID);
+            putVertex(cx, cy, cz, xId + delta, yId + delta, metaID);
+        } else {
+            putVertex(ax, ay, az, xId + delta, yId + delta, metaID);
+            putVertex(bx, by, bz, xId + delta, yId, metaID);
+            putVertex(cx, cy, cz, xId, yId, metaID);
+        }
+        putTriangle(verticesCount, verticesCount + 2, verticesCount + 1);
+        verticesCount += 3;
+    }
+    //1 3 2 a, b, c
+    //1 4 3 a, d, b
+
+    public void transferSquare(Vector3f a, Vector3f b, Vector3f c, Vector3f d, long id) {
+        transferSquare(a.x, a.y, a.z, b.x, b.y, b.z, c.x, c.y, c.z, d.x, d.y, d.z, id);
+    }
+
+    /**
+     * Передача четырёхугольника abcd без создания промежуточных объектов: четыре вершины и шесть индексов.
+     * Текстурные координаты вершин те же, что у пары треугольников transferTriangle
+     *
+     * @param id id стороны
+     */
+    public void transferSquare(float ax, float ay, float az, float bx, float by, float bz,
+                               float cx, float cy, float cz, float dx, float dy, float dz, long id) {
+        final float yId = id == 10 ? 0 : (float) (id / 16L) / 16.0f;
+        final float xId = id == 10 ? 0 : (float) (id % 16L) / 16.0f;
+        final float delta = id == 10 ? 1.0f : 1.0f / 16.0f;
+        final float metaID = (float) id;
+
+        reserve(4, 6);
+        putVertex(ax, ay, az, xId, yId, metaID);
+        putVertex(bx, by, bz, xId, yId + delta, metaID);
+        putVertex(cx, cy, cz, xId + delta, yId + delta, metaID);
+        putVertex(dx, dy, dz, xId + delta, yId, metaID);
+        putQuad();
+    }
+
+    /**
+     * Передача прямоугольника abcd размером width x height плиток с повторением текстуры стороны
+     *
+     * @param width  длина стороны ad в блоках
+     * @param height длина стороны ab в блоках
+     * @param id     id стороны
+     */
+    public void transferTiledSquare(float ax, float ay, float az, float bx, float by, float bz,
+                                    float cx, float cy, float cz, float dx, float dy, float dz,
+                                    float width, float height, long id) {
+        final float metaID = (float) (id + TILED_ID_OFFSET);
+
+        reserve(4, 6);
+        putVertex(ax, ay, az, 0.0f, 0.0f, metaID);
+        putVertex(bx, by, bz, 0.0f, height, metaID);
+        putVertex(cx, cy, cz, width, height, metaID);
+        putVertex(dx, dy, dz, width, 0.0f, metaID);
+        putQuad();
+    }
+
+    /**
+     * Передача стороны блоков в упакованном формате: вершины abcd заданы координатами внутри чанка
+     *
+     * @param chunk упакованная координата чанка
+     * @param side  номер стороны
+     * @param tile  плитка атласа (id стороны), 0..VertexFormat.PACKED_TILE_MAX
+     */
+    public void transferPackedSquare(int a, int b, int c, int d, int chunk, int side, int tile) {
+        if (tile < 0 || tile > VertexFormat.PACKED_TILE_MAX)
+            throw new IllegalArgumentException("Плитка " + tile + " вне диапазона формата Packed 0.." + VertexFormat.PACKED_TILE_MAX);
+        final int sideTile = side << 15 | tile << 18;
+        reserve(4, 6);
+        putPackedVertex(a | sideTile, chunk);
+        putPackedVertex(b | sideTile, chunk);
+        putPackedVertex(c | sideTile, chunk);
+        putPackedVertex(d | sideTile, chunk);
+        putQuad();
+    }
+}
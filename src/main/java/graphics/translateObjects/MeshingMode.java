@@ -0,0 +1,9 @@
+package graphics.translateObjects;
+
+/**
+ * Способ построения сетки блоков: по две треугольника на каждую видимую сторону
+ * или с объединением соседних сторон с одинаковой текстурой в один прямоугольник
+ */
+public enum MeshingMode {
+    Simple, Greedy
+}
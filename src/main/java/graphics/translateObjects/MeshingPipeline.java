@@ -0,0 +1,141 @@
+package graphics.translateObjects;
+
+import engine.storage.BlockStorage;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Параллельное построение сеток чанков в пуле потоков. Задачи ставит и результаты забирает
+ * поток OpenGL, сам он построения не ждёт и до замены рисует прежнюю сетку чанка
+ */
+public class MeshingPipeline {
+    private final ForkJoinPool pool;
+    private final ThreadLocal<ChunkMesher> meshers;
+    private final ThreadLocal<ChunkConnectivity> connectivities;
+    private final ConcurrentLinkedQueue<Built> built;
+    private final AtomicInteger inFlight;
+    /**
+     * Неудачные построения и последнее исключение построения, читаются в потоке OpenGL
+     */
+    private long failures = 0;
+    private RuntimeException lastFailure;
+
+    /**
+     * Построенная в пуле сетка с уровнем детализации и связность граней, ожидающие замены в ChunkMesh
+     */
+    private static final class Built {
+        final ChunkMesh chunkMesh;
+        final MeshBuffer buffer;
+        final int version, lod;
+        final long connectivity;
+        /**
+         * Исключение построения или null
+         */
+        final RuntimeException failure;
+
+        Built(ChunkMesh chunkMesh, MeshBuffer buffer, int version, int lod, long connectivity, RuntimeException failure) {
+            this.chunkMesh = chunkMesh;
+            this.buffer = buffer;
+            this.version = version;
+            this.lod = lod;
+            this.connectivity = connectivity;
+            this.failure = failure;
+        }
+    }
+
+    public MeshingPipeline(MeshingMode meshingMode) {
+        this(meshingMode, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public MeshingPipeline(MeshingMode meshingMode, int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+        meshers = ThreadLocal.withInitial(() -> new ChunkMesher(meshingMode));
+        connectivities = ThreadLocal.withInitial(ChunkConnectivity::new);
+        built = new ConcurrentLinkedQueue<>();
+        inFlight = new AtomicInteger();
+    }
+
+    /**
+     * Постановка задачи на построение сетки чанка. Версия должна быть прочитана до постановки:
+     * если чанк изменится во время построения, версии не совпадут и чанк будет перестроен ещё раз
+     *
+     * @param blocks    хранилище блоков
+     * @param chunkMesh сетка чанка
+     * @param version   версия чанка
+     */
+    public void submit(BlockStorage blocks, ChunkMesh chunkMesh, int version) {
+        submit(blocks, chunkMesh, version, 0);
+    }
+
+    /**
+     * Постановка задачи на построение сетки чанка с уровнем детализации lod
+     */
+    public void submit(BlockStorage blocks, ChunkMesh chunkMesh, int version, int lod) {
+        final MeshBuffer buffer = chunkMesh.takeSpare();
+        chunkMesh.pending = true;
+        inFlight.incrementAndGet();
+        pool.execute(() -> {
+            RuntimeException failure = null;
+            long connectivity = ChunkConnectivity.ALL;
+            try {
+                meshers.get().mesh(blocks, chunkMesh.key, buffer, lod);
+                connectivity = connectivities.get().compute(blocks, chunkMesh.key);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            built.add(new Built(chunkMesh, buffer, version, lod, connectivity, failure));
+        });
+    }
+
+    /**
+     * Замена сеток чанков построенными к этому моменту. Если построение не удалось, версия
+     * запоминается в ChunkMesh.failedVersion, и чанк не ставится снова, пока его версия не изменится
+     *
+     * @return true, если хотя бы одна сетка была заменена
+     */
+    public boolean collect() {
+        boolean changed = false;
+        Built result;
+        while ((result = built.poll()) != null) {
+            inFlight.decrementAndGet();
+            result.chunkMesh.pending = false;
+            if (result.failure != null) {
+                result.chunkMesh.release(result.buffer);
+                result.chunkMesh.failedVersion = result.version;
+                failures++;
+                lastFailure = result.failure;
+            } else {
+                result.chunkMesh.swap(result.buffer, result.version, result.lod, result.connectivity);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return количество поставленных, но ещё не забранных задач
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return количество неудачных построений
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return исключение последнего неудачного построения или null
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
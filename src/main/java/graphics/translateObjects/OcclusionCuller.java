@@ -0,0 +1,155 @@
+package graphics.translateObjects;
+
+import org.joml.FrustumIntersection;
+import org.joml.Vector3fc;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static engine.storage.BlockStorage.CHUNK_SHIFT;
+import static engine.storage.BlockStorage.CHUNK_SIZE;
+import static engine.storage.BlockStorage.chunkX;
+import static engine.storage.BlockStorage.chunkY;
+import static engine.storage.BlockStorage.chunkZ;
+import static graphics.translateObjects.ChunkConnectivity.FACES;
+import static graphics.translateObjects.ChunkConnectivity.connected;
+import static graphics.translateObjects.ChunkConnectivity.opposite;
+
+/**
+ * Отбор перекрытых чанков обходом в ширину от чанка камеры по связности граней (ChunkConnectivity).
+ * В чанк можно попасть только через грань, в которую ведёт прозрачный путь от грани входа соседа,
+ * обход идёт только от камеры (не поворачивает в направлении, обратном уже пройденному) и только
+ * по чанкам внутри пирамиды видимости. Чанк, до которого обход не дошёл, закрыт непрозрачными
+ * блоками. Обход ограничен параллелепипедом известных чанков с запасом в один чанк и чанка камеры,
+ * чанки вне карты связности считаются пустыми. Без OpenGL
+ */
+class OcclusionCuller {
+    /**
+     * Наибольший объём обхода в чанках: камера слишком далеко от известных чанков, и отбор не проводится
+     */
+    private static final int MAX_CELLS = 1 << 20;
+    private static final int[] DX = {0, 0, 0, 0, -1, 1}, DY = {0, 1, -1, 0, 0, 0}, DZ = {1, 0, 0, -1, 0, 0};
+
+    private int minX, minY, minZ, sizeX, sizeY, sizeZ;
+    private long[] connectivity = new long[0];
+    /**
+     * Номер обхода, в котором ячейка была достигнута, и маска граней, через которые в неё уже вошли
+     */
+    private int[] stamps = new int[0];
+    private byte[] entered = new byte[0];
+    /**
+     * Очередь обхода: ячейка << 9 | грань входа << 6 | маска пройденных направлений
+     */
+    private int[] queue = new int[0];
+    private int stamp = 0;
+
+    /**
+     * Обход от камеры
+     *
+     * @param chunks  сетки всех известных чанков, в том числе пустых, со связностью граней
+     * @param camera  положение камеры
+     * @param frustum пирамида видимости камеры
+     * @return false, если обход не проводился: чанков нет или камера слишком далеко от них
+     */
+    boolean run(Collection<ChunkMesh> chunks, Vector3fc camera, FrustumIntersection frustum) {
+        if (chunks.isEmpty()) return false;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        minX = minY = minZ = Integer.MAX_VALUE;
+        for (ChunkMesh chunkMesh : chunks) {
+            final int x = chunkX(chunkMesh.key), y = chunkY(chunkMesh.key), z = chunkZ(chunkMesh.key);
+            minX = Math.min(minX, x - 1);
+            minY = Math.min(minY, y - 1);
+            minZ = Math.min(minZ, z - 1);
+            maxX = Math.max(maxX, x + 1);
+            maxY = Math.max(maxY, y + 1);
+            maxZ = Math.max(maxZ, z + 1);
+        }
+        final int cameraX = (int) Math.floor(camera.x()) >> CHUNK_SHIFT;
+        final int cameraY = (int) Math.floor(camera.y()) >> CHUNK_SHIFT;
+        final int cameraZ = (int) Math.floor(camera.z()) >> CHUNK_SHIFT;
+        // пустое пространство между камерой и известными чанками тоже обходится
+        minX = Math.min(minX, cameraX);
+        minY = Math.min(minY, cameraY);
+        minZ = Math.min(minZ, cameraZ);
+        maxX = Math.max(maxX, cameraX);
+        maxY = Math.max(maxY, cameraY);
+        maxZ = Math.max(maxZ, cameraZ);
+        final long cells = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (cells > MAX_CELLS) return false;
+
+        sizeX = maxX - minX + 1;
+        sizeY = maxY - minY + 1;
+        sizeZ = maxZ - minZ + 1;
+        final int volume = (int) cells;
+        if (connectivity.length < volume) {
+            connectivity = new long[volume];
+            stamps = new int[volume];
+            entered = new byte[volume];
+            queue = new int[FACES * volume];
+            stamp = 0;
+        }
+        Arrays.fill(connectivity, 0, volume, ChunkConnectivity.ALL);
+        for (ChunkMesh chunkMesh : chunks) {
+            connectivity[cell(chunkX(chunkMesh.key), chunkY(chunkMesh.key), chunkZ(chunkMesh.key))] = chunkMesh.connectivity;
+        }
+
+        stamp++;
+        int head = 0, tail = 0;
+        final int start = cell(cameraX, cameraY, cameraZ);
+        stamps[start] = stamp;
+        entered[start] = (byte) ((1 << FACES) - 1);
+        // из чанка камеры видны все его грани
+        for (int face = 0; face < FACES; face++) {
+            tail = step(cameraX, cameraY, cameraZ, face, 1 << face, frustum, tail);
+        }
+        while (head < tail) {
+            final int entry = queue[head++];
+            final int cell = entry >>> 9, in = entry >> 6 & 7, directions = entry & 63;
+            final int x = cell % sizeX + minX, z = cell / sizeX % sizeZ + minZ, y = cell / sizeX / sizeZ + minY;
+            for (int out = 0; out < FACES; out++) {
+                if (out == in || (directions & 1 << opposite(out)) != 0) continue;
+                if (!connected(connectivity[cell], in, out)) continue;
+                tail = step(x, y, z, out, directions | 1 << out, frustum, tail);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Переход из чанка (x, y, z) через грань face в соседний чанк
+     *
+     * @return новый конец очереди
+     */
+    private int step(int x, int y, int z, int face, int directions, FrustumIntersection frustum, int tail) {
+        x += DX[face];
+        y += DY[face];
+        z += DZ[face];
+        if (x < minX || y < minY || z < minZ || x >= minX + sizeX || y >= minY + sizeY || z >= minZ + sizeZ) return tail;
+        final int cell = cell(x, y, z), in = opposite(face);
+        if (stamps[cell] != stamp) {
+            final float baseX = x << CHUNK_SHIFT, baseY = y << CHUNK_SHIFT, baseZ = z << CHUNK_SHIFT;
+            if (!frustum.testAab(baseX, baseY, baseZ, baseX + CHUNK_SIZE, baseY + CHUNK_SIZE, baseZ + CHUNK_SIZE))
+                return tail;
+            stamps[cell] = stamp;
+            entered[cell] = 0;
+        } else if ((entered[cell] & 1 << in) != 0) {
+            return tail;
+        }
+        entered[cell] |= 1 << in;
+        queue[tail] = cell << 9 | in << 6 | directions;
+        return tail + 1;
+    }
+
+    private int cell(int x, int y, int z) {
+        return ((y - minY) * sizeZ + (z - minZ)) * sizeX + (x - minX);
+    }
+
+    /**
+     * @return true, если последний обход дошёл до чанка key
+     */
+    boolean isReachable(long key) {
+        final int x = chunkX(key), y = chunkY(key), z = chunkZ(key);
+        if (x < minX || y < minY || z < minZ || x >= minX + sizeX || y >= minY + sizeY || z >= minZ + sizeZ) return false;
+        return stamps[cell(x, y, z)] == stamp;
+    }
+}
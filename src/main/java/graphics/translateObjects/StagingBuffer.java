@@ -0,0 +1,199 @@
+package graphics.translateObjects;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Буфер вершин и индексов вне кучи для передачи в OpenGL. Растёт по мере заполнения,
+ * буферы передаются в glBufferData без промежуточного копирования
+ */
+public class StagingBuffer {
+    public final VertexFormat format;
+
+    private IntBuffer vertexData;
+    private IntBuffer indicesTexture;
+    /**
+     * Индексы отрезков контура, строятся из индексов треугольников только по запросу прохода Outline
+     */
+    private IntBuffer indicesOutline;
+
+    private int sizeC = 0, sizeITexture = 0, sizeIOutline = 0, verticesCount = 0;
+    private boolean outlineBuilt = false;
+    /**
+     * Байт индексов контура, которые не копировались при добавлении сеток, и байт, построенных по запросу
+     */
+    private long outlineBytesSkipped = 0, outlineBytesBuilt = 0;
+
+    /**
+     * Диапазоны, изменённые с последней загрузки в OpenGL
+     */
+    final DirtyRanges dirtyCords = new DirtyRanges(), dirtyIndicesTexture = new DirtyRanges(), dirtyIndicesOutline = new DirtyRanges();
+
+    public StagingBuffer(int vertices) {
+        this(VertexFormat.Full, vertices);
+    }
+
+    public StagingBuffer(VertexFormat format, int vertices) {
+        this.format = format;
+        vertexData = memAllocInt(vertices * format.size);
+        indicesTexture = memAllocInt(vertices);
+        indicesOutline = memAllocInt(64);
+    }
+
+    private static int grow(int capacity, int required) {
+        return Math.max(required, capacity + (capacity >> 1));
+    }
+
+    private void ensureCapacity(int cordsCount, int indicesTextureCount) {
+        if (sizeC + cordsCount > vertexData.capacity())
+            vertexData = memRealloc(vertexData.clear(), grow(vertexData.capacity(), sizeC + cordsCount));
+        if (sizeITexture + indicesTextureCount > indicesTexture.capacity())
+            indicesTexture = memRealloc(indicesTexture.clear(), grow(indicesTexture.capacity(), sizeITexture + indicesTextureCount));
+    }
+
+    public void reset() {
+        sizeC = sizeITexture = sizeIOutline = verticesCount = 0;
+        outlineBuilt = false;
+    }
+
+    /**
+     * Добавление сетки со смещением её индексов на текущее количество вершин
+     *
+     * @param mesh добавляемая сетка
+     */
+    public void append(MeshBuffer mesh) {
+        if (mesh.format != format) throw new IllegalArgumentException("Формат вершин сетки " + mesh.format + " вместо " + format);
+        ensureCapacity(mesh.sizeC, mesh.sizeITexture);
+        vertexData.clear().position(sizeC);
+        vertexData.put(mesh.vertexData, 0, mesh.sizeC);
+        for (int i = 0; i < mesh.sizeITexture; i++) indicesTexture.put(sizeITexture + i, mesh.indicesTexture[i] + verticesCount);
+        dirtyCords.add(sizeC, sizeC + mesh.sizeC);
+        dirtyIndicesTexture.add(sizeITexture, sizeITexture + mesh.sizeITexture);
+        sizeC += mesh.sizeC;
+        sizeITexture += mesh.sizeITexture;
+        verticesCount += mesh.verticesCount;
+        outlineBuilt = false;
+        outlineBytesSkipped += 4L * mesh.sizeITexture;
+    }
+
+    /**
+     * Пропуск сетки, которая уже лежит в буфере с текущего смещения
+     *
+     * @param mesh сетка, добавленная ранее на это же место
+     */
+    public void skip(MeshBuffer mesh) {
+        sizeC += mesh.sizeC;
+        sizeITexture += mesh.sizeITexture;
+        verticesCount += mesh.verticesCount;
+    }
+
+    /**
+     * Построение отрезков контура по индексам треугольников. Пара треугольников (a, c, b), (c, a, d)
+     * одного четырёхугольника даёт четыре ребра abcd без диагонали, отдельный треугольник - три ребра
+     */
+    void buildOutline() {
+        if (outlineBuilt) return;
+        if (2 * sizeITexture > indicesOutline.capacity())
+            indicesOutline = memRealloc(indicesOutline.clear(), grow(indicesOutline.capacity(), 2 * sizeITexture));
+        final IntBuffer triangles = indicesTexture, lines = indicesOutline;
+        int size = 0;
+        for (int i = 0; i + 2 < sizeITexture; ) {
+            final int a = triangles.get(i), c = triangles.get(i + 1), b = triangles.get(i + 2);
+            lines.put(size++, a).put(size++, b).put(size++, b).put(size++, c);
+            if (i + 5 < sizeITexture && triangles.get(i + 3) == c && triangles.get(i + 4) == a) {
+                final int d = triangles.get(i + 5);
+                lines.put(size++, c).put(size++, d).put(size++, d).put(size++, a);
+                i += 6;
+            } else {
+                lines.put(size++, c).put(size++, a);
+                i += 3;
+            }
+        }
+        sizeIOutline = size;
+        dirtyIndicesOutline.clear();
+        dirtyIndicesOutline.add(0, size);
+        outlineBuilt = true;
+        outlineBytesBuilt += 4L * size;
+    }
+
+    /**
+     * Проверка, что текущие размеры совпадают с указанными, то есть следующая сетка ляжет на то же место
+     */
+    boolean isAt(int sizeC, int sizeITexture, int verticesCount) {
+        return this.sizeC == sizeC && this.sizeITexture == sizeITexture && this.verticesCount == verticesCount;
+    }
+
+    int getSizeC() {
+        return sizeC;
+    }
+
+    int getVerticesCount() {
+        return verticesCount;
+    }
+
+    /**
+     * @return заполненная часть буфера значений вершин
+     */
+    public IntBuffer getVertexData() {
+        return vertexData.clear().limit(sizeC);
+    }
+
+    /**
+     * @return часть буфера значений вершин [from, to)
+     */
+    public IntBuffer getVertexData(int from, int to) {
+        return vertexData.clear().limit(to).position(from);
+    }
+
+    public IntBuffer getIndicesTexture(int from, int to) {
+        return indicesTexture.clear().limit(to).position(from);
+    }
+
+    public IntBuffer getIndicesOutline(int from, int to) {
+        return indicesOutline.clear().limit(to).position(from);
+    }
+
+    public IntBuffer getIndicesTexture() {
+        return indicesTexture.clear().limit(sizeITexture);
+    }
+
+    public IntBuffer getIndicesOutline() {
+        return indicesOutline.clear().limit(sizeIOutline);
+    }
+
+    public int getSizeITexture() {
+        return sizeITexture;
+    }
+
+    public int getSizeIOutline() {
+        return sizeIOutline;
+    }
+
+    /**
+     * @return байт индексов контура, не скопированных при добавлении сеток (раньше контур копировался всегда)
+     */
+    public long getOutlineBytesSkipped() {
+        return outlineBytesSkipped;
+    }
+
+    /**
+     * @return байт индексов контура, построенных по запросу прохода Outline
+     */
+    public long getOutlineBytesBuilt() {
+        return outlineBytesBuilt;
+    }
+
+    /**
+     * @return объём выделенной памяти в байтах
+     */
+    public long capacityBytes() {
+        return 4L * (vertexData.capacity() + indicesTexture.capacity() + indicesOutline.capacity());
+    }
+
+    public void free() {
+        memFree(vertexData);
+        memFree(indicesTexture);
+        memFree(indicesOutline);
+    }
+}
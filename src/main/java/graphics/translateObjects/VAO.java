@@ -12,11 +12,21 @@ public class VAO {
         id = glGenVertexArrays();
     }
 
-    protected void LinkAttrib(VBO vbo, int layout, int offset, int pointer) {
-        vbo.bind();
+    protected void LinkAttrib(int buffer, int layout, int offset, int pointer) {
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
         glVertexAttribPointer(layout, 4, GL_FLOAT, false, offset, pointer);
         glEnableVertexAttribArray(layout);
-        vbo.unbind();
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Целочисленный атрибут, читается в шейдере без преобразования во float
+     */
+    protected void LinkAttribI(int buffer, int layout, int size, int offset, int pointer) {
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        glVertexAttribIPointer(layout, size, GL_UNSIGNED_INT, offset, pointer);
+        glEnableVertexAttribArray(layout);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
     }
 
     protected void bind() {
@@ -1,5 +1,7 @@
 package graphics.translateObjects;
 
+import java.nio.IntBuffer;
+
 import static org.lwjgl.opengl.GL46.*;
 
 /**
@@ -7,20 +9,58 @@ import static org.lwjgl.opengl.GL46.*;
  */
 public class VBO {
     private final int id;
-    private final DataTranslation dataTranslation;
+    private final StagingBuffer staging;
+    /**
+     * Размер выделенного хранилища в 4-байтных словах
+     */
+    private int capacity = 0;
 
-    protected VBO(DataTranslation dataTranslation) {
+    protected VBO(StagingBuffer staging) {
         id = glGenBuffers();
-        this.dataTranslation = dataTranslation;
+        this.staging = staging;
     }
 
-    protected void bindRefresh() {
+    protected long bindRefresh(BufferUpdateMode mode) {
         bind();
-        refresh();
+        return refresh(mode);
+    }
+
+    /**
+     * Загрузка значений вершин в буфер
+     *
+     * @param mode способ обновления буфера
+     * @return количество переданных байт
+     */
+    protected long refresh(BufferUpdateMode mode) {
+        final DirtyRanges dirty = staging.dirtyCords;
+        final IntBuffer data = staging.getVertexData();
+        final int size = data.remaining();
+        if (mode == BufferUpdateMode.Orphan) {
+            glBufferData(GL_ARRAY_BUFFER, data, GL_DYNAMIC_DRAW);
+            capacity = 0;
+            dirty.clear();
+            return 4L * size;
+        }
+        if (size > capacity) {
+            capacity = Math.max(size, capacity + (capacity >> 1));
+            glBufferData(GL_ARRAY_BUFFER, 4L * capacity, GL_DYNAMIC_DRAW);
+            glBufferSubData(GL_ARRAY_BUFFER, 0, data);
+            dirty.clear();
+            return 4L * size;
+        }
+        long uploaded = 0;
+        for (int i = 0; i < dirty.count(); i++) {
+            final int from = dirty.from(i), to = Math.min(dirty.to(i), size);
+            if (from >= to) continue;
+            glBufferSubData(GL_ARRAY_BUFFER, 4L * from, staging.getVertexData(from, to));
+            uploaded += 4L * (to - from);
+        }
+        dirty.clear();
+        return uploaded;
     }
 
-    protected void refresh() {
-        glBufferData(GL_ARRAY_BUFFER, dataTranslation.getCords(), GL_DYNAMIC_DRAW);
+    int getId() {
+        return id;
     }
 
     protected void bind() {
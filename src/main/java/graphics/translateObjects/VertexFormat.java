@@ -0,0 +1,77 @@
+package graphics.translateObjects;
+
+/**
+ * Формат вершины в VBO.
+ * Full - 6 float (24 байта): координата, текстурная координата, id стороны.
+ * Packed - 2 uint (8 байт): координата внутри чанка, сторона и плитка атласа в первом, координата чанка во втором.
+ * В Packed помещаются только чанки с координатами PACKED_CHUNK_MIN..PACKED_CHUNK_MAX по каждой оси
+ * (±8192 блока) и плитки 0..PACKED_TILE_MAX, для остальных упаковка бросает IllegalArgumentException
+ */
+public enum VertexFormat {
+    Full(6, "vertexShader"),
+    Packed(2, "packedVertexShader");
+
+    /**
+     * Диапазон координаты чанка в Packed: 10 бит со знаком
+     */
+    public static final int PACKED_CHUNK_MIN = -512, PACKED_CHUNK_MAX = 511;
+    /**
+     * Наибольшая плитка атласа (id стороны) в Packed: 8 бит
+     */
+    public static final int PACKED_TILE_MAX = 255;
+
+    /**
+     * Размер вершины в 4-байтных словах
+     */
+    public final int size;
+    /**
+     * Вершинный шейдер, читающий этот формат
+     */
+    public final String vertexShader;
+
+    VertexFormat(int size, String vertexShader) {
+        this.size = size;
+        this.vertexShader = vertexShader;
+    }
+
+    /**
+     * Описание атрибутов вершины для VAO
+     */
+    void link(VAO vao, VBO vbo) {
+        link(vao, vbo.getId());
+    }
+
+    /**
+     * Привязка атрибутов формата к буферу вершин buffer
+     */
+    void link(VAO vao, int buffer) {
+        switch (this) {
+            case Full -> {
+                vao.LinkAttrib(buffer, 0, 24, 0);
+                vao.LinkAttrib(buffer, 1, 24, 12);
+                vao.LinkAttrib(buffer, 2, 24, 20);
+            }
+            case Packed -> vao.LinkAttribI(buffer, 3, 2, 8, 0);
+        }
+    }
+
+    /**
+     * Упаковка координаты внутри чанка (0..16, по 5 бит на ось) в первое слово вершины.
+     * Биты 15..17 первого слова занимает сторона, 18..25 - плитка атласа
+     */
+    static int packPosition(int x, int y, int z) {
+        return x | y << 5 | z << 10;
+    }
+
+    /**
+     * Упаковка второго слова вершины: координата чанка, по 10 бит со знаком на ось
+     *
+     * @throws IllegalArgumentException если координата вне PACKED_CHUNK_MIN..PACKED_CHUNK_MAX
+     */
+    static int packChunk(int cx, int cy, int cz) {
+        if (Math.min(cx, Math.min(cy, cz)) < PACKED_CHUNK_MIN || Math.max(cx, Math.max(cy, cz)) > PACKED_CHUNK_MAX)
+            throw new IllegalArgumentException("Чанк (" + cx + ", " + cy + ", " + cz + ") вне диапазона формата Packed "
+                    + PACKED_CHUNK_MIN + ".." + PACKED_CHUNK_MAX);
+        return (cx & 0x3FF) | (cy & 0x3FF) << 10 | (cz & 0x3FF) << 20;
+    }
+}
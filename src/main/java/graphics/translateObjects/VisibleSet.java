@@ -0,0 +1,122 @@
+package graphics.translateObjects;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3fc;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static engine.storage.BlockStorage.CHUNK_SHIFT;
+import static engine.storage.BlockStorage.CHUNK_SIZE;
+import static engine.storage.BlockStorage.chunkX;
+import static engine.storage.BlockStorage.chunkY;
+import static engine.storage.BlockStorage.chunkZ;
+
+/**
+ * Видимые камерой чанки: диапазоны индексов в EBO для отрисовки одним вызовом. Соседние по месту
+ * в буфере видимые чанки сливаются в один диапазон. У каждой камеры свой набор
+ */
+public class VisibleSet {
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private OcclusionCuller occlusion;
+
+    int[] firsts = new int[64], counts = new int[64];
+    int ranges = 0;
+    /**
+     * Видимые сетки в порядке обхода, по ним строятся команды косвенной отрисовки
+     */
+    ChunkMesh[] chunks = new ChunkMesh[64];
+    private int drawnChunks = 0, culledChunks = 0, occludedChunks = 0, drawnIndices = 0;
+
+    /**
+     * Отбор размещённых сеток, ограничивающий параллелепипед чанка которых пересекает пирамиду видимости
+     *
+     * @param viewProjection произведение проекции и вида камеры (Camera.matrix4f)
+     * @param placed         сетки в порядке размещения в буфере
+     */
+    public void cull(Matrix4f viewProjection, List<ChunkMesh> placed) {
+        cull(viewProjection, placed, null, null);
+    }
+
+    /**
+     * Отбор по пирамиде видимости и затем по перекрытию (OcclusionCuller): отбрасываются чанки,
+     * закрытые от камеры непрозрачными блоками
+     *
+     * @param known  сетки всех известных чанков со связностью граней или null без отбора по перекрытию
+     * @param camera положение камеры
+     */
+    public void cull(Matrix4f viewProjection, List<ChunkMesh> placed, Collection<ChunkMesh> known, Vector3fc camera) {
+        frustum.set(viewProjection, false);
+        ranges = drawnChunks = culledChunks = occludedChunks = drawnIndices = 0;
+        boolean occlusionCulling = false;
+        if (known != null) {
+            if (occlusion == null) occlusion = new OcclusionCuller();
+            occlusionCulling = occlusion.run(known, camera, frustum);
+        }
+        int end = -1;
+        for (int i = 0, size = placed.size(); i < size; i++) {
+            final ChunkMesh chunkMesh = placed.get(i);
+            final long key = chunkMesh.key;
+            final float x = chunkX(key) << CHUNK_SHIFT;
+            final float y = chunkY(key) << CHUNK_SHIFT;
+            final float z = chunkZ(key) << CHUNK_SHIFT;
+            if (!frustum.testAab(x, y, z, x + CHUNK_SIZE, y + CHUNK_SIZE, z + CHUNK_SIZE)) {
+                culledChunks++;
+                continue;
+            }
+            if (occlusionCulling && !occlusion.isReachable(key)) {
+                occludedChunks++;
+                continue;
+            }
+            final int first = chunkMesh.placedITexture, count = chunkMesh.mesh.sizeITexture;
+            if (drawnChunks == chunks.length) chunks = Arrays.copyOf(chunks, drawnChunks * 2);
+            chunks[drawnChunks++] = chunkMesh;
+            drawnIndices += count;
+            if (first == end) {
+                counts[ranges - 1] += count;
+            } else {
+                if (ranges == firsts.length) {
+                    firsts = Arrays.copyOf(firsts, ranges * 2);
+                    counts = Arrays.copyOf(counts, ranges * 2);
+                }
+                firsts[ranges] = first;
+                counts[ranges] = count;
+                ranges++;
+            }
+            end = first + count;
+        }
+    }
+
+    public int getRangeCount() {
+        return ranges;
+    }
+
+    public int getFirst(int range) {
+        return firsts[range];
+    }
+
+    public int getCount(int range) {
+        return counts[range];
+    }
+
+    public int getDrawnChunks() {
+        return drawnChunks;
+    }
+
+    public int getCulledChunks() {
+        return culledChunks;
+    }
+
+    /**
+     * @return чанки в пирамиде видимости, отброшенные как перекрытые
+     */
+    public int getOccludedChunks() {
+        return occludedChunks;
+    }
+
+    public int getDrawnIndices() {
+        return drawnIndices;
+    }
+}
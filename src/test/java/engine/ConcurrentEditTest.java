@@ -0,0 +1,86 @@
+package engine;
+
+import engine.entities.Block;
+import engine.storage.BlockStorage;
+import engine.storage.StorageType;
+import graphics.translateObjects.ChunkMesher;
+import graphics.translateObjects.MeshBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentEditTest {
+    private static final int[][] NEIGHBOURS = new int[][]{
+            {0, 0, 1}, {0, 1, 0}, {0, -1, 0}, {0, 0, -1}, {-1, 0, 0}, {1, 0, 0}
+    };
+
+    /**
+     * Сторона блока видима тогда и только тогда, когда соседняя клетка не занята твёрдым блоком
+     */
+    private static void assertFacesConsistent(BlockStorage blocks) {
+        blocks.forEach((x, y, z, id) -> {
+            for (int side = 0; side < 6; side++) {
+                final int[] n = NEIGHBOURS[side];
+                assertEquals(!blocks.isSolid(x + n[0], y + n[1], z + n[2]), blocks.isSideRendered(x, y, z, side),
+                        "block " + x + " " + y + " " + z + " side " + side);
+            }
+        });
+    }
+
+    @Test
+    public void concurrentEditsWhileMeshing() throws InterruptedException {
+        for (StorageType type : StorageType.values()) {
+            final Engine engine = new Engine(null, new Block[0], type);
+            final BlockStorage blocks = engine.blocks;
+            final int threads = 4, edits = type == StorageType.CHUNKED ? 200_000 : 50_000;
+            final AtomicBoolean editing = new AtomicBoolean(true);
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+            final List<Thread> editors = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                editors.add(new Thread(() -> {
+                    final Random random = new Random(seed);
+                    final int[] sides = new int[]{1, 1, 1, 1, 1, 1};
+                    try {
+                        for (int i = 0; i < edits; i++) {
+                            // область 24³ пересекает границы чанков по всем осям
+                            final int x = random.nextInt(24) - 12, y = random.nextInt(24) - 12, z = random.nextInt(24) - 12;
+                            if (random.nextInt(3) == 0) engine.removeBlock(x, y, z);
+                            else engine.setBlock(x, y, z, 1, sides);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }));
+            }
+            editors.forEach(Thread::start);
+
+            final Thread renderer = new Thread(() -> {
+                final ChunkMesher mesher = new ChunkMesher();
+                final MeshBuffer mesh = new MeshBuffer(16, 16);
+                try {
+                    while (editing.get()) blocks.forEachChunk(key -> mesher.mesh(blocks, key, mesh));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            renderer.start();
+            for (Thread editor : editors) editor.join();
+            editing.set(false);
+            renderer.join();
+
+            assertNull(failure.get(), String.valueOf(failure.get()));
+            final int[] counted = new int[1];
+            blocks.forEach((x, y, z, id) -> counted[0]++);
+            assertEquals(counted[0], blocks.size(), type.name());
+            assertFacesConsistent(blocks);
+        }
+    }
+}
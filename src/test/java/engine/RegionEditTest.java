@@ -0,0 +1,163 @@
+package engine;
+
+import engine.entities.Block;
+import engine.storage.BlockStorage;
+import engine.storage.StorageType;
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static engine.storage.BlockAssertions.assertSameBlocks;
+import static engine.storage.BlockStorage.EMPTY;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionEditTest {
+    private static final int[] STONE = new int[]{2, 2, 2, 2, 2, 2}, GRASS = new int[]{0, 0, 0, 0, 0, 0};
+
+    @Test
+    public void bulkEditsMatchSingleEdits() {
+        for (StorageType type : StorageType.values()) {
+            final Engine single = new Engine(null, new Block[0], type);
+            final Engine bulk = new Engine(null, new Block[0], type);
+            for (int x = -20; x < 20; x++)
+                for (int z = -20; z < 20; z++) single.setBlock(x, 0, z, 1, GRASS);
+            bulk.fillBox(-20, 0, -20, 19, 0, 19, 1, GRASS);
+            assertSameBlocks(single.blocks, bulk.blocks);
+
+            for (int y = 1; y <= 5; y++)
+                for (int z = -3; z <= 17; z++)
+                    for (int x = -9; x <= 4; x++) single.setBlock(x, y, z, 2, STONE);
+            bulk.fillBox(4, 5, 17, -9, 1, -3, 2, STONE);
+            assertSameBlocks(single.blocks, bulk.blocks);
+
+            for (int y = 0; y <= 3; y++)
+                for (int z = 0; z <= 6; z++)
+                    for (int x = -5; x <= 1; x++) single.removeBlock(x, y, z);
+            bulk.clearRegion(-5, 0, 0, 1, 3, 6);
+            assertSameBlocks(single.blocks, bulk.blocks);
+
+            for (int y = -1; y <= 6; y++)
+                for (int z = -20; z < 20; z++)
+                    for (int x = -20; x < 20; x++)
+                        if (single.blocks.getId(x, y, z) == 2) single.setBlock(x, y, z, 3, GRASS);
+            bulk.replaceRegion(-20, -1, -20, 19, 6, 19, 2, 3, GRASS);
+            assertSameBlocks(single.blocks, bulk.blocks);
+
+            final List<Block> pasted = new ArrayList<>();
+            for (int i = 0; i < 300; i++) pasted.add(new Block(new Vector3i(i % 11 - 5, i % 7, i % 13 - 6), 4, STONE));
+            for (Block block : pasted) single.setBlock(block.cord.x, block.cord.y, block.cord.z, block.id, block.sideIds);
+            bulk.paste(pasted.toArray(new Block[0]));
+            assertSameBlocks(single.blocks, bulk.blocks);
+        }
+    }
+
+    @Test
+    public void oneVersionChangePerChunk() {
+        final Engine engine = new Engine(null, new Block[0]);
+        assertEquals(3 * 3, engine.fillBox(0, 0, 0, 47, 15, 47, 1, STONE));
+        engine.blocks.forEachChunk(key -> assertEquals(1, engine.blocks.getChunkVersion(key)));
+        assertEquals(48 * 16 * 48, engine.blocks.size());
+
+        // соседний чанк меняет версию только из-за своих граничных сторон
+        engine.setBlock(48, 0, 0, 1, STONE);
+        final long neighbour = BlockStorage.chunkKeyOf(48, 0, 0);
+        final int version = engine.blocks.getChunkVersion(neighbour);
+        assertEquals(9 + 1, engine.clearRegion(0, 0, 0, 47, 15, 47));
+        assertEquals(version + 1, engine.blocks.getChunkVersion(neighbour));
+        assertTrue(engine.blocks.isSideRendered(48, 0, 0, 4));
+        assertEquals(9 + 1, engine.fillBox(0, 0, 0, 47, 15, 47, 1, STONE));
+        assertFalse(engine.blocks.isSideRendered(48, 0, 0, 4));
+
+        // разбросанные блоки вставляются по одному, считаются чанки с изменённой версией, в том числе соседние
+        final Block[] sparse = {new Block(new Vector3i(48, 5, 5), 1, STONE), new Block(new Vector3i(1000, 100, 0), 1, STONE)};
+        assertEquals(3, engine.paste(sparse));
+        assertFalse(engine.blocks.isSideRendered(47, 5, 5, 5));
+    }
+
+    @Test
+    public void onlyChangedChunksAreTouched() {
+        final Engine engine = new Engine(null, new Block[0]);
+        engine.fillBox(0, 0, 0, 31, 0, 0, 1, STONE);
+        final long left = BlockStorage.chunkKeyOf(0, 0, 0), right = BlockStorage.chunkKeyOf(16, 0, 0);
+        final int version = engine.blocks.getChunkVersion(left);
+
+        // нет подходящих ячеек и повтор тех же блоков: ни один чанк не меняется
+        assertEquals(0, engine.replaceRegion(0, 0, 0, 31, 0, 0, 7, 2, STONE));
+        assertEquals(0, engine.fillBox(0, 0, 0, 31, 0, 0, 1, STONE));
+        assertEquals(version, engine.blocks.getChunkVersion(left));
+        assertEquals(version, engine.blocks.getChunkVersion(right));
+
+        // правка внутри одного чанка не меняет соседний в той же области
+        assertEquals(1, engine.fillBox(20, 0, 0, 31, 0, 0, 3, STONE));
+        assertEquals(1, engine.replaceRegion(0, 0, 0, 31, 0, 0, 3, 2, STONE));
+        assertEquals(version, engine.blocks.getChunkVersion(left));
+        assertEquals(version + 2, engine.blocks.getChunkVersion(right));
+
+        // замена пустых ячеек заполняет их, уже занятые не трогаются
+        assertEquals(1, engine.replaceRegion(0, 1, 0, 3, 1, 0, EMPTY, 4, GRASS));
+        assertEquals(4, engine.blocks.getId(3, 1, 0));
+        assertEquals(0, engine.replaceRegion(0, 1, 0, 3, 1, 0, EMPTY, 4, GRASS));
+        assertEquals(1, engine.blocks.getId(0, 0, 0));
+        assertEquals(32 + 4, engine.blocks.size());
+    }
+
+    @Test
+    public void invalidBlocksLeaveWorldUntouched() {
+        final Engine engine = new Engine(null, new Block[0]);
+        final int[] invalid = new int[]{0, 0, 0, 0, 0, 70000};
+        final Block[] dense = {new Block(new Vector3i(0, 0, 0), 1, STONE), new Block(new Vector3i(1, 0, 0), 1, STONE),
+                new Block(new Vector3i(2, 0, 0), 1, invalid)};
+        final Block[] sparse = {new Block(new Vector3i(0, 0, 0), 1, STONE), new Block(new Vector3i(5000, 0, 0), 1, invalid)};
+        assertThrows(IllegalArgumentException.class, () -> engine.paste(dense));
+        assertThrows(IllegalArgumentException.class, () -> engine.paste(sparse));
+        assertThrows(IllegalArgumentException.class, () -> engine.fillBox(0, 0, 0, 20, 0, 0, 1, invalid));
+        assertThrows(IllegalArgumentException.class, () -> engine.fillBox(0, 0, 0, 20, 0, 0, 1, new int[5]));
+        assertEquals(0, engine.blocks.size());
+        assertEquals(0, engine.blocks.getChunkVersion(BlockStorage.chunkKeyOf(0, 0, 0)));
+
+        engine.fillBox(0, 0, 0, 3, 0, 0, 1, STONE);
+        final int version = engine.blocks.getChunkVersion(BlockStorage.chunkKeyOf(0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> engine.replaceRegion(0, 0, 0, 3, 0, 0, 1, 2, invalid));
+        assertEquals(4, engine.blocks.size());
+        assertEquals(1, engine.blocks.getId(3, 0, 0));
+        assertEquals(version, engine.blocks.getChunkVersion(BlockStorage.chunkKeyOf(0, 0, 0)));
+    }
+
+    @Test
+    public void layerMatchesSingleEdits() {
+        final int size = 64;
+        final Block[] layer = Engine.generateBlockLayer(new Vector3i(0, 0, 0), size);
+        final Engine single = new Engine(null, new Block[0]);
+        final Engine bulk = new Engine(null, new Block[0]);
+        for (Block block : layer) single.setBlock(block.cord.x, block.cord.y, block.cord.z, block.id, block.sideIds);
+        bulk.paste(layer);
+        assertEquals(size * size, bulk.blocks.size());
+        assertTrue(bulk.blocks.isSideRendered(0, 0, 0, 1));
+        assertFalse(bulk.blocks.isSideRendered(0, 0, 0, 4));
+        assertSameBlocks(single.blocks, bulk.blocks);
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void layerBenchmark() {
+        final int size = 512;
+        final Block[] layer = Engine.generateBlockLayer(new Vector3i(0, 0, 0), size);
+        final Engine single = new Engine(null, new Block[0]);
+        final Engine bulk = new Engine(null, new Block[0]);
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (Block block : layer) single.setBlock(block.cord.x, block.cord.y, block.cord.z, block.id, block.sideIds);
+            final long singleTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            bulk.paste(layer);
+            final long bulkTime = System.nanoTime() - start;
+            System.out.println("layer " + size + "x" + size + "\tsingle=" + singleTime / 1_000_000 + " ms\tbulk="
+                    + bulkTime / 1_000_000 + " ms");
+        }
+        assertEquals(size * size, bulk.blocks.size());
+    }
+}
@@ -0,0 +1,245 @@
+package engine.raycast;
+
+import engine.Engine;
+import engine.entities.Block;
+import engine.storage.BlockStorage;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RayCasterTest {
+
+    /**
+     * Прежний перебор: шаг orientation / 10000, до 1 000 000 шагов, новый Vector3i на каждом шаге
+     */
+    private static Vector3i legacyTrace(BlockStorage blocks, Vector3f orientation, Vector3f position) {
+        final Vector3f dir = new Vector3f(orientation).div(10000);
+        final Vector3f pos = new Vector3f(position);
+        for (int i = 0; i < 100 * 10000; i++) {
+            pos.add(dir);
+            final Vector3i posI = new Vector3i((int) pos.x + (pos.x < 0 ? -1 : 0), (int) pos.y + (pos.y < 0 ? -1 : 0), (int) pos.z + (pos.z < 0 ? -1 : 0));
+            if (blocks.isSolid(posI.x, posI.y, posI.z)) return posI;
+        }
+        return null;
+    }
+
+    private static Vector3f randomDown(Random random) {
+        return new Vector3f(random.nextFloat() * 2 - 1, -0.2f - random.nextFloat(), random.nextFloat() * 2 - 1).normalize();
+    }
+
+    @Test
+    public void faceAndAdjacentCell() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, 0, 0), 8));
+        final RayCaster caster = new RayCaster(engine.blocks);
+        final RayHit hit = new RayHit();
+
+        assertTrue(caster.trace(0.5f, 5.5f, 0.5f, 0, -3, 0, 100, hit));
+        assertEquals(new Vector3i(0, 0, 0), new Vector3i(hit.x, hit.y, hit.z));
+        assertEquals(1, hit.face);
+        assertEquals(new Vector3i(0, 1, 0), new Vector3i(hit.adjacentX, hit.adjacentY, hit.adjacentZ));
+        assertEquals(4.5f, hit.distance, 1e-5f);
+
+        engine.blocks.put(-1, 3, -1, 1, new int[]{1, 1, 1, 1, 1, 1});
+        assertTrue(caster.trace(-3.5f, 3.5f, -0.5f, 1, 0, 0, 100, hit));
+        assertEquals(-1, hit.x);
+        assertEquals(4, hit.face);
+        assertEquals(-2, hit.adjacentX);
+        assertEquals(2.5f, hit.distance, 1e-5f);
+        assertTrue(caster.trace(2.5f, 3.5f, -0.5f, -1, 0, 0, 100, hit));
+        assertEquals(5, hit.face);
+        assertEquals(2.5f, hit.distance, 1e-5f);
+
+        assertFalse(caster.trace(-3.5f, 3.5f, -0.5f, 1, 0, 0, 2.4f, hit));
+        assertFalse(hit.hit);
+        assertFalse(caster.trace(0.5f, 5.5f, 0.5f, 0, 1, 0, 1000, hit));
+        assertFalse(caster.trace(0.5f, 5.5f, 0.5f, 0, 0, 0, 1000, hit));
+
+        assertTrue(caster.trace(0.5f, 0.5f, 0.5f, 0, 1, 0, 100, hit));
+        assertEquals(RayHit.NO_FACE, hit.face);
+        assertEquals(0.0f, hit.distance);
+    }
+
+    @Test
+    public void diagonalEdgeIsNotSkipped() {
+        final Engine engine = new Engine(null, new Block[0]);
+        engine.blocks.put(1, 0, 0, 1, new int[]{1, 1, 1, 1, 1, 1});
+        final RayHit hit = new RayHit();
+        // луч проходит через клетку (1, 0, 0) у самого ребра, почти по диагонали
+        assertTrue(new RayCaster(engine.blocks).trace(0.5f, 0.5f, 0.5f, 1.02f, 0, 1, 10, hit));
+        assertEquals(1, hit.x);
+        assertEquals(4, hit.face);
+    }
+
+    @Test
+    public void agreesWithLegacyStepper() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, 0, 0), 200));
+        final BlockStorage blocks = engine.blocks;
+        final RayCaster caster = new RayCaster(blocks);
+        final RayHit hit = new RayHit();
+        final Random random = new Random(7);
+        final Vector3f origin = new Vector3f(0.3f, 6.7f, -0.4f);
+
+        final int legacyRays = 200;
+        int agree = 0;
+        for (int i = 0; i < legacyRays; i++) {
+            final Vector3f dir = randomDown(random);
+            final Vector3i expected = legacyTrace(blocks, dir, origin);
+            assertEquals(expected != null, caster.trace(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z, 100, hit));
+            if (expected != null && expected.equals(hit.x, hit.y, hit.z)) agree++;
+        }
+        assertTrue(agree >= legacyRays * 0.99, "agree " + agree);
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void traceBenchmark() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, 0, 0), 200));
+        final BlockStorage blocks = engine.blocks;
+        final RayCaster caster = new RayCaster(blocks);
+        final RayHit hit = new RayHit();
+        final Random random = new Random(7);
+        final Vector3f origin = new Vector3f(0.3f, 6.7f, -0.4f);
+
+        final int legacyRays = 200;
+        long legacyTime = 0;
+        for (int i = 0; i < legacyRays; i++) {
+            final Vector3f dir = randomDown(random);
+            final long start = System.nanoTime();
+            legacyTrace(blocks, dir, origin);
+            legacyTime += System.nanoTime() - start;
+        }
+
+        final int rays = 200_000;
+        final float[] dirs = new float[rays * 3];
+        for (int i = 0; i < rays; i++) {
+            final Vector3f dir = randomDown(random);
+            dirs[i * 3] = dir.x;
+            dirs[i * 3 + 1] = dir.y;
+            dirs[i * 3 + 2] = dir.z;
+        }
+        int hits = 0;
+        long start = 0;
+        for (int round = -1; round < 1; round++) {
+            if (round == 0) start = System.nanoTime();
+            for (int i = 0; i < rays; i++)
+                if (caster.trace(origin.x, origin.y, origin.z, dirs[i * 3], dirs[i * 3 + 1], dirs[i * 3 + 2], 100, hit)) hits++;
+        }
+        final long time = System.nanoTime() - start;
+        System.out.println("ray\tlegacy=" + legacyTime / legacyRays / 1000 + " us/ray\tdda=" + time / rays + " ns/ray");
+        assertEquals(2 * rays, hits);
+    }
+
+    private static RayBatch randomBatch() {
+        final Random random = new Random(11);
+        final RayBatch batch = new RayBatch(100_000);
+        while (batch.count < batch.capacity) {
+            final Vector3f dir = randomDown(random);
+            batch.add(random.nextFloat() * 100 - 50, 2 + random.nextFloat() * 10, random.nextFloat() * 100 - 50, dir.x, dir.y, dir.z);
+        }
+        return batch;
+    }
+
+    @Test
+    public void batchMatchesSingleRays() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, 0, 0), 200));
+        final RayCaster caster = new RayCaster(engine.blocks);
+        final RayBatch batch = randomBatch();
+        engine.queryRays(batch, 100);
+
+        final RayHit hit = new RayHit();
+        for (int i = 0; i < batch.count; i += 97) {
+            assertEquals(caster.trace(batch.origins[i * 3], batch.origins[i * 3 + 1], batch.origins[i * 3 + 2],
+                    batch.directions[i * 3], batch.directions[i * 3 + 1], batch.directions[i * 3 + 2], 100, hit), batch.hits[i]);
+            assertEquals(hit.x, batch.cells[i * 3]);
+            assertEquals(hit.y, batch.cells[i * 3 + 1]);
+            assertEquals(hit.z, batch.cells[i * 3 + 2]);
+            assertEquals(hit.face, batch.faces[i]);
+            assertEquals(hit.distance, batch.distances[i]);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void batchThroughputBenchmark() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, 0, 0), 200));
+        final RayCaster caster = new RayCaster(engine.blocks);
+        final RayBatch batch = randomBatch();
+        final ForkJoinPool singleThread = new ForkJoinPool(1);
+        long single = 0, parallel = 0;
+        for (int round = 0; round < 6; round++) {
+            long start = System.nanoTime();
+            caster.traceBatch(batch, 100, singleThread);
+            if (round >= 2) single += System.nanoTime() - start;
+            start = System.nanoTime();
+            engine.queryRays(batch, 100);
+            if (round >= 2) parallel += System.nanoTime() - start;
+        }
+        singleThread.shutdown();
+        System.out.println("batch\trays=" + batch.count + "\tsingle=" + (long) (4.0 * batch.count / single * 1e9) + " rays/s\tparallel="
+                + (long) (4.0 * batch.count / parallel * 1e9) + " rays/s\tcores=" + Runtime.getRuntime().availableProcessors());
+    }
+
+    @Test
+    public void invalidDistanceAndStaleMisses() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, 0, 0), 20));
+        final RayCaster caster = new RayCaster(engine.blocks);
+        final RayHit hit = new RayHit();
+        // без конечной дальности промах не завершился бы
+        for (float distance : new float[]{Float.POSITIVE_INFINITY, Float.NaN, -1f}) {
+            assertThrows(IllegalArgumentException.class, () -> caster.trace(0.5f, 5, 0.5f, 0, 1, 0, distance, hit));
+            assertThrows(IllegalArgumentException.class, () -> engine.setRayDistance(distance));
+            assertThrows(IllegalArgumentException.class, () -> engine.queryRays(new RayBatch(1), distance));
+        }
+
+        final RayBatch batch = new RayBatch(2);
+        batch.add(3.5f, 5, 3.5f, 0, -1, 0);
+        batch.add(3.5f, 5, 3.5f, 0, 1, 0);
+        engine.queryRays(batch, 100);
+        assertTrue(batch.hits[0]);
+        assertFalse(batch.hits[1]);
+        assertEquals(0, batch.cells[3]);
+        assertEquals(0, batch.cells[4]);
+        assertEquals(RayHit.NO_FACE, batch.faces[1]);
+        assertEquals(Float.POSITIVE_INFINITY, batch.distances[1]);
+
+        // тот же пакет с лучами вверх: прежние попадания не остаются в результатах
+        batch.clear();
+        batch.add(3.5f, 5, 3.5f, 0, 1, 0);
+        engine.queryRays(batch, 100);
+        assertFalse(batch.hits[0]);
+        assertEquals(0, batch.cells[0]);
+        assertEquals(0, batch.cells[1]);
+        assertEquals(0, batch.cells[2]);
+        assertEquals(RayHit.NO_FACE, batch.faces[0]);
+    }
+
+    @Test
+    public void invalidOriginIsRejected() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, 0, 0), 20));
+        final RayCaster caster = new RayCaster(engine.blocks);
+        final RayHit hit = new RayHit();
+        // из бесконечного начала обход не завершился бы, из NaN находил бы блок с расстоянием NaN
+        for (float bad : new float[]{Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NaN, 1e30f}) {
+            assertThrows(IllegalArgumentException.class, () -> caster.trace(bad, 5, 0.5f, 0, -1, 0, 100, hit));
+            assertThrows(IllegalArgumentException.class, () -> caster.trace(0.5f, bad, 0.5f, 0, -1, 0, 100, hit));
+            assertThrows(IllegalArgumentException.class, () -> caster.trace(0.5f, 5, bad, 0, -1, 0, 100, hit));
+            final RayBatch batch = new RayBatch(1);
+            assertThrows(IllegalArgumentException.class, () -> batch.add(bad, 5, 0.5f, 0, -1, 0));
+            assertEquals(0, batch.count);
+        }
+
+        // луч, записанный в пакет в обход add, прерывает пакет, а не зависает под блокировкой мира
+        final RayBatch batch = new RayBatch(1);
+        batch.add(0.5f, 5, 0.5f, 0, -1, 0);
+        batch.origins[1] = Float.NaN;
+        assertThrows(IllegalArgumentException.class, () -> engine.queryRays(batch, 100));
+        engine.setBlock(0, 3, 0, 1, new int[]{0, 0, 0, 0, 0, 0});
+        assertTrue(engine.blocks.contains(0, 3, 0));
+    }
+}
@@ -0,0 +1,165 @@
+package engine.region;
+
+import engine.Engine;
+import engine.entities.Block;
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static engine.storage.BlockAssertions.assertSameBlocks;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EditJournalTest {
+    private static final int[] STONE = new int[]{2, 2, 2, 2, 2, 2}, GRASS = new int[]{0, 1, 2, 3, 4, 5};
+
+    @TempDir
+    Path dir;
+
+    private static Engine startWorld() {
+        return new Engine(null, Engine.generateBlockLayer(new Vector3i(0, -2, 0), 25));
+    }
+
+    private static void edit(Engine engine, int seed) {
+        for (int i = 0; i < 40; i++) engine.setBlock(i - 20, -1, seed, 3, GRASS);
+        for (int i = 0; i < 10; i++) engine.removeBlock(i, -2, i - seed);
+        engine.fillBox(-5, 0, -5, 5, 2, 5, 2, STONE);
+        engine.clearRegion(-2, 1, -2, 2, 2, 2);
+    }
+
+    @Test
+    public void replayRestoresEdits() throws IOException {
+        final Engine engine = startWorld();
+        assertEquals(0, engine.attachJournal(EditJournal.open(dir)));
+        edit(engine, 3);
+        final EditJournal journal = engine.getJournal();
+        engine.detachJournal();
+        final long records = journal.getRecordCount();
+        assertTrue(records > 0);
+
+        final Engine restored = startWorld();
+        assertEquals(records, restored.attachJournal(EditJournal.open(dir)));
+        assertSameBlocks(engine.blocks, restored.blocks);
+        restored.detachJournal();
+    }
+
+    @Test
+    public void snapshotCompactsJournal() throws IOException {
+        final Engine engine = startWorld();
+        engine.attachJournal(EditJournal.open(dir));
+        edit(engine, 1);
+        engine.snapshotJournal();
+        edit(engine, 7);
+        final EditJournal journal = engine.getJournal();
+        engine.detachJournal();
+        final long written = journal.getRecordCount();
+        assertEquals(1, journal.getSnapshotCount());
+
+        assertTrue(Files.exists(dir.resolve("snapshot-1.region")));
+        assertTrue(Files.exists(dir.resolve("journal-1.log")));
+        assertFalse(Files.exists(dir.resolve("journal-0.log")));
+
+        // снимок заменяет начальные блоки, поэтому начальный мир может быть любым
+        final Engine restored = new Engine(null, new Block[]{new Block(new Vector3i(100, 100, 100), 1, STONE)});
+        final int replayed = restored.attachJournal(EditJournal.open(dir));
+        assertTrue(replayed > 0 && replayed < written);
+        assertSameBlocks(engine.blocks, restored.blocks);
+        restored.detachJournal();
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        final Engine engine = startWorld();
+        engine.attachJournal(EditJournal.open(dir));
+        edit(engine, 2);
+        engine.detachJournal();
+
+        final Path log = dir.resolve("journal-0.log");
+        final long size = Files.size(log);
+        Files.write(log, new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 5, 6, 7}, StandardOpenOption.APPEND);
+
+        final Engine restored = startWorld();
+        restored.attachJournal(EditJournal.open(dir));
+        assertEquals(size, Files.size(log));
+        assertSameBlocks(engine.blocks, restored.blocks);
+        restored.setBlock(30, 0, 30, 1, STONE);
+        engine.setBlock(30, 0, 30, 1, STONE);
+        restored.detachJournal();
+
+        final Engine again = startWorld();
+        again.attachJournal(EditJournal.open(dir));
+        assertSameBlocks(engine.blocks, again.blocks);
+        again.detachJournal();
+    }
+
+    @Test
+    public void journalAndMappedWorldAreExclusive() throws IOException {
+        final Engine engine = startWorld();
+        final Path journalDir = Files.createDirectory(dir.resolve("journal"));
+        try (MappedWorld world = MappedWorld.create(dir.resolve("world.map"), 64)) {
+            engine.attachWorld(world);
+            final EditJournal journal = EditJournal.open(journalDir);
+            assertThrows(IllegalStateException.class, () -> engine.attachJournal(journal));
+            journal.close();
+            engine.detachWorld();
+        }
+        engine.attachJournal(EditJournal.open(journalDir));
+        try (MappedWorld world = MappedWorld.create(dir.resolve("other.map"), 64)) {
+            assertThrows(IllegalStateException.class, () -> engine.attachWorld(world));
+        }
+        engine.detachJournal();
+    }
+
+    @Test
+    public void concurrentEditsShareGroupCommits() throws Exception {
+        final EditJournal journal = EditJournal.open(dir);
+        journal.recover(new EditJournal.Replay() {
+            @Override
+            public void put(int x, int y, int z, int id, int[] sideIds) {
+            }
+
+            @Override
+            public void remove(int x, int y, int z) {
+            }
+        });
+        final int threads = 4, perThread = 20_000;
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    if (i % 4 == 3) journal.logRemove(i, id, 0);
+                    else journal.logPut(i, id, 0, 1, STONE);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+        journal.sync();
+        assertEquals(threads * perThread, journal.getRecordCount());
+        assertTrue(journal.getGroupCount() < journal.getRecordCount() / 10);
+        journal.close();
+
+        final int[] counts = new int[2];
+        final EditJournal reopened = EditJournal.open(dir);
+        reopened.recover(new EditJournal.Replay() {
+            @Override
+            public void put(int x, int y, int z, int id, int[] sideIds) {
+                assertArrayEquals(STONE, sideIds);
+                counts[0]++;
+            }
+
+            @Override
+            public void remove(int x, int y, int z) {
+                counts[1]++;
+            }
+        });
+        assertEquals(threads * perThread * 3 / 4, counts[0]);
+        assertEquals(threads * perThread / 4, counts[1]);
+        reopened.close();
+    }
+}
@@ -0,0 +1,153 @@
+package engine.region;
+
+import engine.Engine;
+import engine.entities.Block;
+import engine.storage.BlockStorage;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static engine.storage.BlockAssertions.assertSameBlocks;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedWorldTest {
+    private static final int[] STONE = new int[]{2, 2, 2, 2, 2, 2}, GRASS = new int[]{0, 1, 2, 3, 4, 5};
+
+    @TempDir
+    Path dir;
+
+    private static void build(Engine engine) {
+        engine.fillBox(-64, 0, -64, 63, 2, 63, 2, STONE);
+        engine.fillBox(-64, 3, -64, 63, 3, 63, 1, GRASS);
+    }
+
+    @Test
+    public void pagingKeepsResidentSetBounded() throws IOException {
+        final Path path = dir.resolve("world.map");
+        final Engine reference = new Engine(null, new Block[0]);
+        build(reference);
+
+        final Engine engine = new Engine(null, new Block[0]);
+        build(engine);
+        final MappedWorld world = MappedWorld.create(path, 256);
+        world.setMaxResident(12);
+        world.setLoadRadius(1);
+        engine.setViewerPosition(new Vector3f(0, 0, 0));
+        engine.attachWorld(world);
+        assertEquals(12, world.getResidentCount());
+        assertEquals(64 - 12, world.getEvictedCount());
+        assertEquals(64 - 12, world.getSlotCount());
+
+        // выгруженный чанк подгружается перед правкой
+        assertFalse(engine.blocks.contains(50, 3, 50));
+        engine.setBlock(50, 4, 50, 3, GRASS);
+        reference.setBlock(50, 4, 50, 3, GRASS);
+        assertTrue(engine.blocks.contains(50, 3, 50));
+        engine.clearRegion(-60, 3, 40, -50, 3, 45);
+        reference.clearRegion(-60, 3, 40, -50, 3, 45);
+
+        for (int step = 0; step < 8; step++) {
+            engine.setViewerPosition(new Vector3f(-60 + step * 16, 5, -60 + step * 16));
+            engine.updateResidency();
+            assertTrue(world.getResidentCount() <= 12);
+            assertEquals(world.getResidentCount(), countChunks(engine.blocks));
+        }
+        assertTrue(world.getPageInCount() > 8);
+        engine.detachWorld();
+        assertEquals(0, world.getPendingWriteCount());
+        assertTrue(world.getWriteBackCount() >= 64);
+        System.out.println("mapped world\tresident=" + world.getResidentCount() + "\tevicted=" + world.getEvictedCount()
+                + "\tpage-ins=" + world.getPageInCount() + "\twrite-backs=" + world.getWriteBackCount());
+
+        final Engine reopened = new Engine(null, new Block[0]);
+        try (MappedWorld file = MappedWorld.open(path)) {
+            assertEquals(64, file.getSlotCount());
+            file.setMaxResident(1000);
+            file.setLoadRadius(8);
+            reopened.attachWorld(file);
+            assertEquals(64, file.getPageInCount());
+            assertEquals(0, file.getEvictedCount());
+        }
+        assertSameBlocks(reference.blocks, reopened.blocks);
+    }
+
+    @Test
+    public void pendingCopyIsReadBeforeWriteBack() throws IOException {
+        final Engine engine = new Engine(null, new Block[0]);
+        engine.fillBox(0, 0, 0, 47, 0, 0, 1, GRASS);
+        try (MappedWorld world = MappedWorld.create(dir.resolve("pending.map"), 8)) {
+            world.setMaxResident(1);
+            world.setLoadRadius(0);
+            engine.attachWorld(world);
+            for (int round = 0; round < 20; round++) {
+                engine.setViewerPosition(new Vector3f(round % 3 * 16, 0, 0));
+                engine.updateResidency();
+                assertEquals(1, world.getResidentCount());
+                assertEquals(16, engine.blocks.size());
+            }
+            world.flush(engine.blocks);
+            assertEquals(3, world.getSlotCount());
+        }
+        assertThrows(IllegalArgumentException.class, () -> MappedWorld.create(dir.resolve("empty.map"), 0));
+    }
+
+    @Test
+    public void evictionDoesNotSplitRegionEdit() throws Exception {
+        final Path path = dir.resolve("race.map");
+        final Engine reference = new Engine(null, new Block[0]);
+        build(reference);
+        final Engine engine = new Engine(null, new Block[0]);
+        build(engine);
+        final MappedWorld world = MappedWorld.create(path, 256);
+        world.setMaxResident(1);
+        world.setLoadRadius(0);
+        engine.setViewerPosition(new Vector3f(1000, 0, 1000));
+        engine.attachWorld(world);
+
+        // выгрузка идёт непрерывно, пока правки подкачивают чанки: выгрузка между подкачкой
+        // и записью правки оставила бы в файле только блоки правки
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread evictor = new Thread(() -> {
+            try {
+                while (running.get()) engine.updateResidency();
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        evictor.start();
+        try {
+            for (int round = 0; round < 200; round++) {
+                final int x = (round * 37 % 128) - 64, z = (round * 53 % 128) - 64, id = 3 + round % 2;
+                engine.fillBox(x, 4, z, x + 1, 4, z + 1, id, GRASS);
+                reference.fillBox(x, 4, z, x + 1, 4, z + 1, id, GRASS);
+                engine.replaceRegion(x, 3, z, x, 3, z, 1, 5, STONE);
+                reference.replaceRegion(x, 3, z, x, 3, z, 1, 5, STONE);
+            }
+        } finally {
+            running.set(false);
+            evictor.join(10_000);
+        }
+        assertNull(failure.get());
+        engine.detachWorld();
+
+        final Engine reopened = new Engine(null, new Block[0]);
+        try (MappedWorld file = MappedWorld.open(path)) {
+            file.setMaxResident(1000);
+            file.setLoadRadius(8);
+            reopened.attachWorld(file);
+        }
+        assertSameBlocks(reference.blocks, reopened.blocks);
+    }
+
+    private static int countChunks(BlockStorage blocks) {
+        final int[] count = new int[1];
+        blocks.forEachChunk(key -> count[0]++);
+        return count[0];
+    }
+}
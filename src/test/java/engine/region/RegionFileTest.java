@@ -0,0 +1,156 @@
+package engine.region;
+
+import engine.Engine;
+import engine.entities.Block;
+import engine.storage.BlockStorage;
+import engine.storage.StorageType;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static engine.storage.BlockAssertions.assertSameBlocks;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionFileTest {
+    private static final int[] STONE = new int[]{2, 2, 2, 2, 2, 2}, GRASS = new int[]{0, 1, 2, 3, 4, 5};
+
+    @TempDir
+    Path dir;
+
+    private static Engine world(int size, int height) {
+        final Engine engine = new Engine(null, new Block[0]);
+        engine.fillBox(-size / 2, 0, -size / 2, size / 2 - 1, height - 1, size / 2 - 1, 2, STONE);
+        engine.fillBox(-size / 2, height, -size / 2, size / 2 - 1, height, size / 2 - 1, 1, GRASS);
+        final Random random = new Random(3);
+        for (int i = 0; i < size * 4; i++) {
+            final int x = random.nextInt(size) - size / 2, z = random.nextInt(size) - size / 2;
+            if (i % 3 == 0) engine.removeBlock(x, height, z);
+            else engine.setBlock(x, height + 1 + random.nextInt(3), z, i % 5 == 0 ? -1 : 3, GRASS);
+        }
+        return engine;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final Engine source = world(40, 3);
+        for (boolean compressed : new boolean[]{false, true}) {
+            final Path path = dir.resolve("world" + compressed + ".region");
+            final int chunks = source.save(path, compressed);
+            for (StorageType type : StorageType.values()) {
+                final Engine loaded = new Engine(null, new Block[0], type);
+                try (RegionReader region = RegionReader.open(path)) {
+                    assertEquals(compressed, region.isCompressed());
+                    assertEquals(chunks, region.getChunkCount());
+                    assertEquals(source.blocks.size(), loaded.loadAll(region));
+                    assertEquals(0, loaded.loadAll(region));
+                }
+                assertSameBlocks(source.blocks, loaded.blocks);
+                source.blocks.forEachChunk(key -> assertNotEquals(0, loaded.blocks.getChunkVersion(key)));
+            }
+        }
+    }
+
+    @Test
+    public void lazyLoadAroundPoint() throws IOException {
+        final Engine source = world(96, 2);
+        final Path path = dir.resolve("lazy.region");
+        source.save(path, true);
+
+        final Engine loaded = new Engine(null, new Block[0]);
+        try (RegionReader region = RegionReader.open(path)) {
+            assertEquals(6 * 6, region.getChunkCount());
+            assertEquals(3 * 3, loaded.loadChunksAround(region, 0, 0, 0, 1));
+            assertEquals(9, region.getLoadedCount());
+            assertTrue(loaded.blocks.contains(-16, 0, -16));
+            assertFalse(loaded.blocks.contains(-17, 0, 0));
+            assertFalse(region.isLoaded(BlockStorage.chunkKey(2, 0, 2)));
+            assertEquals(0, loaded.loadChunksAround(region, 3, 1, 3, 1));
+
+            assertEquals(17, loaded.loadChunksAround(region, 0, 0, 0, 2) + loaded.loadChunksAround(region, -48, 0, -48, 0));
+            assertEquals(-1, region.readChunk(BlockStorage.chunkKey(50, 0, 0), loaded.blocks));
+            loaded.loadAll(region);
+        }
+        assertSameBlocks(source.blocks, loaded.blocks);
+    }
+
+    @Test
+    public void rejectsForeignFile() throws IOException {
+        final Path path = dir.resolve("text.region");
+        Files.writeString(path, "Block: cord=[\t0\t0\t0\t],\tid=1,\tsideIds=[0, 0, 0, 0, 0, 0]\n");
+        assertThrows(IOException.class, () -> RegionReader.open(path));
+    }
+
+    @Test
+    public void textFormatRoundTrip() throws IOException {
+        final Engine source = world(24, 2);
+        final Path path = dir.resolve("world.txt");
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            assertEquals(source.blocks.size(), TextWorldFormat.write(source.blocks, writer));
+        }
+        final List<Block> blocks;
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            blocks = TextWorldFormat.read(reader);
+        }
+        // видимость сторон не хранится в тексте и пересчитывается вставкой, как при вставке тех же блоков
+        final Block[] expected = new Block[source.blocks.size()];
+        final int[] count = new int[1];
+        source.blocks.forEach((x, y, z, id) -> expected[count[0]++] = source.blocks.getBlock(x, y, z));
+        assertSameBlocks(new Engine(null, expected).blocks, new Engine(null, blocks.toArray(new Block[0])).blocks);
+
+        final Block block = TextWorldFormat.parse(new Block(new org.joml.Vector3i(-3, 7, 12), -1, GRASS).toString());
+        assertEquals(-3, block.cord.x);
+        assertEquals(12, block.cord.z);
+        assertEquals(-1, block.id);
+        assertArrayEquals(GRASS, block.sideIds);
+        assertThrows(IllegalArgumentException.class, () -> TextWorldFormat.parse("Block: cord=[\t1\t2\t],\tid=1"));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void loadBenchmark() throws IOException {
+        final Engine source = world(256, 4);
+        final Path text = dir.resolve("bench.txt"), raw = dir.resolve("bench.region"), packed = dir.resolve("bench.zregion");
+        try (Writer writer = Files.newBufferedWriter(text)) {
+            TextWorldFormat.write(source.blocks, writer);
+        }
+        source.save(raw, false);
+        source.save(packed, true);
+
+        final int rounds = 3;
+        long textTime = Long.MAX_VALUE, rawTime = Long.MAX_VALUE, packedTime = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            final Engine fromText;
+            try (BufferedReader reader = Files.newBufferedReader(text)) {
+                fromText = new Engine(null, TextWorldFormat.read(reader).toArray(new Block[0]));
+            }
+            textTime = Math.min(textTime, System.nanoTime() - start);
+            assertEquals(source.blocks.size(), fromText.blocks.size());
+
+            for (Path path : new Path[]{raw, packed}) {
+                start = System.nanoTime();
+                final Engine loaded = new Engine(null, new Block[0]);
+                try (RegionReader region = RegionReader.open(path)) {
+                    loaded.loadAll(region);
+                }
+                final long time = System.nanoTime() - start;
+                if (path == raw) rawTime = Math.min(rawTime, time);
+                else packedTime = Math.min(packedTime, time);
+                assertEquals(source.blocks.size(), loaded.blocks.size());
+            }
+        }
+        System.out.println("world load\tblocks=" + source.blocks.size()
+                + "\ttext=" + textTime / 1_000_000 + " ms, " + Files.size(text) / 1024 + " KB"
+                + "\tbinary=" + rawTime / 1_000_000 + " ms, " + Files.size(raw) / 1024 + " KB"
+                + "\tcompressed=" + packedTime / 1_000_000 + " ms, " + Files.size(packed) / 1024 + " KB");
+        assertTrue(Files.size(packed) < Files.size(raw));
+    }
+}
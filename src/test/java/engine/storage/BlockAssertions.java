@@ -0,0 +1,26 @@
+package engine.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Общие проверки хранилищ блоков для тестов
+ */
+public final class BlockAssertions {
+    private BlockAssertions() {
+    }
+
+    /**
+     * Одинаковые блоки: id, id сторон и видимость сторон каждой ячейки
+     */
+    public static void assertSameBlocks(BlockStorage expected, BlockStorage actual) {
+        assertEquals(expected.size(), actual.size());
+        expected.forEach((x, y, z, id) -> {
+            assertEquals(id, actual.getId(x, y, z));
+            for (int side = 0; side < 6; side++) {
+                assertEquals(expected.getSideId(x, y, z, side), actual.getSideId(x, y, z, side));
+                assertEquals(expected.isSideRendered(x, y, z, side), actual.isSideRendered(x, y, z, side),
+                        "block " + x + " " + y + " " + z + " side " + side);
+            }
+        });
+    }
+}
@@ -0,0 +1,300 @@
+package engine.storage;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockStorageTest {
+    private static final int[] SIDES = new int[]{0, 1, 2, 3, 4, 5};
+
+    private static void fill(BlockStorage storage, int size, int height) {
+        for (int y = 0; y < height; y++)
+            for (int z = -size / 2; z < size / 2; z++)
+                for (int x = -size / 2; x < size / 2; x++)
+                    storage.put(x, y, z, y, SIDES);
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void chunkKeyRoundTrip() {
+        final int[] values = new int[]{0, 1, -1, 15, -16, 1048575, -1048576};
+        for (int cx : values)
+            for (int cy : values)
+                for (int cz : values) {
+                    final long key = BlockStorage.chunkKey(cx, cy, cz);
+                    assertEquals(cx, BlockStorage.chunkX(key));
+                    assertEquals(cy, BlockStorage.chunkY(key));
+                    assertEquals(cz, BlockStorage.chunkZ(key));
+                }
+        assertEquals(BlockStorage.chunkKey(-1, 0, -1), BlockStorage.chunkKeyOf(-1, 15, -16));
+    }
+
+    @Test
+    public void storagesAgree() {
+        for (StorageType type : StorageType.values()) {
+            final BlockStorage storage = BlockStorage.create(type);
+            fill(storage, 40, 3);
+            assertEquals(40 * 40 * 3, storage.size(), type.name());
+            assertEquals(2, storage.getId(-20, 2, 19));
+            assertEquals(BlockStorage.EMPTY, storage.getId(20, 0, 0));
+            assertEquals(4, storage.getSideId(-1, 0, -1, 4));
+
+            storage.setSideRendered(-1, 0, -1, 3, false);
+            assertFalse(storage.isSideRendered(-1, 0, -1, 3));
+            assertTrue(storage.isSideRendered(-1, 0, -1, 2));
+
+            final long key = BlockStorage.chunkKeyOf(-1, 0, -1);
+            final int version = storage.getChunkVersion(key);
+            assertTrue(storage.remove(-1, 0, -1));
+            assertFalse(storage.remove(-1, 0, -1));
+            assertNotEquals(version, storage.getChunkVersion(key));
+
+            storage.put(-1, 0, -1, -1, SIDES);
+            assertTrue(storage.contains(-1, 0, -1));
+            assertFalse(storage.isSolid(-1, 0, -1));
+
+            final int[] visited = new int[1];
+            storage.forEach((x, y, z, id) -> {
+                assertEquals(id == -1 ? -1 : y, id);
+                visited[0]++;
+            });
+            assertEquals(storage.size(), visited[0]);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void memoryBenchmark() {
+        final int size = 256, height = 4;
+        for (StorageType type : StorageType.values()) {
+            final List<BlockStorage> keep = new ArrayList<>();
+            final long before = usedMemory();
+            final BlockStorage storage = BlockStorage.create(type);
+            fill(storage, size, height);
+            keep.add(storage);
+            final long used = usedMemory() - before;
+            System.out.println(type + "\tblocks=" + storage.size() + "\tmemory=" + used / 1024 + " KB\t"
+                    + (float) used / storage.size() + " B/block");
+            assertEquals(size * size * height, keep.get(0).size());
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void lookupBenchmark() {
+        final int size = 256, height = 4, rounds = 10;
+        for (StorageType type : StorageType.values()) {
+            final BlockStorage storage = BlockStorage.create(type);
+            fill(storage, size, height);
+            long found = 0;
+            long start = 0;
+            for (int round = -3; round < rounds; round++) {
+                if (round == 0) start = System.nanoTime();
+                for (int y = -1; y <= height; y++)
+                    for (int z = -size / 2; z < size / 2; z++)
+                        for (int x = -size / 2; x < size / 2; x++)
+                            if (storage.isSolid(x, y, z)) found++;
+            }
+            final long lookups = (long) rounds * size * size * (height + 2);
+            System.out.println(type + "\tlookup=" + (float) (System.nanoTime() - start) / lookups + " ns/op");
+            assertEquals((long) (rounds + 3) * size * size * height, found);
+        }
+    }
+
+    private static final int[][] OFFSETS = new int[][]{{0, 0, 1}, {0, 1, 0}, {0, -1, 0}, {0, 0, -1}, {-1, 0, 0}, {1, 0, 0}};
+
+    /**
+     * 27 чанков со случайными твёрдыми и прозрачными (-1) блоками
+     */
+    private static BlockStorage randomChunks() {
+        final BlockStorage storage = BlockStorage.create(StorageType.CHUNKED);
+        final Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            final int x = random.nextInt(48) - 16, y = random.nextInt(48) - 16, z = random.nextInt(48) - 16;
+            storage.put(x, y, z, random.nextInt(8) == 0 ? -1 : 1, SIDES);
+        }
+        return storage;
+    }
+
+    @Test
+    public void faceMasksMatchNeighbourRule() {
+        final BlockStorage storage = randomChunks();
+        final long[] masks = new long[6 * BlockStorage.FACE_MASK_WORDS];
+        final int[] chunks = new int[1];
+        storage.forEachChunk(key -> {
+            assertTrue(storage.computeFaceMasks(key, masks));
+            chunks[0]++;
+            final int baseX = BlockStorage.chunkX(key) << BlockStorage.CHUNK_SHIFT;
+            final int baseY = BlockStorage.chunkY(key) << BlockStorage.CHUNK_SHIFT;
+            final int baseZ = BlockStorage.chunkZ(key) << BlockStorage.CHUNK_SHIFT;
+            for (int index = 0; index < BlockStorage.CHUNK_VOLUME; index++) {
+                final int x = baseX + (index & BlockStorage.CHUNK_MASK), y = baseY + (index >> 2 * BlockStorage.CHUNK_SHIFT),
+                        z = baseZ + (index >> BlockStorage.CHUNK_SHIFT & BlockStorage.CHUNK_MASK);
+                for (int side = 0; side < 6; side++) {
+                    final int[] o = OFFSETS[side];
+                    final boolean expected = storage.contains(x, y, z) && !storage.isSolid(x + o[0], y + o[1], z + o[2]);
+                    final boolean actual = (masks[side * BlockStorage.FACE_MASK_WORDS + (index >> 6)] & 1L << index) != 0;
+                    assertEquals(expected, actual, x + " " + y + " " + z + " side " + side);
+                }
+            }
+        });
+        assertEquals(27, chunks[0]);
+        assertFalse(storage.computeFaceMasks(BlockStorage.chunkKey(10, 10, 10), masks));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void faceMasksBenchmark() {
+        final BlockStorage storage = randomChunks();
+        final long[] masks = new long[6 * BlockStorage.FACE_MASK_WORDS];
+        final int[] chunks = new int[1];
+        storage.forEachChunk(key -> chunks[0]++);
+        final int rounds = 200;
+        long start = 0;
+        for (int round = -20; round < rounds; round++) {
+            if (round == 0) start = System.nanoTime();
+            storage.forEachChunk(key -> storage.computeFaceMasks(key, masks));
+        }
+        final float bitsets = (float) (System.nanoTime() - start) / rounds / chunks[0];
+        start = 0;
+        long visible = 0;
+        for (int round = -2; round < rounds / 20; round++) {
+            if (round == 0) start = System.nanoTime();
+            for (int y = -16; y < 32; y++)
+                for (int z = -16; z < 32; z++)
+                    for (int x = -16; x < 32; x++) {
+                        if (!storage.contains(x, y, z)) continue;
+                        for (int[] o : OFFSETS) if (!storage.isSolid(x + o[0], y + o[1], z + o[2])) visible++;
+                    }
+        }
+        final float cells = (float) (System.nanoTime() - start) / (rounds / 20) / chunks[0];
+        System.out.println("face masks\tbitsets=" + bitsets + " ns/chunk\tper-cell=" + cells + " ns/chunk");
+        assertTrue(visible > 0);
+    }
+
+    @Test
+    public void invalidSideIdsLeaveCellUntouched() {
+        final ChunkedBlockStorage storage = new ChunkedBlockStorage();
+        storage.put(1, 2, 3, 7, SIDES);
+        final int version = storage.getChunkVersion(BlockStorage.chunkKeyOf(1, 2, 3));
+        final int[] invalid = new int[]{0, 1, 2, 3, 4, Short.MAX_VALUE + 1};
+        assertThrows(IllegalArgumentException.class, () -> storage.put(5, 5, 5, 9, invalid));
+        assertThrows(IllegalArgumentException.class, () -> storage.putUnversioned(1, 2, 3, 9, invalid, 0));
+        assertThrows(IllegalArgumentException.class, () -> storage.put(6, 5, 5, 9, new int[5]));
+        assertEquals(1, storage.size());
+        assertFalse(storage.contains(5, 5, 5));
+        assertFalse(storage.isSolid(5, 5, 5));
+        assertEquals(7, storage.getId(1, 2, 3));
+        assertEquals(5, storage.getSideId(1, 2, 3, 5));
+        assertEquals(version, storage.getChunkVersion(BlockStorage.chunkKeyOf(1, 2, 3)));
+    }
+
+    @Test
+    public void boundarySolidChangeBumpsNeighbourVersion() {
+        final ChunkedBlockStorage storage = new ChunkedBlockStorage();
+        storage.put(15, 0, 0, 1, SIDES);
+        storage.put(16, 0, 0, 1, SIDES);
+        final long neighbour = BlockStorage.chunkKeyOf(16, 0, 0), inner = BlockStorage.chunkKeyOf(-1, 0, 0);
+        storage.put(-1, 5, 5, 1, SIDES);
+        final long[] masks = new long[6 * BlockStorage.FACE_MASK_WORDS];
+        storage.computeFaceMasks(neighbour, masks);
+        final long[] before = masks.clone();
+
+        // твёрдый блок на границе заменён прозрачным: маски соседа меняются вместе с его версией
+        int version = storage.getChunkVersion(neighbour);
+        storage.put(15, 0, 0, -1, SIDES);
+        assertEquals(version + 1, storage.getChunkVersion(neighbour));
+        storage.computeFaceMasks(neighbour, masks);
+        assertFalse(Arrays.equals(before, masks));
+
+        // прозрачный заменён прозрачным: твёрдость не изменилась, версия соседа тоже
+        version = storage.getChunkVersion(neighbour);
+        storage.put(15, 0, 0, -1, SIDES);
+        assertEquals(version, storage.getChunkVersion(neighbour));
+
+        storage.put(15, 0, 0, 1, SIDES);
+        assertEquals(version + 1, storage.getChunkVersion(neighbour));
+        storage.remove(15, 0, 0);
+        assertEquals(version + 2, storage.getChunkVersion(neighbour));
+
+        // ячейка не на границе соседа не меняет его версию
+        version = storage.getChunkVersion(inner);
+        storage.put(8, 8, 8, 1, SIDES);
+        storage.remove(8, 8, 8);
+        assertEquals(version, storage.getChunkVersion(inner));
+    }
+
+    @Test
+    public void evictionAndLoadBumpNeighbourVersions() {
+        final ChunkedBlockStorage storage = new ChunkedBlockStorage();
+        storage.put(15, 0, 0, 1, SIDES);
+        storage.put(16, 0, 0, 1, SIDES);
+        final long loaded = BlockStorage.chunkKeyOf(16, 0, 0), neighbour = BlockStorage.chunkKeyOf(15, 0, 0);
+        final long[] masks = new long[6 * BlockStorage.FACE_MASK_WORDS];
+        storage.computeFaceMasks(neighbour, masks);
+        final long[] covered = masks.clone();
+
+        // выгрузка открывает грань соседа на границе
+        int version = storage.getChunkVersion(neighbour);
+        assertTrue(storage.evictChunk(loaded));
+        assertEquals(version + 1, storage.getChunkVersion(neighbour));
+        storage.computeFaceMasks(neighbour, masks);
+        assertFalse(Arrays.equals(covered, masks));
+
+        // загрузка без смены версии закрывает её снова
+        version = storage.getChunkVersion(neighbour);
+        storage.putUnversioned(16, 0, 0, 1, SIDES, 0);
+        assertTrue(storage.touchLoadedChunk(loaded));
+        assertEquals(version + 1, storage.getChunkVersion(neighbour));
+        storage.computeFaceMasks(neighbour, masks);
+        assertArrayEquals(covered, masks);
+
+        // пакетная правка сама решает, версии каких чанков менять
+        version = storage.getChunkVersion(neighbour);
+        assertTrue(storage.touchChunk(loaded));
+        assertEquals(version, storage.getChunkVersion(neighbour));
+    }
+
+    @Test
+    public void evictedChunkIsNotReusedFromCache() throws Exception {
+        final ChunkedBlockStorage storage = new ChunkedBlockStorage();
+        storage.put(1, 1, 1, 1, SIDES);
+        final long key = BlockStorage.chunkKeyOf(1, 1, 1);
+        // поток читает чанк до выгрузки и пишет в те же координаты после неё
+        final CountDownLatch read = new CountDownLatch(1), evicted = new CountDownLatch(1);
+        final int[] seen = new int[2];
+        final Thread editor = new Thread(() -> {
+            seen[0] = storage.getId(1, 1, 1);
+            read.countDown();
+            try {
+                evicted.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            seen[1] = storage.getId(1, 1, 1);
+            storage.put(2, 2, 2, 3, SIDES);
+        });
+        editor.start();
+        read.await();
+        assertTrue(storage.evictChunk(key));
+        evicted.countDown();
+        editor.join(10_000);
+        assertEquals(1, seen[0]);
+        assertEquals(BlockStorage.EMPTY, seen[1]);
+        assertEquals(1, storage.size());
+        assertEquals(3, storage.getId(2, 2, 2));
+        assertNotNull(storage.getChunk(key));
+    }
+}
@@ -0,0 +1,94 @@
+package engine.tick;
+
+import controller.Commands;
+import engine.Engine;
+import engine.entities.Model;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandQueueTest {
+
+    @Test
+    public void boundedQueueRejectsWithoutBlocking() {
+        final long[] clock = new long[1];
+        final CommandQueue queue = new CommandQueue(4, () -> clock[0]);
+        for (int i = 0; i < 4; i++) assertTrue(queue.offer(i, i * 100L, i, 0, 0));
+        assertFalse(queue.offer(9, 0, 0, 0, 0));
+        assertEquals(1, queue.getRejectedCount());
+        assertEquals(4, queue.size());
+
+        clock[0] = 1000;
+        final long[] order = new long[4];
+        final int[] count = new int[1];
+        assertEquals(4, queue.drain((commands, timestamp, x, y, z) -> {
+            assertEquals(commands, (long) x);
+            order[count[0]++] = commands;
+        }));
+        assertArrayEquals(new long[]{0, 1, 2, 3}, order);
+        assertEquals(0, queue.size());
+        assertEquals(4, queue.getMaxDepth());
+        assertEquals((1000 + 900 + 800 + 700) / 4e6f, queue.getAverageLatencyMillis(), 1e-9f);
+        assertEquals(1000 / 1e6f, queue.getMaxLatencyMillis(), 1e-9f);
+
+        // ячейки освобождены и используются повторно
+        assertTrue(queue.offer(5, 1000, 0, 0, 0));
+        assertEquals(1, queue.drain((commands, timestamp, x, y, z) -> assertEquals(5, commands)));
+        assertThrows(IllegalArgumentException.class, () -> new CommandQueue(6));
+    }
+
+    @Test
+    public void producersKeepOrderUnderContention() throws InterruptedException {
+        final CommandQueue queue = new CommandQueue(64);
+        final int producers = 4, perProducer = 50_000;
+        final Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final long id = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; ) {
+                    if (queue.offer(id << 32 | i, System.nanoTime(), id, i, 0)) i++;
+                    else Thread.yield();
+                }
+            });
+            threads[p].start();
+        }
+        final int[] next = new int[producers];
+        int received = 0;
+        final long start = System.nanoTime();
+        while (received < producers * perProducer) {
+            received += queue.drain((commands, timestamp, x, y, z) -> {
+                final int producer = (int) (commands >>> 32);
+                assertEquals(next[producer]++, (int) commands);
+                assertEquals(producer, (int) x);
+            });
+            assertTrue(System.nanoTime() - start < 60_000_000_000L, "очередь зависла");
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(0, queue.size());
+        assertEquals(producers * perProducer, queue.getDrainedCount());
+        System.out.println("command queue\tcommands=" + queue.getDrainedCount() + "\trejected=" + queue.getRejectedCount()
+                + "\tmax depth=" + queue.getMaxDepth() + "\tlatency avg=" + queue.getAverageLatencyMillis()
+                + " ms, max=" + queue.getMaxLatencyMillis() + " ms");
+    }
+
+    @Test
+    public void actionsAreAppliedOncePerPress() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, -2, 0), 5));
+        engine.setModel(new Model(new Vector3f(0, 0, 0), 0.05f));
+        final long remove = Commands.REMOVE.bit();
+        assertEquals(EnumSet.of(Commands.REMOVE, Commands.FORWARD), Commands.fill(remove | Commands.FORWARD.bit(), EnumSet.noneOf(Commands.class)));
+
+        // разовая команда, пришедшая в одном из нескольких кадров, не теряется и не повторяется
+        final int before = engine.blocks.size();
+        assertTrue(engine.submitInput(remove, new Vector3f(0, -1, 0)));
+        assertTrue(engine.submitInput(0, new Vector3f(0, -1, 0)));
+        engine.tick();
+        engine.tick();
+        assertEquals(before - 1, engine.blocks.size());
+        assertEquals(2, engine.getInputQueue().getDrainedCount());
+    }
+}
@@ -0,0 +1,98 @@
+package engine.tick;
+
+import controller.Commands;
+import engine.Engine;
+import engine.entities.Model;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TickSchedulerTest {
+    private static final long STEP = 1_000_000L;
+
+    @Test
+    public void fixedStepIndependentOfCallRate() {
+        final long[] clock = new long[1];
+        final TickScheduler scheduler = new TickScheduler(STEP, 4, () -> clock[0]);
+        final int[] ticks = new int[1];
+        assertEquals(0, scheduler.advance(() -> ticks[0]++));
+
+        // частые вызовы: шаг выполняется только по наступлении
+        for (int i = 0; i < 10; i++) {
+            clock[0] += STEP / 4;
+            scheduler.advance(() -> ticks[0]++);
+        }
+        assertEquals(2, ticks[0]);
+        assertEquals(STEP / 2, scheduler.nanosUntilNextTick());
+
+        // редкий вызов догоняет пропущенные шаги
+        clock[0] += STEP * 3;
+        assertEquals(3, scheduler.advance(() -> ticks[0]++));
+        assertEquals(5, scheduler.getTickCount());
+        assertEquals(0, scheduler.getOverrunCount());
+        assertEquals(0, scheduler.getDroppedCount());
+
+        // отставание больше maxCatchUp отбрасывается
+        clock[0] += STEP * 10;
+        assertEquals(4, scheduler.advance(() -> ticks[0]++));
+        assertEquals(6, scheduler.getDroppedCount());
+        assertEquals(STEP / 2, scheduler.nanosUntilNextTick());
+    }
+
+    @Test
+    public void slowTicksAreCountedAsOverruns() {
+        final long[] clock = new long[1];
+        final TickScheduler scheduler = new TickScheduler(STEP, 2, () -> clock[0]);
+        scheduler.advance(() -> {
+        });
+        clock[0] += STEP;
+        // шаг дольше своей длительности: следующий вызов догоняет не больше maxCatchUp шагов
+        assertEquals(2, scheduler.advance(() -> clock[0] += STEP * 3 / 2));
+        assertEquals(2, scheduler.getOverrunCount());
+        assertEquals(1.5f, scheduler.getMaxTickMillis(), 1e-6f);
+        assertEquals(1.5f, scheduler.getAverageTickMillis(), 1e-6f);
+        assertTrue(scheduler.getDroppedCount() > 0);
+    }
+
+    @Test
+    public void stateInterpolatesBetweenTicks() {
+        final WorldState state = new WorldState(1, 1000, 100, new Vector3f(0, 0, 0), new Vector3f(2, 4, -8), List.of());
+        assertEquals(0f, state.alpha(900));
+        assertEquals(0.5f, state.alpha(1050));
+        assertEquals(1f, state.alpha(5000));
+        assertEquals(new Vector3f(1, 2, -4), state.cameraPosition(0.5f, new Vector3f()));
+    }
+
+    @Test
+    public void engineTickMovesModelByFixedStep() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, -2, 0), 5));
+        final Model model = new Model(new Vector3f(0, 0, 0), 0.05f);
+        engine.setModel(model);
+        final int lights = engine.lightPoints.size();
+
+        // несколько кадров ввода между шагами не ускоряют движение
+        for (int frame = 0; frame < 5; frame++) engine.submitInput(EnumSet.of(Commands.FORWARD, Commands.SPEED_01), new Vector3f(0, 0, 2));
+        engine.tick();
+        engine.tick();
+        assertEquals(0.1f, model.getPosition().z, 1e-6f);
+
+        final WorldState state = engine.getState();
+        assertEquals(2, state.tick);
+        assertEquals(0.05f, state.cameraPosition(0f, new Vector3f()).z, 1e-6f);
+        assertEquals(0.1f, state.cameraPosition(1f, new Vector3f()).z, 1e-6f);
+        assertEquals(lights, state.lights.size());
+        assertThrows(UnsupportedOperationException.class, () -> state.lights.clear());
+
+        // разовая команда выполняется один раз, даже если шагов несколько
+        engine.submitInput(EnumSet.of(Commands.REMOVE), new Vector3f(0, -1, 0));
+        final int before = engine.blocks.size();
+        engine.tick();
+        engine.tick();
+        assertEquals(before - 1, engine.blocks.size());
+    }
+}
@@ -0,0 +1,103 @@
+package graphics.translateObjects;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArenaAllocatorTest {
+
+    @Test
+    public void freeBlocksCoalesce() {
+        final ArenaAllocator arena = new ArenaAllocator(100);
+        final int a = arena.allocate(10), b = arena.allocate(20), c = arena.allocate(30);
+        assertEquals(0, arena.getOffset(a));
+        assertEquals(10, arena.getOffset(b));
+        assertEquals(30, arena.getOffset(c));
+        assertEquals(-1, arena.allocate(41));
+
+        arena.free(a);
+        arena.free(c);
+        assertEquals(2, arena.getFreeBlocks());
+        assertEquals(70, arena.getLargestFree());
+        assertEquals(1f - 70f / 80f, arena.getFragmentation(), 1e-6f);
+        // первый подходящий участок
+        final int d = arena.allocate(5);
+        assertEquals(0, arena.getOffset(d));
+        arena.free(d);
+        arena.free(b);
+        assertEquals(1, arena.getFreeBlocks());
+        assertEquals(100, arena.getLargestFree());
+        assertEquals(0, arena.getUsed());
+        assertThrows(IllegalArgumentException.class, () -> arena.free(b));
+    }
+
+    @Test
+    public void compactionKeepsHandlesAndData() {
+        final int[][] memory = {new int[64]};
+        final ArenaAllocator arena = new ArenaAllocator(64);
+        final int[] handles = new int[8];
+        for (int i = 0; i < 8; i++) {
+            handles[i] = arena.allocate(8);
+            Arrays.fill(memory[0], arena.getOffset(handles[i]), arena.getOffset(handles[i]) + 8, i);
+        }
+        for (int i = 0; i < 8; i += 2) arena.free(handles[i]);
+        assertEquals(32, arena.getUsed());
+        assertEquals(-1, arena.allocate(16));
+
+        // места хватает, но оно раздроблено: арена уплотняется без роста
+        final int[] moved = new int[64];
+        final int big = arena.allocate(16, (from, to, length) -> System.arraycopy(memory[0], from, moved, to, length));
+        memory[0] = moved;
+        assertEquals(64, arena.getCapacity());
+        assertEquals(1, arena.getCompactions());
+        assertEquals(32, arena.getOffset(big));
+        for (int i = 1; i < 8; i += 2) {
+            final int offset = arena.getOffset(handles[i]);
+            for (int j = 0; j < 8; j++) assertEquals(i, memory[0][offset + j]);
+        }
+
+        // места не хватает: арена растёт в полтора раза
+        final int grown = arena.allocate(40, (from, to, length) -> {
+        });
+        assertTrue(grown >= 0);
+        assertEquals(96, arena.getCapacity());
+    }
+
+    @Test
+    public void remeshChurnDoesNotFragment() {
+        final Random random = new Random(7);
+        final int chunks = 500;
+        final ArenaAllocator arena = new ArenaAllocator(1 << 12);
+        final int[] handles = new int[chunks], sizes = new int[chunks];
+        int peak = 0;
+        for (int i = 0; i < chunks; i++) {
+            sizes[i] = 50 + random.nextInt(400);
+            handles[i] = arena.allocate(sizes[i], (from, to, length) -> {
+            });
+        }
+        for (int round = 0; round < 20_000; round++) {
+            final int chunk = random.nextInt(chunks);
+            final int size = 50 + random.nextInt(400);
+            // как в ChunkArena: участок переиспользуется, если новая сетка подходит к нему по размеру
+            if (!ChunkArena.fits(arena.getLength(handles[chunk]), size)) {
+                arena.free(handles[chunk]);
+                handles[chunk] = arena.allocate(size, (from, to, length) -> {
+                });
+            }
+            sizes[chunk] = size;
+            peak = Math.max(peak, arena.getUsed());
+        }
+        int live = 0;
+        for (int size : sizes) live += size;
+        System.out.println("arena\tcapacity=" + arena.getCapacity() + "\tused=" + arena.getUsed() + "\tlive=" + live
+                + "\tfree blocks=" + arena.getFreeBlocks() + "\tfragmentation=" + arena.getFragmentation()
+                + "\tcompactions=" + arena.getCompactions() + "\tmoved=" + arena.getMovedUnits());
+        assertEquals(chunks, arena.getLiveCount());
+        assertTrue(arena.getCapacity() <= 2 * peak, "арена выросла больше чем вдвое относительно занятого");
+        assertTrue(arena.getUsed() < 2 * live);
+        assertTrue(arena.getCompactions() > 0);
+    }
+}
@@ -0,0 +1,299 @@
+package graphics.translateObjects;
+
+import engine.Engine;
+import engine.entities.Block;
+import engine.storage.BlockStorage;
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkMesherTest {
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static Engine filledChunk() {
+        final int[] sides = new int[]{0, 1, 2, 3, 4, 5};
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(8, 0, 8), 16));
+        for (int y = 0; y < 16; y += 2)
+            for (int z = 0; z < 16; z++)
+                for (int x = (y + z) & 1; x < 16; x += 2)
+                    engine.blocks.put(x, y, z, 1, sides);
+        return engine;
+    }
+
+    private static MeshBuffer meshWorld(BlockStorage blocks, MeshingMode mode) {
+        return meshWorld(blocks, mode, VertexFormat.Full);
+    }
+
+    private static MeshBuffer meshWorld(BlockStorage blocks, MeshingMode mode, VertexFormat format) {
+        final ChunkMesher mesher = new ChunkMesher(mode);
+        final MeshBuffer chunkMesh = new MeshBuffer(format, 16, 16), world = new MeshBuffer(format, 16, 16);
+        blocks.forEachChunk(key -> {
+            mesher.mesh(blocks, key, chunkMesh);
+            world.append(chunkMesh);
+        });
+        return world;
+    }
+
+    private static float value(MeshBuffer mesh, int index) {
+        return Float.intBitsToFloat(mesh.vertexData[index]);
+    }
+
+    /**
+     * Координата упакованной вершины, восстановленная так же, как в packedVertexShader
+     */
+    private static int unpack(MeshBuffer mesh, int vertex, int axis) {
+        final int word = mesh.vertexData[vertex * 2], chunk = mesh.vertexData[vertex * 2 + 1];
+        return (chunk << (22 - 10 * axis) >> 22) * 16 + (word >> 5 * axis & 31);
+    }
+
+    /**
+     * Суммарная площадь сторон: для объединённых прямоугольников берётся из текстурной координаты вершины c
+     */
+    private static float faceArea(MeshBuffer mesh) {
+        float area = 0;
+        for (int vertex = 0; vertex < mesh.verticesCount; vertex += 4) {
+            final int c = (vertex + 2) * mesh.format.size;
+            area += value(mesh, c + 5) >= MeshBuffer.TILED_ID_OFFSET ? value(mesh, c + 3) * value(mesh, c + 4) : 1;
+        }
+        return area;
+    }
+
+    @Test
+    public void greedyReduction() {
+        final Engine layer = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, -2, 0), 25));
+        final Engine terrain = new Engine(null, new Block[0]);
+        final int[] grass = new int[]{0, 0, 0, 0, 0, 0}, stone = new int[]{2, 2, 2, 2, 2, 2};
+        for (int y = 0; y < 3; y++)
+            for (int z = -32; z < 32; z++)
+                for (int x = -32; x < 32; x++)
+                    terrain.blocks.put(x, y - (x * x + z * z < 200 ? 1 : 0), z, y, y == 2 ? grass : stone);
+        final Engine recomputed = new Engine(null, toBlocks(terrain.blocks));
+
+        for (Engine engine : new Engine[]{layer, recomputed}) {
+            final MeshBuffer simple = meshWorld(engine.blocks, MeshingMode.Simple);
+            final MeshBuffer greedy = meshWorld(engine.blocks, MeshingMode.Greedy);
+            System.out.println("greedy\tblocks=" + engine.blocks.size()
+                    + "\tvertices " + simple.getVerticesCount() + " -> " + greedy.getVerticesCount()
+                    + "\tindices " + simple.getIndicesTextureCount() + " -> " + greedy.getIndicesTextureCount());
+            assertEquals(faceArea(simple), faceArea(greedy));
+            assertTrue(greedy.getVerticesCount() * 4 < simple.getVerticesCount());
+        }
+    }
+
+    private static Block[] toBlocks(BlockStorage blocks) {
+        final List<Block> result = new ArrayList<>();
+        blocks.forEach((x, y, z, id) -> result.add(blocks.getBlock(x, y, z)));
+        return result.toArray(new Block[0]);
+    }
+
+    @Test
+    public void parallelPipeline() throws InterruptedException {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, 0, 0), 200));
+        final BlockStorage blocks = engine.blocks;
+        final MeshingPipeline pipeline = new MeshingPipeline(MeshingMode.Simple, 4);
+        final List<ChunkMesh> chunkMeshes = new ArrayList<>();
+        blocks.forEachChunk(key -> {
+            final ChunkMesh chunkMesh = new ChunkMesh(key);
+            chunkMeshes.add(chunkMesh);
+            pipeline.submit(blocks, chunkMesh, blocks.getChunkVersion(key));
+        });
+        while (pipeline.inFlight() > 0) {
+            pipeline.collect();
+            Thread.sleep(1);
+        }
+        pipeline.shutdown();
+
+        int vertices = 0;
+        for (ChunkMesh chunkMesh : chunkMeshes) {
+            assertFalse(chunkMesh.pending);
+            assertEquals(blocks.getChunkVersion(chunkMesh.key), chunkMesh.version);
+            vertices += chunkMesh.getMesh().getVerticesCount();
+        }
+        assertEquals(meshWorld(blocks, MeshingMode.Simple).getVerticesCount(), vertices);
+    }
+
+    @Test
+    public void blockFaces() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, -2, 0), 25));
+        final BlockStorage blocks = engine.blocks;
+        final MeshBuffer mesh = new MeshBuffer(16, 16);
+        final ChunkMesher mesher = new ChunkMesher();
+        blocks.forEach((x, y, z, id) -> mesher.transferBlock(mesh, blocks, x, y, z));
+
+        final int faces = 25 * 25 * 2 + 25 * 4;
+        assertEquals(faces * 4, mesh.getVerticesCount());
+        assertEquals(faces * 6, mesh.getIndicesTextureCount());
+        assertEquals(faces * 4 * VertexFormat.Full.size, mesh.sizeC);
+    }
+
+    @Test
+    public void packedFormat() {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(0, -2, 0), 40));
+        for (MeshingMode mode : MeshingMode.values()) {
+            final MeshBuffer full = meshWorld(engine.blocks, mode, VertexFormat.Full);
+            final MeshBuffer packed = meshWorld(engine.blocks, mode, VertexFormat.Packed);
+            System.out.println("packed	" + mode + "	vertex bytes " + 4 * full.sizeC + " -> " + 4 * packed.sizeC);
+            assertEquals(full.getVerticesCount(), packed.getVerticesCount());
+            assertEquals(3 * packed.sizeC, full.sizeC);
+            for (int vertex = 0; vertex < full.getVerticesCount(); vertex++)
+                for (int axis = 0; axis < 3; axis++)
+                    assertEquals(value(full, vertex * 6 + axis), unpack(packed, vertex, axis));
+        }
+    }
+
+    @Test
+    public void zeroAllocationPerBlock() {
+        final Engine engine = filledChunk();
+        final BlockStorage blocks = engine.blocks;
+        final long key = BlockStorage.chunkKey(0, 0, 0);
+        final ChunkMesher mesher = new ChunkMesher();
+        final MeshBuffer mesh = new MeshBuffer(16, 16);
+        for (int i = 0; i < 2000; i++) mesher.mesh(blocks, key, mesh);
+
+        final int rounds = 1000;
+        final long before = allocatedBytes();
+        for (int i = 0; i < rounds; i++) mesher.mesh(blocks, key, mesh);
+        final long allocated = allocatedBytes() - before;
+
+        final double perBlock = (double) allocated / rounds / blocks.size();
+        assertTrue(perBlock < 0.1, "allocation per block: " + perBlock);
+    }
+
+    @Test
+    public void lodMeshes() {
+        final Engine terrain = new Engine(null, new Block[0]);
+        final BlockStorage blocks = terrain.blocks;
+        final int[] stone = new int[]{2, 2, 2, 2, 2, 2};
+        for (int z = -32; z < 32; z++)
+            for (int x = -32; x < 32; x++)
+                for (int y = -16, height = 4 + ((x * 7 + z * 13) & 7); y < height; y++) blocks.put(x, y, z, 2, stone);
+
+        final ChunkMesher mesher = new ChunkMesher();
+        final MeshBuffer mesh = new MeshBuffer(16, 16);
+        final long[] triangles = new long[LodPolicy.LEVELS];
+        for (int lod = 0; lod < LodPolicy.LEVELS; lod++) {
+            final int level = lod, scale = 1 << lod;
+            blocks.forEachChunk(key -> {
+                mesher.mesh(blocks, key, mesh, level);
+                triangles[level] += mesh.getIndicesTextureCount() / 3;
+                // вершины огрублённой сетки лежат на границах ячеек
+                for (int vertex = 0; vertex < mesh.getVerticesCount(); vertex++)
+                    for (int axis = 0; axis < 3; axis++)
+                        assertEquals(0, Math.floorMod((int) value(mesh, vertex * 6 + axis), scale));
+            });
+        }
+        System.out.println("lod\ttriangles " + Arrays.toString(triangles));
+        for (int lod = 1; lod < LodPolicy.LEVELS; lod++) assertTrue(triangles[lod] < triangles[lod - 1]);
+    }
+
+    @Test
+    public void lodSeams() {
+        final Engine engine = new Engine(null, new Block[0]);
+        final BlockStorage blocks = engine.blocks;
+        final int[] stone = new int[]{2, 2, 2, 2, 2, 2};
+        for (int y = -16; y < 32; y++)
+            for (int z = -16; z < 32; z++)
+                for (int x = -16; x < 32; x++) blocks.put(x, y, z, 2, stone);
+        final long key = BlockStorage.chunkKey(0, 0, 0);
+        final ChunkMesher mesher = new ChunkMesher(MeshingMode.Greedy);
+        final MeshBuffer mesh = new MeshBuffer(16, 16);
+        mesher.mesh(blocks, key, mesh, 2);
+        assertTrue(mesh.isEmpty());
+
+        // соседний чанк может быть построен полностью: сторона ячейки у пустого блока за границей остаётся
+        blocks.remove(16, 5, 5);
+        mesher.mesh(blocks, key, mesh, 0);
+        assertEquals(4, mesh.getVerticesCount());
+        mesher.mesh(blocks, key, mesh, 2);
+        assertEquals(4, mesh.getVerticesCount());
+        assertEquals(16f, faceArea(mesh));
+        assertEquals(16f, value(mesh, 0));
+    }
+
+    @Test
+    public void lodMeshesAreCached() throws InterruptedException {
+        final Engine engine = new Engine(null, Engine.generateBlockLayer(new Vector3i(8, 0, 8), 16));
+        final BlockStorage blocks = engine.blocks;
+        final long key = BlockStorage.chunkKey(0, 0, 0);
+        final MeshingPipeline pipeline = new MeshingPipeline(MeshingMode.Simple, 1);
+        final ChunkMesh chunkMesh = new ChunkMesh(key);
+        final int version = blocks.getChunkVersion(key);
+        for (int lod : new int[]{0, 3}) {
+            pipeline.submit(blocks, chunkMesh, version, lod);
+            while (pipeline.inFlight() > 0) {
+                pipeline.collect();
+                Thread.sleep(1);
+            }
+            assertEquals(lod, chunkMesh.lod);
+        }
+        pipeline.shutdown();
+        final int coarseVertices = chunkMesh.getMesh().getVerticesCount(), revision = chunkMesh.revision;
+        assertEquals(4 * (2 * 2 * 2 + 4 * 2), coarseVertices);
+
+        // возврат на полный уровень без построения
+        assertTrue(chunkMesh.restore(0, version));
+        assertEquals(0, chunkMesh.lod);
+        assertEquals(4 * (16 * 16 * 2 + 16 * 4), chunkMesh.getMesh().getVerticesCount());
+        assertEquals(revision + 1, chunkMesh.revision);
+        assertTrue(chunkMesh.restore(3, version));
+        assertEquals(coarseVertices, chunkMesh.getMesh().getVerticesCount());
+        // после изменения чанка кэш устарел
+        assertFalse(chunkMesh.restore(0, version + 1));
+    }
+
+    @Test
+    public void failedMeshIsRecorded() throws InterruptedException {
+        final BlockStorage blocks = new engine.storage.ChunkedBlockStorage() {
+            @Override
+            public boolean computeFaceMasks(long chunkKey, long[] masks) {
+                throw new IllegalStateException("повреждённый чанк");
+            }
+        };
+        blocks.put(0, 0, 0, 1, new int[]{0, 1, 2, 3, 4, 5});
+        final long key = BlockStorage.chunkKey(0, 0, 0);
+        final MeshingPipeline pipeline = new MeshingPipeline(MeshingMode.Simple, 1);
+        final ChunkMesh chunkMesh = new ChunkMesh(key);
+        final int version = blocks.getChunkVersion(key);
+        pipeline.submit(blocks, chunkMesh, version);
+        while (pipeline.inFlight() > 0) {
+            assertFalse(pipeline.collect());
+            Thread.sleep(1);
+        }
+        pipeline.shutdown();
+        assertFalse(chunkMesh.pending);
+        assertEquals(version, chunkMesh.failedVersion);
+        assertEquals(-1, chunkMesh.version);
+        assertEquals(1, pipeline.getFailures());
+        assertEquals("повреждённый чанк", pipeline.getLastFailure().getMessage());
+    }
+
+    @Test
+    public void packedFormatLimits() {
+        final Engine engine = new Engine(null, new Block[0]);
+        final BlockStorage blocks = engine.blocks;
+        final ChunkMesher mesher = new ChunkMesher();
+        final MeshBuffer mesh = new MeshBuffer(VertexFormat.Packed, 16, 16);
+        blocks.put(8191, 0, -8192, 1, new int[]{0, 1, 2, 3, 4, 255});
+        mesher.mesh(blocks, BlockStorage.chunkKeyOf(8191, 0, -8192), mesh);
+        assertEquals(24, mesh.getVerticesCount());
+
+        // дальше ±8192 блоков координата чанка не помещается в 10 бит
+        blocks.put(8192, 0, 0, 1, new int[]{0, 1, 2, 3, 4, 5});
+        assertThrows(IllegalArgumentException.class, () -> mesher.mesh(blocks, BlockStorage.chunkKeyOf(8192, 0, 0), mesh));
+        // id стороны больше 255 не помещается в 8 бит плитки
+        blocks.put(0, 0, 0, 1, new int[]{0, 1, 2, 3, 4, 256});
+        assertThrows(IllegalArgumentException.class, () -> mesher.mesh(blocks, BlockStorage.chunkKey(0, 0, 0), mesh));
+        final MeshBuffer full = new MeshBuffer(VertexFormat.Full, 16, 16);
+        mesher.mesh(blocks, BlockStorage.chunkKeyOf(8192, 0, 0), full);
+        assertEquals(24, full.getVerticesCount());
+    }
+}
@@ -0,0 +1,33 @@
+package graphics.translateObjects;
+
+import org.junit.jupiter.api.Test;
+
+import static engine.storage.BlockStorage.chunkKey;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LodPolicyTest {
+
+    @Test
+    public void levelsChangeWithHysteresis() {
+        final LodPolicy policy = new LodPolicy(8, 96, 192, 384);
+        assertEquals(4, policy.getLevels());
+        assertEquals(0, policy.select(50, 0));
+        // у границы уровень не меняется, пока камера не отойдёт на запас
+        assertEquals(0, policy.select(100, 0));
+        assertEquals(1, policy.select(105, 0));
+        assertEquals(1, policy.select(90, 1));
+        assertEquals(0, policy.select(87, 1));
+        assertEquals(3, policy.select(1000, 0));
+        assertEquals(3, policy.select(380, 3));
+        assertEquals(2, policy.select(370, 3));
+        assertEquals(0, policy.select(0, 3));
+
+        // центр чанка (10, 0, 0) в точке (168, 8, 8)
+        final long key = chunkKey(10, 0, 0);
+        assertEquals(1, policy.select(key, 8, 8, 8, 0));
+        assertEquals(0, policy.select(key, 80, 8, 8, 1));
+
+        assertThrows(IllegalArgumentException.class, () -> new LodPolicy(8, 96, 100));
+        assertThrows(IllegalArgumentException.class, () -> new LodPolicy(8, 96, 192, 384, 768));
+    }
+}
@@ -0,0 +1,134 @@
+package graphics.translateObjects;
+
+import engine.Engine;
+import engine.entities.Block;
+import engine.storage.BlockStorage;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static engine.storage.BlockStorage.chunkKey;
+import static graphics.translateObjects.ChunkConnectivity.connected;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OcclusionCullerTest {
+    private static final int[] SIDES = {0, 1, 2, 3, 4, 5};
+
+    private static Matrix4f viewProjection(Vector3f position, Vector3f orientation) {
+        final Matrix4f view = new Matrix4f().lookAt(position, new Vector3f(position).add(orientation), new Vector3f(0, 1, 0));
+        return new Matrix4f().perspective((float) Math.toRadians(90), 1f, 0.1f, 10000f).mul(view);
+    }
+
+    private static void fill(BlockStorage blocks, int x0, int y0, int z0, int x1, int y1, int z1) {
+        for (int y = y0; y < y1; y++)
+            for (int z = z0; z < z1; z++)
+                for (int x = x0; x < x1; x++)
+                    blocks.putUnversioned(x, y, z, 1, SIDES, 0);
+    }
+
+    /**
+     * Сетки всех чанков хранилища с посчитанной связностью, каждая по 60 индексов
+     */
+    private static List<ChunkMesh> chunks(BlockStorage blocks) {
+        final ChunkConnectivity connectivity = new ChunkConnectivity();
+        final List<ChunkMesh> chunks = new ArrayList<>();
+        blocks.forEachChunk(key -> {
+            final ChunkMesh chunkMesh = new ChunkMesh(key);
+            chunkMesh.mesh.sizeITexture = 60;
+            chunkMesh.placedITexture = 60 * chunks.size();
+            chunkMesh.connectivity = connectivity.compute(blocks, key);
+            chunks.add(chunkMesh);
+        });
+        return chunks;
+    }
+
+    private static Set<Long> drawn(VisibleSet visible) {
+        final Set<Long> keys = new HashSet<>();
+        for (int i = 0; i < visible.getDrawnChunks(); i++) keys.add(visible.chunks[i].key);
+        return keys;
+    }
+
+    @Test
+    public void connectivityFollowsOpenCells() {
+        final Engine engine = new Engine(null, new Block[0]);
+        final BlockStorage blocks = engine.blocks;
+        final ChunkConnectivity connectivity = new ChunkConnectivity();
+        assertEquals(ChunkConnectivity.ALL, connectivity.compute(blocks, chunkKey(0, 0, 0)));
+
+        fill(blocks, 0, 0, 0, 16, 16, 16);
+        assertEquals(0, connectivity.compute(blocks, chunkKey(0, 0, 0)));
+
+        // вертикальная шахта: видно только сверху вниз
+        for (int y = 0; y < 16; y++) blocks.remove(5, y, 7);
+        final long shaft = connectivity.compute(blocks, chunkKey(0, 0, 0));
+        assertTrue(connected(shaft, 1, 2));
+        assertTrue(connected(shaft, 2, 1));
+        assertFalse(connected(shaft, 0, 3));
+        assertFalse(connected(shaft, 1, 4));
+
+        // стена поперёк z в пустом чанке
+        fill(blocks, 0, 0, 40, 16, 16, 41);
+        final long wall = connectivity.compute(blocks, chunkKey(0, 0, 2));
+        assertFalse(connected(wall, 0, 3));
+        assertTrue(connected(wall, 1, 2));
+        assertTrue(connected(wall, 4, 5));
+        assertTrue(connected(wall, 0, 1));
+        assertTrue(connected(wall, 3, 4));
+    }
+
+    @Test
+    public void buriedChunksAreOccluded() {
+        final Engine engine = new Engine(null, new Block[0]);
+        final BlockStorage blocks = engine.blocks;
+        // сплошная толща чанков x -1..1, y -2..-1, z 0..3
+        fill(blocks, -16, -32, 0, 32, 0, 64);
+        final Vector3f camera = new Vector3f(8, 24, -24);
+        final Matrix4f matrix = viewProjection(camera, new Vector3f(0, -1, 1).normalize());
+
+        List<ChunkMesh> chunks = chunks(blocks);
+        final VisibleSet visible = new VisibleSet();
+        visible.cull(matrix, chunks, chunks, camera);
+        Set<Long> keys = drawn(visible);
+        System.out.println("occlusion\tdrawn=" + visible.getDrawnChunks() + "\tculled=" + visible.getCulledChunks()
+                + "\toccluded=" + visible.getOccludedChunks());
+        // поверхность и ближняя к камере стенка видны
+        for (int cx = -1; cx <= 1; cx++)
+            for (int cz = 0; cz < 4; cz++) assertTrue(keys.contains(chunkKey(cx, -1, cz)));
+        for (int cx = -1; cx <= 1; cx++) assertTrue(keys.contains(chunkKey(cx, -2, 0)));
+        // нижний слой за ними закрыт
+        for (int cx = -1; cx <= 1; cx++)
+            for (int cz = 1; cz < 4; cz++) assertFalse(keys.contains(chunkKey(cx, -2, cz)));
+        assertEquals(9, visible.getOccludedChunks());
+
+        // без отбора по перекрытию рисуются все чанки в пирамиде видимости
+        final VisibleSet frustumOnly = new VisibleSet();
+        frustumOnly.cull(matrix, chunks);
+        assertEquals(visible.getDrawnChunks() + visible.getOccludedChunks(), frustumOnly.getDrawnChunks());
+        assertEquals(0, frustumOnly.getOccludedChunks());
+
+        // шахта с поверхности открывает чанк под ней
+        for (int y = -20; y < 0; y++) blocks.remove(8, y, 40);
+        chunks = chunks(blocks);
+        visible.cull(matrix, chunks, chunks, camera);
+        keys = drawn(visible);
+        assertTrue(keys.contains(chunkKey(0, -2, 2)));
+        assertFalse(keys.contains(chunkKey(0, -2, 1)));
+        assertEquals(8, visible.getOccludedChunks());
+
+        // повторный отбор даёт тот же набор
+        final VisibleSet again = new VisibleSet();
+        again.cull(matrix, chunks, chunks, camera);
+        assertEquals(keys, drawn(again));
+        assertEquals(visible.getRangeCount(), again.getRangeCount());
+
+        // камера слишком далеко от известных чанков: отбор по перекрытию не проводится
+        final Vector3f far = new Vector3f(8, 1 << 16, -24);
+        again.cull(viewProjection(far, new Vector3f(0, -1, 0.01f).normalize()), chunks, chunks, far);
+        assertEquals(0, again.getOccludedChunks());
+    }
+}
@@ -0,0 +1,75 @@
+package graphics.translateObjects;
+
+import engine.storage.BlockStorage;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VisibleSetTest {
+
+    /**
+     * Матрица камеры так же, как в Camera.Matrix
+     */
+    private static Matrix4f viewProjection(Vector3f position, Vector3f orientation) {
+        final Matrix4f view = new Matrix4f().lookAt(position, new Vector3f(position).add(orientation), new Vector3f(0, 1, 0));
+        return new Matrix4f().perspective((float) Math.toRadians(90), 1f, 0.1f, 10000f).mul(view);
+    }
+
+    /**
+     * Сетки чанков (0, 0, cz) по 60 индексов, размещённые подряд в порядке order
+     */
+    private static List<ChunkMesh> place(int... order) {
+        final List<ChunkMesh> placed = new ArrayList<>();
+        int offset = 0;
+        for (int cz : order) {
+            final ChunkMesh chunkMesh = new ChunkMesh(BlockStorage.chunkKey(0, 0, cz));
+            chunkMesh.mesh.sizeITexture = 60;
+            chunkMesh.placedITexture = offset;
+            offset += 60;
+            placed.add(chunkMesh);
+        }
+        return placed;
+    }
+
+    @Test
+    public void chunksOutsideFrustumAreCulled() {
+        final Vector3f position = new Vector3f(8, 8, 1);
+        final VisibleSet main = new VisibleSet(), mirror = new VisibleSet();
+
+        final List<ChunkMesh> ordered = place(-3, -2, -1, 0, 1, 2, 3);
+        main.cull(viewProjection(position, new Vector3f(0, 0, 1)), ordered);
+        assertEquals(4, main.getDrawnChunks());
+        assertEquals(3, main.getCulledChunks());
+        // видимые чанки лежат подряд и рисуются одним диапазоном
+        assertEquals(1, main.getRangeCount());
+        assertEquals(180, main.getFirst(0));
+        assertEquals(240, main.getCount(0));
+        assertEquals(240, main.getDrawnIndices());
+
+        // у второй камеры свой набор
+        mirror.cull(viewProjection(position, new Vector3f(0, 0, -1)), ordered);
+        assertEquals(4, mirror.getDrawnChunks());
+        assertEquals(0, mirror.getFirst(0));
+        assertEquals(4 * 60, mirror.getCount(0));
+        assertEquals(4, main.getDrawnChunks());
+
+        final List<ChunkMesh> interleaved = place(-3, 0, -2, 1, -1, 2, 3);
+        main.cull(viewProjection(position, new Vector3f(0, 0, 1)), interleaved);
+        assertEquals(4, main.getDrawnChunks());
+        assertEquals(3, main.getRangeCount());
+        assertEquals(60, main.getFirst(0));
+        assertEquals(180, main.getFirst(1));
+        assertEquals(300, main.getFirst(2));
+        assertEquals(120, main.getCount(2));
+
+        // вид вверх: ни один чанк слоя не виден
+        main.cull(viewProjection(new Vector3f(8, 40, 1), new Vector3f(0.001f, 1, 0)), ordered);
+        assertEquals(0, main.getDrawnChunks());
+        assertEquals(0, main.getRangeCount());
+    }
+}